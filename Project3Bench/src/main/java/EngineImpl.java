@@ -0,0 +1,136 @@
+import bench.Engine;
+import java.util.Objects;
+import javafx.scene.image.Image;
+import javafx.scene.text.Font;
+
+// Forwards bench.Engine to the real client and server classes.
+public class EngineImpl implements Engine {
+    @Override
+    public Object newGame() {
+        return new Connect4();
+    }
+
+    @Override
+    public Object copy(Object game) {
+        return ((Connect4) game).copy();
+    }
+
+    @Override
+    public void play(Object game, int col) {
+        Connect4 g = (Connect4) game;
+        g.drop(g.currPlayer, col);
+        g.switchPlayer();
+    }
+
+    @Override
+    public Object updateBoard(Object game, int col) {
+        Connect4 g = (Connect4) game;
+        return g.updateBoard(col, g.currPlayer);
+    }
+
+    @Override
+    public boolean checkForWin(Object game) {
+        return ((Connect4) game).checkForWin();
+    }
+
+    @Override
+    public boolean checkForWinOnBoard(Object game) {
+        Connect4 g = (Connect4) game;
+        return Connect4.checkForWin(g.board, g.currPlayer);
+    }
+
+    @Override
+    public int chooseCol(Object game) {
+        return ((Connect4) game).AI_chooseCol();
+    }
+
+    @Override
+    public boolean isColumnFull(Object game, int col) {
+        return ((Connect4) game).isColumnFull(col);
+    }
+
+    @Override
+    public long takeDirty(Object game) {
+        return ((Connect4) game).takeDirty();
+    }
+
+    @Override
+    public char cell(Object game, int row, int col) {
+        return ((Connect4) game).board.get(row).get(col);
+    }
+
+    @Override
+    public Object assetImage(String name, double width, double height) {
+        return width > 0 ? Assets.image(name, width, height) : Assets.image(name);
+    }
+
+    @Override
+    public Object decodeImage(String name, double width, double height) {
+        return new Image(Objects.requireNonNull(Assets.class.getResourceAsStream(name)), width, height, false, true);
+    }
+
+    @Override
+    public Object assetFont(double size) {
+        return Assets.font(size);
+    }
+
+    @Override
+    public Object loadFont(double size) {
+        return Font.loadFont(Assets.class.getResourceAsStream("ka1.ttf"), size);
+    }
+
+    @Override
+    public void clearAssets() {
+        Assets.clear();
+    }
+
+    @Override
+    public String serverFrame(String channel, String payload) {
+        return Server.frame(channel, payload);
+    }
+
+    @Override
+    public String[] serverUnframe(String msg) {
+        return Server.unframe(msg);
+    }
+
+    @Override
+    public String clientFrame(String channel, String payload) {
+        return Client.frame(channel, payload);
+    }
+
+    @Override
+    public String[] clientUnframe(String msg) {
+        return Client.unframe(msg);
+    }
+
+    @Override
+    public Object newRegistry(String... reserved) {
+        return new UsernameRegistry(reserved);
+    }
+
+    @Override
+    public boolean claim(Object registry, String name) {
+        return ((UsernameRegistry) registry).claim(name);
+    }
+
+    @Override
+    public boolean rename(Object registry, String oldName, String newName) {
+        return ((UsernameRegistry) registry).rename(oldName, newName);
+    }
+
+    @Override
+    public void release(Object registry, String name) {
+        ((UsernameRegistry) registry).release(name);
+    }
+
+    @Override
+    public boolean contains(Object registry, String name) {
+        return ((UsernameRegistry) registry).contains(name);
+    }
+
+    @Override
+    public String list(Object registry) {
+        return ((UsernameRegistry) registry).list();
+    }
+}
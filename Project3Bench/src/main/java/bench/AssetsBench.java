@@ -0,0 +1,68 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The images and fonts a game scene needs, per scene: decoded afresh as every scene
+// used to, through a cold Assets cache (the first scene) and through a warm one (every
+// scene after). JavaFX decodes these without a window on the software pipeline; loading
+// a font also needs libpango on Linux. Run with -prof gc for the bytes each one allocates.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dprism.order=sw")
+@State(Scope.Thread)
+public class AssetsBench {
+    private static final Engine engine = Engine.INSTANCE;
+    // what GameScene loaded: the board, both coins, every background frame and the button at its drawn size
+    private static final String[] IMAGES = {"board.png", "red_coin.png", "yellow_coin.png",
+            "bg1.png", "bg2.png", "bg3.png", "bg4.png", "bg5.png", "bg6.png", "bg7.png", "bg8.png", "bg9.png"};
+    private static final double BUTTON_WIDTH = 150, BUTTON_HEIGHT = 40;
+    // one per label and button, as GameScene asked for them
+    private static final double[] FONT_SIZES = {12, 12, 18, 12, 12, 12, 24, 12, 16, 12};
+
+    @Benchmark
+    public void imagesPerScene(Blackhole bh) {
+        for (String name : IMAGES) {
+            bh.consume(engine.decodeImage(name, 0, 0));
+        }
+        bh.consume(engine.decodeImage("Button.png", BUTTON_WIDTH, BUTTON_HEIGHT));
+    }
+
+    @Benchmark
+    public void imagesCold(Blackhole bh) {
+        engine.clearAssets();
+        imagesWarm(bh);
+    }
+
+    @Benchmark
+    public void imagesWarm(Blackhole bh) {
+        for (String name : IMAGES) {
+            bh.consume(engine.assetImage(name, 0, 0));
+        }
+        bh.consume(engine.assetImage("Button.png", BUTTON_WIDTH, BUTTON_HEIGHT));
+    }
+
+    @Benchmark
+    public void fontsPerScene(Blackhole bh) {
+        for (double size : FONT_SIZES) {
+            bh.consume(engine.loadFont(size));
+        }
+    }
+
+    @Benchmark
+    public void fontsCold(Blackhole bh) {
+        engine.clearAssets();
+        fontsWarm(bh);
+    }
+
+    @Benchmark
+    public void fontsWarm(Blackhole bh) {
+        for (double size : FONT_SIZES) {
+            bh.consume(engine.assetFont(size));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Connect4 board operations: copy, drop, updateBoard, redraw, win check and the AI.
+// Run with -prof gc for the allocation per operation (gc.alloc.rate.norm) as well.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Connect4Bench {
+    private static final Engine engine = Engine.INSTANCE;
+    // enough positions that branch prediction can't learn the answers
+    private static final int POSITIONS = 64;
+
+    // Which positions to use: an opening by name, or "randomN" for N random moves.
+    @Param({"empty", "fourPly", "random16", "random32"})
+    public String position;
+
+    private Object[] games;
+    private int[][] openColumns;
+    private int[] fillOrder;
+    // what the board on screen shows, one char per cell in place of GameScene's ImageViews
+    private final char[][] shown = new char[Fixtures.ROWS][Fixtures.COLS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<String> moves = Fixtures.positions(position, POSITIONS);
+        games = new Object[POSITIONS];
+        openColumns = new int[POSITIONS][];
+        for (int i = 0; i < POSITIONS; i++) {
+            games[i] = Fixtures.game(engine, moves.get(i));
+            int n = 0;
+            int[] open = new int[Fixtures.COLS];
+            for (int col = 0; col < Fixtures.COLS; col++) {
+                if (!engine.isColumnFull(games[i], col)) open[n++] = col;
+            }
+            openColumns[i] = Arrays.copyOf(open, n);
+        }
+        fillOrder = Fixtures.fillOrder(Fixtures.SEED);
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (POSITIONS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public Object copy() {
+        return engine.copy(games[nextIndex()]);
+    }
+
+    @Benchmark
+    public Object updateBoard() {
+        int i = nextIndex();
+        int[] open = openColumns[i];
+        return engine.updateBoard(games[i], open[i % open.length]);
+    }
+
+    // copy then drop, since drop changes the game in place; subtract copy() for the drop alone
+    @Benchmark
+    public Object copyAndDrop() {
+        int i = nextIndex();
+        int[] open = openColumns[i];
+        Object game = engine.copy(games[i]);
+        engine.play(game, open[i % open.length]);
+        return game;
+    }
+
+    // a fresh game filled to the top, reported per drop
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.ROWS * Fixtures.COLS)
+    public Object dropFullBoard() {
+        Object game = engine.newGame();
+        for (int col : fillOrder) {
+            engine.play(game, col);
+        }
+        return game;
+    }
+
+    // dropFullBoard plus GameScene's redraw after each drop: only the cells takeDirty
+    // reports are read back and shown; subtract dropFullBoard for the redraw alone
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.ROWS * Fixtures.COLS)
+    public char[][] dropAndRedrawDirty() {
+        Object game = engine.newGame();
+        engine.takeDirty(game);
+        for (int col : fillOrder) {
+            engine.play(game, col);
+            long dirty = engine.takeDirty(game);
+            while (dirty != 0) {
+                int i = Long.numberOfTrailingZeros(dirty);
+                dirty &= dirty - 1;
+                shown[i / Fixtures.COLS][i % Fixtures.COLS] = engine.cell(game, i / Fixtures.COLS, i % Fixtures.COLS);
+            }
+        }
+        return shown;
+    }
+
+    // the same with every cell read back after each drop, as before the dirty set
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.ROWS * Fixtures.COLS)
+    public char[][] dropAndRedrawAll() {
+        Object game = engine.newGame();
+        for (int col : fillOrder) {
+            engine.play(game, col);
+            for (int r = 0; r < Fixtures.ROWS; r++) {
+                for (int c = 0; c < Fixtures.COLS; c++) {
+                    shown[r][c] = engine.cell(game, r, c);
+                }
+            }
+        }
+        return shown;
+    }
+
+    @Benchmark
+    public boolean checkForWin() {
+        return engine.checkForWin(games[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean checkForWinOnBoard() {
+        return engine.checkForWinOnBoard(games[nextIndex()]);
+    }
+
+    // win/block scan plus a random fallback, so results vary a little between runs
+    @Benchmark
+    public int aiChooseCol() {
+        return engine.chooseCol(games[nextIndex()]);
+    }
+}
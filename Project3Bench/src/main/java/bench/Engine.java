@@ -0,0 +1,75 @@
+package bench;
+
+// The operations being measured, as seen from the benchmarks.
+// JMH won't generate code for classes in the default package, and a named
+// package can't refer to the game classes that live there, so EngineImpl
+// (default package) forwards to them. There is only one implementation, so
+// the JIT inlines these calls and they don't show up in the numbers.
+public interface Engine {
+    Engine INSTANCE = load();
+
+    // Connect4; games are passed around as Object for the reason above
+    Object newGame();
+
+    Object copy(Object game);
+
+    // drop a piece for the player to move, then hand the turn over
+    void play(Object game, int col);
+
+    Object updateBoard(Object game, int col);
+
+    boolean checkForWin(Object game);
+
+    boolean checkForWinOnBoard(Object game);
+
+    int chooseCol(Object game);
+
+    boolean isColumnFull(Object game, int col);
+
+    // the cells changed since the last call, one bit each, as GameScene redraws them
+    long takeDirty(Object game);
+
+    char cell(Object game, int row, int col);
+
+    // JavaFX images and fonts, through the Assets cache or decoded afresh the way each
+    // scene used to; a width or height of 0 keeps the image's own size
+    Object assetImage(String name, double width, double height);
+
+    Object decodeImage(String name, double width, double height);
+
+    Object assetFont(double size);
+
+    Object loadFont(double size);
+
+    void clearAssets();
+
+    // protocol framing on each side
+    String serverFrame(String channel, String payload);
+
+    String[] serverUnframe(String msg);
+
+    String clientFrame(String channel, String payload);
+
+    String[] clientUnframe(String msg);
+
+    // UsernameRegistry
+    Object newRegistry(String... reserved);
+
+    boolean claim(Object registry, String name);
+
+    boolean rename(Object registry, String oldName, String newName);
+
+    void release(Object registry, String name);
+
+    boolean contains(Object registry, String name);
+
+    String list(Object registry);
+
+    static Engine load() {
+        try {
+            return (Engine) Class.forName("EngineImpl").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("EngineImpl missing from the benchmark build", e);
+        }
+    }
+}
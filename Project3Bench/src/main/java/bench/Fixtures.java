@@ -0,0 +1,116 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Positions the benchmarks run against. Everything is built from fixed seeds,
+// so two runs (or two machines) measure the same boards.
+// A position is the columns played so far, as digits: "3342" is four moves.
+public final class Fixtures {
+    public static final int ROWS = 6;
+    public static final int COLS = 7;
+    public static final long SEED = 20240501L;
+
+    private Fixtures() {}
+
+    // Well-known starts, plus the empty board.
+    public static String opening(String name) {
+        switch (name) {
+            case "empty":      return "";
+            case "center":     return "3";
+            case "stacked":    return "33";        // second player answers on top
+            case "adjacent":   return "32";
+            case "fourPly":    return "3322";
+            case "sixPly":     return "332244";
+            default: throw new IllegalArgumentException("Unknown opening " + name);
+        }
+    }
+
+    // count positions for a fixture name: an opening repeated, or "randomN" for
+    // seeded random positions with N moves each.
+    public static List<String> positions(String name, int count) {
+        if (name.startsWith("random")) {
+            return randomPositions(count, Integer.parseInt(name.substring(6)), SEED);
+        }
+        return Collections.nCopies(count, opening(name));
+    }
+
+    // count random positions of exactly plies moves in which nobody has four in a row yet.
+    public static List<String> randomPositions(int count, int plies, long seed) {
+        Random random = new Random(seed);
+        List<String> positions = new ArrayList<>(count);
+        while (positions.size() < count) {
+            String p = randomPosition(random, plies);
+            if (p != null) {
+                positions.add(p);
+            }
+        }
+        return positions;
+    }
+
+    private static String randomPosition(Random random, int plies) {
+        int[] heights = new int[COLS];
+        long[] bits = new long[2];
+        StringBuilder moves = new StringBuilder(plies);
+        for (int ply = 0; ply < plies; ply++) {
+            int col = -1;
+            // try columns in random order until one neither is full nor ends the game
+            int start = random.nextInt(COLS);
+            for (int i = 0; i < COLS && col < 0; i++) {
+                int c = (start + i) % COLS;
+                if (heights[c] < ROWS && !isFour(bits[ply & 1] | bit(c, heights[c]))) {
+                    col = c;
+                }
+            }
+            if (col < 0) {
+                return null; // dead end, start over
+            }
+            bits[ply & 1] |= bit(col, heights[col]++);
+            moves.append(col);
+        }
+        return moves.toString();
+    }
+
+    // Every column six times in a seeded random order: one full board's worth of drops.
+    public static int[] fillOrder(long seed) {
+        int[] order = new int[ROWS * COLS];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i % COLS;
+        }
+        Random random = new Random(seed);
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        return order;
+    }
+
+    // Play a position into a fresh game.
+    public static Object game(Engine engine, String moves) {
+        Object game = engine.newGame();
+        for (int i = 0; i < moves.length(); i++) {
+            engine.play(game, moves.charAt(i) - '0');
+        }
+        return game;
+    }
+
+    // column-major bitboard, one spare bit on top of each column so lines can't wrap
+    private static long bit(int col, int height) {
+        return 1L << (col * (ROWS + 1) + height);
+    }
+
+    private static boolean isFour(long b) {
+        int[] shifts = {1, ROWS + 1, ROWS, ROWS + 2};
+        for (int s : shifts) {
+            long m = b & (b >>> s);
+            if ((m & (m >>> (2 * s))) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,128 @@
+package bench;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Message framing on both sides, and the Java serialization each message goes through on the wire.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBench {
+    private static final Engine engine = Engine.INSTANCE;
+
+    // a move, a short chat line and a lobby list, the common message shapes
+    @Param({"MOVE:3", "PRIVATE_CHAT:good game, want a rematch?", "USERNAME_LIST:Server,Admin,System,User1,User2,User3,User4,User5"})
+    public String payload;
+
+    private String channel;
+    private String framed;
+
+    private ObjectOutputStream out;
+    private ObjectInputStream in;
+
+    @Setup
+    public void setUp() throws IOException {
+        channel = payload.startsWith("USERNAME") ? "LOBBY" : "G42";
+        framed = engine.serverFrame(channel, payload);
+
+        // a long-lived stream, like each connection's, writing into a sink that is never read
+        out = new ObjectOutputStream(new OutputStream() {
+            @Override public void write(int b) {}
+            @Override public void write(byte[] b, int off, int len) {}
+        });
+
+        // a long-lived reader fed the same serialized message over and over
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        ObjectOutputStream w = new ObjectOutputStream(header);
+        w.flush();
+        int headerLength = header.size();
+        w.writeObject(framed);
+        w.reset();
+        w.flush();
+        byte[] all = header.toByteArray();
+        byte[] message = new byte[all.length - headerLength];
+        System.arraycopy(all, headerLength, message, 0, message.length);
+        in = new ObjectInputStream(new RepeatingInputStream(Arrays.copyOf(all, headerLength), message));
+    }
+
+    @Benchmark
+    public String serverFrame() {
+        return engine.serverFrame(channel, payload);
+    }
+
+    @Benchmark
+    public String[] serverUnframe() {
+        return engine.serverUnframe(framed);
+    }
+
+    @Benchmark
+    public String clientFrame() {
+        return engine.clientFrame(channel, payload);
+    }
+
+    @Benchmark
+    public String[] clientUnframe() {
+        return engine.clientUnframe(framed);
+    }
+
+    // frame + writeObject + flush, what Server.ClientThread.send does per message.
+    // Reset after each write keeps the stream's handle table from growing during the run.
+    @Benchmark
+    public ObjectOutputStream encode() throws IOException {
+        out.writeObject(engine.serverFrame(channel, payload));
+        out.flush();
+        out.reset();
+        return out;
+    }
+
+    // readObject + unframe, what the client's reader thread does per message
+    @Benchmark
+    public String[] decode() throws IOException, ClassNotFoundException {
+        return engine.clientUnframe(in.readObject().toString());
+    }
+
+    // Serves a header once, then the same message bytes forever.
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] message;
+        private byte[] current;
+        private int pos;
+
+        RepeatingInputStream(byte[] header, byte[] message) {
+            this.message = message;
+            this.current = header;
+        }
+
+        @Override
+        public int read() {
+            if (pos == current.length) {
+                current = message;
+                pos = 0;
+            }
+            return current[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (pos == current.length) {
+                current = message;
+                pos = 0;
+            }
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(current, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current.length - pos;
+        }
+    }
+}
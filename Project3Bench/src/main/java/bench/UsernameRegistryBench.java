@@ -0,0 +1,100 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.*;
+
+// UsernameRegistry as the server uses it: a name per connection, renames, and the
+// USERNAME_LIST sent to every client that joins or renames.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UsernameRegistryBench {
+    private static final Engine engine = Engine.INSTANCE;
+
+    // names already taken when the benchmark starts
+    @Param({"10", "1000"})
+    public int users;
+
+    private Object registry;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        registry = engine.newRegistry("Server", "Admin", "System");
+        for (int i = 1; i <= users; i++) {
+            engine.claim(registry, "User" + i);
+        }
+    }
+
+    // Names owned by one benchmark thread, so threads never collide on a name.
+    @State(Scope.Thread)
+    public static class Own {
+        String name;
+        String alias;
+        boolean renamed;
+
+        @Setup
+        public void setUp(UsernameRegistryBench bench) {
+            int id = bench.threads.incrementAndGet();
+            name = "Bench" + id;
+            alias = "Alias" + id;
+            engine.claim(bench.registry, name);
+        }
+    }
+
+    // a client connecting and disconnecting
+    @Benchmark
+    public boolean claimRelease(Own own) {
+        String name = own.alias;
+        boolean claimed = engine.claim(registry, name);
+        engine.release(registry, name);
+        return claimed;
+    }
+
+    // SET_USERNAME to a free name
+    @Benchmark
+    public boolean rename(Own own) {
+        boolean ok = own.renamed
+                ? engine.rename(registry, own.alias, own.name)
+                : engine.rename(registry, own.name, own.alias);
+        own.renamed = !own.renamed;
+        return ok;
+    }
+
+    // SET_USERNAME to a name someone already has
+    @Benchmark
+    public boolean renameTaken(Own own) {
+        return engine.rename(registry, own.renamed ? own.alias : own.name, "User1");
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return engine.contains(registry, "User" + users);
+    }
+
+    // USERNAME_LIST with nothing changed since the last one
+    @Benchmark
+    public String list() {
+        return engine.list(registry);
+    }
+
+    // USERNAME_LIST right after someone joins or leaves
+    @Benchmark
+    public String listAfterChange(Own own) {
+        engine.claim(registry, own.alias);
+        engine.release(registry, own.alias);
+        return engine.list(registry);
+    }
+
+    // joins and leaves from four threads at once
+    @Benchmark
+    @Threads(4)
+    public boolean claimReleaseContended(Own own) {
+        return claimRelease(own);
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+// Runs AI move searches off the JavaFX Application Thread.
+// Each request searches its own copy of the game and returns a future;
+// cancelling the future interrupts the worker that is searching for it.
+// The engine is Connect4.AI_chooseCol unless the config picks another. Games on
+// other boards than the standard one always get AI_chooseCol, the one engine that
+// plays any size.
+// Engines that can use the opponent's thinking time (Mcts) ponder between moves:
+// the searches share the worker, so cancel a ponder before asking for a move.
+public final class AIService {
+    // a player who walks away doesn't keep the CPU busy for long
+    static final long MAX_PONDER_MILLIS = 30_000;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ai-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static volatile Bot.Policy engine = Bot.HEURISTIC;
+    private static volatile boolean ponder = true;
+
+    private AIService() {}
+
+    // Pick the engine named by ai-engine: heuristic (default) or mcts, which searches
+    // for ai-millis on ai-threads threads and keeps its tree from move to move.
+    public static void configure(ClientConfig config) {
+        ponder = config.aiPonder;
+        if (config.aiEngine.equalsIgnoreCase("mcts")) {
+            engine = new Mcts(config.aiThreads, config.aiMillis, 0, Mcts.DEFAULT_CAPACITY);
+        } else {
+            engine = Bot.HEURISTIC;
+        }
+    }
+
+    // Choose a column for the player to move in the given game.
+    public static CompletableFuture<Integer> chooseCol(Connect4 game) {
+        Connect4 snapshot = game.copy();
+        Bot.Policy e = game.isStandard() ? engine : Bot.HEURISTIC;
+        return submit(() -> e.chooseCol(snapshot));
+    }
+
+    // Search ahead while the other player is to move in game, so the reply to their
+    // move may be ready the moment they make it. Completes when the pondering stops;
+    // cancel it when they move. Does nothing for engines that can't ponder.
+    public static CompletableFuture<Void> ponder(Connect4 game) {
+        Bot.Policy e = engine;
+        if (!ponder || !(e instanceof Mcts) || !game.isStandard()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Connect4 snapshot = game.copy();
+        return submit(() -> {
+            ((Mcts) e).ponder(snapshot, MAX_PONDER_MILLIS);
+            return null;
+        });
+    }
+
+    private static <T> CompletableFuture<T> submit(Supplier<T> search) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                result.complete(search.get());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((col, err) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+}
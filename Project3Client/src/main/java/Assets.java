@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import javafx.scene.image.Image;
+import javafx.scene.layout.Background;
+import javafx.scene.layout.BackgroundImage;
+import javafx.scene.layout.BackgroundPosition;
+import javafx.scene.layout.BackgroundRepeat;
+import javafx.scene.layout.BackgroundSize;
+import javafx.scene.text.Font;
+
+// Process-wide cache of the fonts and images used by the menus and game scenes.
+// Every resource is decoded once, either on first use or by preload() at startup,
+// and then shared by every scene that asks for it.
+public final class Assets {
+    public static final int BACKGROUND_FRAMES = 9;
+    public static final double BUTTON_WIDTH = 150;
+    public static final double BUTTON_HEIGHT = 40;
+
+    private static final String FONT = "ka1.ttf";
+
+    private static final Map<String, Image> images = new ConcurrentHashMap<>();
+    private static final Map<Double, Font> fonts = new ConcurrentHashMap<>();
+    private static final Map<Integer, Background> backgrounds = new ConcurrentHashMap<>();
+
+    private Assets() {}
+
+    // Image decoded at its natural size.
+    public static Image image(String name) {
+        return images.computeIfAbsent(name, n -> {
+            try (InputStream in = open(n)) {
+                return new Image(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Image decoded to a fixed size (without keeping the aspect ratio).
+    public static Image image(String name, double width, double height) {
+        return images.computeIfAbsent(name + "@" + width + "x" + height,
+                k -> {
+                    try (InputStream in = open(name)) {
+                        return new Image(in, width, height, false, true);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    // Animated game background, frame 0 to BACKGROUND_FRAMES - 1.
+    public static Image backgroundFrame(int i) {
+        return image(String.format("bg%d.png", i + 1));
+    }
+
+    // Animated game background frame as a ready-made, immutable Background
+    // sized to cover the whole pane, so frames can be swapped without allocating.
+    public static Background backgroundFill(int i) {
+        return backgrounds.computeIfAbsent(i, k -> new Background(new BackgroundImage(
+                backgroundFrame(k),
+                BackgroundRepeat.NO_REPEAT,
+                BackgroundRepeat.NO_REPEAT,
+                BackgroundPosition.CENTER,
+                new BackgroundSize(BackgroundSize.AUTO, BackgroundSize.AUTO, false, false, true, true)
+        )));
+    }
+
+    public static Image buttonImage() {
+        return image("Button.png", BUTTON_WIDTH, BUTTON_HEIGHT);
+    }
+
+    // The pixel font at the given size.
+    public static Font font(double size) {
+        return fonts.computeIfAbsent(size, s -> {
+            try (InputStream in = open(FONT)) {
+                Font f = Font.loadFont(in, s);
+                return f != null ? f : Font.font(s);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Decode everything the menu and game scenes use on a background thread,
+    // so the first Single/Multiplayer click doesn't pay for it.
+    public static void preload() {
+        Thread t = new Thread(() -> {
+            image("background.png");
+            image("Button.png");
+            buttonImage();
+            image("board.png");
+            image("red_coin.png");
+            image("yellow_coin.png");
+            for (int i = 0; i < BACKGROUND_FRAMES; i++) {
+                backgroundFill(i);
+            }
+            for (double size : new double[]{12, 16, 18, 24, 30}) {
+                font(size);
+            }
+        }, "asset-preload");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Forget everything decoded so far, so the next use pays for decoding again (for the benchmarks).
+    static void clear() {
+        backgrounds.clear();
+        images.clear();
+        fonts.clear();
+    }
+
+    private static InputStream open(String name) {
+        return Objects.requireNonNull(Assets.class.getResourceAsStream(name), name);
+    }
+}
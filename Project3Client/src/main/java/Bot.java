@@ -0,0 +1,217 @@
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A headless player built on Client, with no JavaFX dependency.
+// It joins the queue, plays full games with a move policy, chats and
+// disconnects according to its Script. All timed actions run on a shared
+// scheduler, so a bot costs one reader thread plus a little state.
+public class Bot {
+    // Picks a column for the player to move.
+    public interface Policy {
+        int chooseCol(Connect4 game);
+    }
+
+    // any open column
+    public static final Policy RANDOM = game -> {
+        Random r = ThreadLocalRandom.current();
+        int col;
+        do {
+            col = r.nextInt(Connect4.numCols);
+        } while (game.isColumnFull(col));
+        return col;
+    };
+
+    // win if possible, otherwise block, otherwise random (same as single player)
+    public static final Policy HEURISTIC = Connect4::AI_chooseCol;
+
+    // What a bot does and when.
+    public static class Script {
+        // games to play before disconnecting; 0 means keep playing
+        public int games = 0;
+        // delay before each move, and before re-queueing after a game
+        public long thinkMillis = 200;
+        public long requeueMillis = 500;
+        // send a private chat message to the opponent every this many moves; 0 disables
+        public int chatEveryMoves = 0;
+        // send a public chat message every this many milliseconds; 0 disables
+        public long lobbyChatMillis = 0;
+    }
+
+    // Totals shared by every bot in a run.
+    public static class Stats {
+        public final AtomicLong gamesStarted = new AtomicLong();
+        public final AtomicLong wins = new AtomicLong();
+        public final AtomicLong losses = new AtomicLong();
+        public final AtomicLong draws = new AtomicLong();
+        public final AtomicLong abandoned = new AtomicLong();
+        public final AtomicLong moves = new AtomicLong();
+        public final AtomicLong chats = new AtomicLong();
+        public final AtomicLong disconnects = new AtomicLong();
+    }
+
+    private final String name;
+    private final Client client;
+    private final Policy policy;
+    private final Script script;
+    private final ScheduledExecutorService scheduler;
+    private final Stats stats;
+
+    private final Connect4 game = new Connect4();
+    private volatile String gameChannel;
+    private int gamesPlayed = 0;
+    private int movesThisGame = 0;
+    private volatile boolean stopped = false;
+    // ride out a lost connection rather than stopping (ClientConfig.reconnect)
+    private final boolean reconnect;
+
+    public Bot(String name, ConnectionFactory connections, Policy policy, Script script,
+               ScheduledExecutorService scheduler, Stats stats) {
+        this.name = name;
+        this.policy = policy;
+        this.script = script;
+        this.scheduler = scheduler;
+        this.stats = stats;
+        this.client = new Client(connections, this::onUnrouted);
+        this.reconnect = connections.getConfig().reconnect;
+        client.setAutoReconnect(reconnect);
+        client.route(Client.MATCH, this::onMatch);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void start() {
+        client.start();
+        client.setUsername(name);
+        queue();
+        if (script.lobbyChatMillis > 0) {
+            scheduleLobbyChat();
+        }
+    }
+
+    public void stop() {
+        if (stopped) return;
+        stopped = true;
+        stats.disconnects.incrementAndGet();
+        client.disconnect();
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    private void queue() {
+        if (stopped) return;
+        client.send(Client.MATCH, "QUEUE");
+    }
+
+    private void scheduleLobbyChat() {
+        scheduler.schedule(() -> {
+            if (stopped) return;
+            client.sendPublicChat("hello from " + name);
+            stats.chats.incrementAndGet();
+            scheduleLobbyChat();
+        }, script.lobbyChatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void onMatch(String msg) {
+        if (msg.startsWith("MATCHED:")) {
+            synchronized (this) {
+                game.reset();
+                movesThisGame = 0;
+                gameChannel = Client.gameChannel(Integer.parseInt(msg.substring(8)));
+                client.route(gameChannel, this::onGame);
+            }
+            stats.gamesStarted.incrementAndGet();
+        }
+    }
+
+    // Messages from channels we no longer listen to; only the connection dropping matters.
+    // The client tells every channel when that happens, this one included.
+    private void onUnrouted(String msg) {
+        if (msg.equals("DISCONNECT:server")) {
+            lostServer();
+        }
+    }
+
+    // The server is gone, and our game and place in the queue with it. Without reconnect
+    // that's the end; with it, leave the game and queue again, to go out once the client is back.
+    private synchronized void lostServer() {
+        if (!reconnect) {
+            stop();
+        } else if (gameChannel != null) {
+            stats.abandoned.incrementAndGet();
+            endGame();
+        } else {
+            scheduler.schedule(this::queue, script.requeueMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void onGame(String msg) {
+        if (msg.equals("DISCONNECT:server")) {
+            // onUnrouted hears it too and deals with it
+        } else if (msg.equals("DISCONNECT:opponent")) {
+            if (gameChannel != null) {
+                stats.abandoned.incrementAndGet();
+                endGame();
+            }
+        } else if (msg.startsWith("MOVE:")) {
+            game.drop(game.currPlayer, Integer.parseInt(msg.substring(5)));
+            if (game.checkForWin()) {
+                stats.losses.incrementAndGet();
+                endGame();
+            } else if (game.isBoardFull()) {
+                stats.draws.incrementAndGet();
+                endGame();
+            } else {
+                game.switchPlayer();
+            }
+        } else if (msg.equals("TURN:true")) {
+            String channel = gameChannel;
+            scheduler.schedule(() -> play(channel), script.thinkMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void play(String channel) {
+        if (stopped || channel == null || !channel.equals(gameChannel)) {
+            return; // the game ended while we were thinking
+        }
+        int col = policy.chooseCol(game);
+        game.drop(game.currPlayer, col);
+        client.send(channel, "MOVE:" + col);
+        stats.moves.incrementAndGet();
+        movesThisGame++;
+        if (script.chatEveryMoves > 0 && movesThisGame % script.chatEveryMoves == 0) {
+            client.send(channel, "PRIVATE_CHAT:move " + movesThisGame + " from " + name);
+            stats.chats.incrementAndGet();
+        }
+
+        if (game.checkForWin()) {
+            stats.wins.incrementAndGet();
+            endGame();
+        } else if (game.isBoardFull()) {
+            stats.draws.incrementAndGet();
+            endGame();
+        } else {
+            game.switchPlayer();
+        }
+    }
+
+    // Leave the finished game, then either re-queue or disconnect per the script.
+    private void endGame() {
+        String channel = gameChannel;
+        gameChannel = null;
+        client.send(channel, "LEAVE");
+        client.unroute(channel);
+        gamesPlayed++;
+        if (script.games > 0 && gamesPlayed >= script.games) {
+            scheduler.schedule(this::stop, script.requeueMillis, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.schedule(this::queue, script.requeueMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
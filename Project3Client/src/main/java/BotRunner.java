@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Command line driver that fills a server with headless bots.
+//
+//   mvn exec:java -Dexec.mainClass=BotRunner -Dexec.args="--bots=2000 --games=10"
+//
+// Besides the connection keys read by ClientConfig (host, port, retries, reconnect, ...) it takes:
+//   --bots=N          number of bots (default 100)
+//   --ramp=MS         delay between starting bots (default 5)
+//   --policy=NAME     random, heuristic, mcts or mctsN for N playouts a move (default heuristic)
+//   --games=N         games per bot before it disconnects, 0 = forever (default 0)
+//   --think=MS        delay before each move (default 200)
+//   --requeue=MS      delay before queueing again after a game (default 500)
+//   --chat-moves=N    private chat every N moves, 0 = off (default 0)
+//   --lobby-chat=MS   public chat every MS, 0 = off (default 0)
+//   --duration=S      stop every bot after S seconds, 0 = when all are done (default 0)
+//   --scheduler-threads=N  threads shared by every bot's timers (default: cores)
+public class BotRunner {
+    public static void main(String[] args) throws InterruptedException {
+        ClientConfig config = ClientConfig.load(args);
+        Properties none = new Properties();
+        int bots = Integer.parseInt(ClientConfig.lookup(args, none, "bots", "100"));
+        long ramp = Long.parseLong(ClientConfig.lookup(args, none, "ramp", "5"));
+        String policyName = ClientConfig.lookup(args, none, "policy", "heuristic");
+        long duration = Long.parseLong(ClientConfig.lookup(args, none, "duration", "0"));
+        int schedulerThreads = Integer.parseInt(ClientConfig.lookup(args, none, "scheduler-threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        Bot.Script script = new Bot.Script();
+        script.games = Integer.parseInt(ClientConfig.lookup(args, none, "games", "0"));
+        script.thinkMillis = Long.parseLong(ClientConfig.lookup(args, none, "think", "200"));
+        script.requeueMillis = Long.parseLong(ClientConfig.lookup(args, none, "requeue", "500"));
+        script.chatEveryMoves = Integer.parseInt(ClientConfig.lookup(args, none, "chat-moves", "0"));
+        script.lobbyChatMillis = Long.parseLong(ClientConfig.lookup(args, none, "lobby-chat", "0"));
+
+        Bot.Policy policy = policyName.equalsIgnoreCase("random") ? Bot.RANDOM
+                : policyName.matches("(?i)mcts\\d*") ? Mcts.named(policyName) : Bot.HEURISTIC;
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(schedulerThreads, r -> {
+            Thread t = new Thread(r, "bot-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        ConnectionFactory connections = new ConnectionFactory(config);
+        Bot.Stats stats = new Bot.Stats();
+
+        System.out.println("Starting " + bots + " bots against " + config.host + ":" + config.port);
+        List<Bot> all = new ArrayList<>(bots);
+        for (int i = 0; i < bots; i++) {
+            Bot bot = new Bot("Bot" + i, connections, policy, script, scheduler, stats);
+            all.add(bot);
+            bot.start();
+            if (ramp > 0) {
+                Thread.sleep(ramp);
+            }
+        }
+
+        long deadline = duration > 0 ? System.currentTimeMillis() + duration * 1000 : Long.MAX_VALUE;
+        while (System.currentTimeMillis() < deadline && !all.stream().allMatch(Bot::isStopped)) {
+            Thread.sleep(1000);
+            report(stats, connections);
+        }
+        all.forEach(Bot::stop);
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        report(stats, connections);
+    }
+
+    private static void report(Bot.Stats stats, ConnectionFactory connections) {
+        System.out.println("games=" + stats.gamesStarted.get() +
+                " wins=" + stats.wins.get() +
+                " losses=" + stats.losses.get() +
+                " draws=" + stats.draws.get() +
+                " abandoned=" + stats.abandoned.get() +
+                " moves=" + stats.moves.get() +
+                " chats=" + stats.chats.get() +
+                " connects=" + connections.getConnectCount() +
+                " connectFailures=" + connections.getFailureCount() +
+                " disconnects=" + stats.disconnects.get());
+    }
+}
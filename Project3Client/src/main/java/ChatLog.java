@@ -0,0 +1,48 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.application.Platform;
+import javafx.scene.control.TextArea;
+
+// Lines bound for a chat TextArea, added from any thread. Everything that arrives
+// before the FX thread gets round to it goes in with one appendText, so a burst of
+// chat costs one text change and one layout pass instead of one per line. The area
+// keeps only the last MAX_CHARS characters.
+public class ChatLog {
+    static final int MAX_CHARS = 64 * 1024;
+
+    private final TextArea area;
+    private final ConcurrentLinkedQueue<String> lines = new ConcurrentLinkedQueue<>();
+    // a drain is queued on the FX thread and hasn't started yet
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public ChatLog(TextArea area) {
+        this.area = area;
+    }
+
+    // Add a line; the newline is added here.
+    public void append(String line) {
+        lines.add(line);
+        if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::drain);
+        }
+    }
+
+    private void drain() {
+        scheduled.set(false);
+        StringBuilder text = new StringBuilder();
+        for (String line; (line = lines.poll()) != null; ) {
+            text.append(line).append('\n');
+        }
+        if (text.length() == 0) {
+            return;
+        }
+        int excess = area.getLength() + text.length() - MAX_CHARS;
+        if (excess > 0) {
+            // drop whole lines from the top
+            String old = area.getText();
+            int cut = old.indexOf('\n', Math.min(excess, old.length()) - 1);
+            area.deleteText(0, cut < 0 ? old.length() : cut + 1);
+        }
+        area.appendText(text.toString());
+    }
+}
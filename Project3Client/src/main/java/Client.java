@@ -1,52 +1,258 @@
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
+// One connection to the server shared by the menu and every game.
+// Messages travel as "<channel>|<payload>"; each scene routes the channels it
+// cares about to its own handler instead of opening another socket.
 public class Client extends Thread {
-	private final String host;
-	private final int    port;
+	public static final String LOBBY = "LOBBY";
+	public static final String MATCH = "MATCH";
+	// several framed messages the server sent as one: BATCH|<frame><BATCH_SEPARATOR><frame>...
+	public static final String BATCH = "BATCH";
+	public static final char BATCH_SEPARATOR = '\u001e';
+	// The server primes its chat DEFLATE stream with these bytes; they must match
+	// ChatCodec.DICTIONARY in the server exactly.
+	static final byte[] CHAT_DICTIONARY = ("thanks thank you sorry again rematch one more " +
+			"good game well played nice move close game lucky oops wow no way yes no ok lol haha " +
+			"hi hello hey your turn my turn I you the and to is it that of in for on what " +
+			"USER_JOINED:USER_LEFT:LOBBY|PRIVATE_CHAT:gg|PUBLIC_CHAT:User").getBytes(StandardCharsets.UTF_8);
+	// Every connection opens with these bytes and then this client's id (writeUTF), before
+	// the object stream. A cluster router places the connection by the id rather than the
+	// address, so clients sharing a host spread out and one that reconnects comes back to
+	// the same node. Must match Router.HELLO in the server.
+	static final byte[] HELLO = {'C', '4', 'I', 'D'};
+
+	private final ConnectionFactory factory;
+	private final String id;
 	private Consumer<String> callback;
+	private final Map<String, Consumer<String>> routes = new ConcurrentHashMap<>();
 
     private Socket socket;
 	private ObjectOutputStream out;
 	private ObjectInputStream  in;
+	// messages sent while a connection is on its way, up to MAX_PENDING
+	private final List<String> pending = new ArrayList<>();
+	private static final int MAX_PENDING = 256;
+	// a connect is under way or will be retried, so sends can wait for it (guarded by this)
+	private boolean connecting = true;
+	// the server's DEFLATE stream for this connection's chat, if we asked for one
+	private Inflater inflater;
+
+	private volatile boolean autoReconnect = false;
+	private volatile boolean closed = false;
+	// last username asked for, re-sent after a reconnect
+	private volatile String username;
 
     public Client(String host, int port, Consumer<String> callback) {
-		this.host     = host;
-		this.port     = port;
+		this(new ConnectionFactory(withAddress(host, port)), callback);
+	}
+
+	public Client(ConnectionFactory factory, Consumer<String> callback) {
+		this.factory  = factory;
 		this.callback = callback;
+		// kept for every reconnect this client makes
+		this.id = factory.getConfig().clientId.isEmpty() ? UUID.randomUUID().toString() : factory.getConfig().clientId;
+		setDaemon(true);
+	}
+
+	private static ClientConfig withAddress(String host, int port) {
+		ClientConfig c = ClientConfig.defaults();
+		c.host = host;
+		c.port = port;
+		return c;
 	}
 
+	// Keep reconnecting after the connection drops, waiting longer between tries
+	// (the config's backoff, doubling up to max-backoff). Open channels get
+	// "DISCONNECT:server" once each time a connection is lost, not on every failed try.
+	public void setAutoReconnect(boolean autoReconnect) {
+		this.autoReconnect = autoReconnect;
+	}
+
+	// Handler for messages on channels nobody has routed.
 	public void setCallback(Consumer<String> callback) {
 		this.callback = callback;
 	}
 
+	// Send a channel's messages (payload only) to the given handler.
+	public void route(String channel, Consumer<String> handler) {
+		routes.put(channel, handler);
+	}
+
+	public void unroute(String channel) {
+		routes.remove(channel);
+	}
+
+	public static String gameChannel(int sessionId) {
+		return "G" + sessionId;
+	}
+
+	static boolean isGameChannel(String channel) {
+		return channel.length() > 1 && channel.charAt(0) == 'G' && Character.isDigit(channel.charAt(1));
+	}
+
+	// Prefix a payload with its channel.
+	public static String frame(String channel, String payload) {
+		return channel + "|" + payload;
+	}
+
+	// Split a framed message into {channel, payload}. Unframed messages count as lobby traffic.
+	public static String[] unframe(String msg) {
+		int bar = msg.indexOf('|');
+		if (bar < 0) {
+			return new String[]{LOBBY, msg};
+		}
+		return new String[]{msg.substring(0, bar), msg.substring(bar + 1)};
+	}
+
 	@Override
 	public void run() {
-		try {
-			socket = new Socket(host, port);
-			out    = new ObjectOutputStream(socket.getOutputStream());
-			in     = new ObjectInputStream(socket.getInputStream());
-			socket.setTcpNoDelay(true);
-
-			Object msg;
-			while ((msg = in.readObject()) != null) {
-				if (callback != null) {
-					callback.accept(msg.toString());
+		ClientConfig config = factory.getConfig();
+		// a connection was made before, so this one picks up where it left off
+		boolean reconnecting = false, connectedBefore = false;
+		// handlers have heard about the current outage
+		boolean notified = false;
+		long backoff = config.initialBackoffMillis;
+		while (true) {
+			try {
+				Socket s = factory.connect();
+				notified = false;
+				connectedBefore = true;
+				backoff = config.initialBackoffMillis;
+				synchronized (this) {
+					if (closed) {
+						s.close();
+						return;
+					}
+					socket = s;
+					DataOutputStream hello = new DataOutputStream(socket.getOutputStream());
+					hello.write(HELLO);
+					hello.writeUTF(id);
+					out = new ObjectOutputStream(socket.getOutputStream());
+					if (factory.getConfig().chatDeflate) {
+						out.writeObject(frame(LOBBY, "COMPRESS:deflate"));
+					}
+					if (reconnecting && username != null) {
+						out.writeObject(frame(LOBBY, "SET_USERNAME:" + username));
+					}
+					for (String msg : pending) {
+						// games don't survive a dropped connection, so their moves are stale
+						if (reconnecting && isGameChannel(unframe(msg)[0])) continue;
+						out.writeObject(msg);
+					}
+					pending.clear();
+					out.flush();
+				}
+				ObjectInputStream input = new ObjectInputStream(s.getInputStream());
+				in = input;
+				// every connection is a fresh stream on the server's side too
+				inflater = new Inflater();
+
+				Object msg;
+				while ((msg = input.readObject()) != null) {
+					String text = msg instanceof byte[] ? inflate((byte[]) msg) : msg.toString();
+					for (String one : unbatch(text)) {
+						dispatch(one);
+					}
 				}
+			} catch (IOException | ClassNotFoundException e) {
+				if (!closed && !notified) {
+					// tell every open channel that the connection is gone
+					notified = true;
+					for (Consumer<String> handler : routes.values()) {
+						handler.accept("DISCONNECT:server");
+					}
+					if (callback != null) {
+						callback.accept("DISCONNECT:server");
+					}
+				}
+			} finally {
+				cleanup();
 			}
-		} catch (IOException | ClassNotFoundException e) {
-			if (callback != null) {
-				callback.accept("DISCONNECT:server");
+			if (!autoReconnect || closed) {
+				return;
+			}
+			reconnecting = connectedBefore;
+			try {
+				Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+			} catch (InterruptedException e) {
+				synchronized (this) {
+					connecting = false;
+				}
+				return;
+			}
+			backoff = Math.min(backoff * 2, config.maxBackoffMillis);
+		}
+	}
+
+	// The framed messages in one frame from the server: itself, or everything in a BATCH.
+	public static List<String> unbatch(String text) {
+		if (!text.startsWith(BATCH + "|")) {
+			return Collections.singletonList(text);
+		}
+		List<String> frames = new ArrayList<>();
+		int start = BATCH.length() + 1;
+		for (int end; (end = text.indexOf(BATCH_SEPARATOR, start)) >= 0; start = end + 1) {
+			frames.add(text.substring(start, end));
+		}
+		frames.add(text.substring(start));
+		return frames;
+	}
+
+	// Everything the server has flushed into its stream since the last batch.
+	private String inflate(byte[] data) throws IOException {
+		inflater.setInput(data);
+		ByteArrayOutputStream text = new ByteArrayOutputStream(data.length * 4);
+		byte[] buffer = new byte[4096];
+		try {
+			while (true) {
+				int n = inflater.inflate(buffer);
+				if (n > 0) {
+					text.write(buffer, 0, n);
+				} else if (inflater.needsDictionary()) {
+					inflater.setDictionary(CHAT_DICTIONARY);
+				} else {
+					break;
+				}
 			}
-		} finally {
-			cleanup();
+		} catch (DataFormatException e) {
+			throw new IOException("Bad chat stream", e);
+		}
+		return new String(text.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private void dispatch(String raw) {
+		String[] msg = unframe(raw);
+		Consumer<String> handler = routes.get(msg[0]);
+		if (handler != null) {
+			handler.accept(msg[1]);
+		} else if (callback != null) {
+			callback.accept(msg[1]);
 		}
 	}
 
-	public void send(String msg) {
+	public synchronized void send(String channel, String msg) {
+		String framed = frame(channel, msg);
+		if (out == null) {
+			// with no connection coming, or a full backlog, the message is dropped
+			if (connecting && pending.size() < MAX_PENDING) {
+				pending.add(framed);
+			}
+			return;
+		}
 		try {
-			out.writeObject(msg);
+			out.writeObject(framed);
 			out.flush();
 		} catch (IOException e) {
 			// ignore
@@ -54,18 +260,21 @@ public class Client extends Thread {
 	}
 
 	public void disconnect() {
+		closed = true;
 		try {
 			// notify opponent (or server) if you need to
-			callback.accept("DISCONNECT:opponent");
-			out.flush();
+			if (callback != null) {
+				callback.accept("DISCONNECT:opponent");
+			}
+			synchronized (this) {
+				if (out != null) out.flush();
+			}
 		} catch (Exception e) {
 			// maybe the socket’s already half-closed—ignore
 		}
 
 		// now close resources
-		try { if (in  != null) in .close(); } catch (IOException ignored) {}
-		try { if (out != null) out.close(); } catch (Exception ignored) {}
-		try { if (socket != null) socket.close(); } catch (IOException ignored) {}
+		cleanup();
 	}
 
 	/**
@@ -73,19 +282,29 @@ public class Client extends Thread {
 	 * @param message The message text to send
 	 */
 	public void sendPublicChat(String message) {
-		send("PUBLIC_CHAT:" + message);
+		send(LOBBY, "PUBLIC_CHAT:" + message);
 	}
 
 	public void setUsername(String username) {
         // Default username
-        send("SET_USERNAME:" + username);
+        this.username = username;
+        send(LOBBY, "SET_USERNAME:" + username);
 	}
 
-	private void cleanup() {
+	private synchronized void cleanup() {
 		try {
 			if (in  != null) in.close();
 			if (out != null) out.close();
 			if (socket != null) socket.close();
 		} catch (IOException ignored) {}
+		// later sends wait in pending until the next connection, if there will be one
+		connecting = autoReconnect && !closed;
+		in = null;
+		out = null;
+		socket = null;
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+// Where and how a Client connects. Each key can come from (highest wins):
+//   --key=value program arguments, CONNECT4_KEY environment variables,
+//   -Dconnect4.key system properties, the properties file named by
+//   -Dconnect4.config (default ./client.properties), then the defaults below.
+public class ClientConfig {
+    public String host = "localhost";
+    public int port = 5555;
+    public int connectTimeoutMillis = 3000;
+    // reconnect attempts after a failed connect; 0 means fail on the first error
+    public int maxRetries = 0;
+    public long initialBackoffMillis = 250;
+    public long maxBackoffMillis = 10_000;
+    // after a connection is lost, keep reconnecting with the same backoff until it comes back
+    public boolean reconnect = false;
+    // how a cluster router knows this client; "" picks a new one each time the client starts
+    public String clientId = "";
+    // 0 leaves the OS default in place
+    public int receiveBufferSize = 0;
+    public int sendBufferSize = 0;
+    public boolean tcpNoDelay = true;
+    // ask the server to deflate the chat it sends
+    public boolean chatDeflate = true;
+    // single player AI: heuristic or mcts, and how long and on how many threads mcts thinks
+    public String aiEngine = "heuristic";
+    public long aiMillis = 1000;
+    public int aiThreads = Runtime.getRuntime().availableProcessors();
+    // let the AI search on during the player's turn
+    public boolean aiPonder = true;
+    // the board to play on, single player and online: "7x6", or e.g. "8x7" or "9x7/5" for five in a row
+    public String variant = Connect4.STANDARD;
+
+    public static ClientConfig defaults() {
+        return new ClientConfig();
+    }
+
+    public static ClientConfig load(String[] args) {
+        Properties props = new Properties();
+        String file = System.getProperty("connect4.config", "client.properties");
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IOException ignored) {
+            // no file, keep the defaults
+        }
+
+        ClientConfig c = new ClientConfig();
+        c.host = lookup(args, props, "host", c.host);
+        c.port = Integer.parseInt(lookup(args, props, "port", String.valueOf(c.port)));
+        c.connectTimeoutMillis = Integer.parseInt(lookup(args, props, "connect-timeout", String.valueOf(c.connectTimeoutMillis)));
+        c.maxRetries = Integer.parseInt(lookup(args, props, "retries", String.valueOf(c.maxRetries)));
+        c.initialBackoffMillis = Long.parseLong(lookup(args, props, "backoff", String.valueOf(c.initialBackoffMillis)));
+        c.maxBackoffMillis = Long.parseLong(lookup(args, props, "max-backoff", String.valueOf(c.maxBackoffMillis)));
+        c.reconnect = Boolean.parseBoolean(lookup(args, props, "reconnect", String.valueOf(c.reconnect)));
+        c.clientId = lookup(args, props, "client-id", c.clientId);
+        c.receiveBufferSize = Integer.parseInt(lookup(args, props, "rcvbuf", String.valueOf(c.receiveBufferSize)));
+        c.sendBufferSize = Integer.parseInt(lookup(args, props, "sndbuf", String.valueOf(c.sendBufferSize)));
+        c.tcpNoDelay = Boolean.parseBoolean(lookup(args, props, "nodelay", String.valueOf(c.tcpNoDelay)));
+        c.chatDeflate = Boolean.parseBoolean(lookup(args, props, "chat-deflate", String.valueOf(c.chatDeflate)));
+        c.aiEngine = lookup(args, props, "ai-engine", c.aiEngine);
+        c.aiMillis = Long.parseLong(lookup(args, props, "ai-millis", String.valueOf(c.aiMillis)));
+        c.aiThreads = Integer.parseInt(lookup(args, props, "ai-threads", String.valueOf(c.aiThreads)));
+        c.aiPonder = Boolean.parseBoolean(lookup(args, props, "ai-ponder", String.valueOf(c.aiPonder)));
+        c.variant = lookup(args, props, "variant", c.variant);
+        Connect4.ofVariant(c.variant); // a board we can't play stops us here rather than mid-game
+        return c;
+    }
+
+    // Find a setting by key, checking args, environment, system properties and file in that order.
+    static String lookup(String[] args, Properties file, String key, String fallback) {
+        String prefix = "--" + key + "=";
+        for (String a : args) {
+            if (a.startsWith(prefix)) {
+                return a.substring(prefix.length());
+            }
+        }
+        String env = System.getenv("CONNECT4_" + key.toUpperCase().replace('-', '_'));
+        if (env != null) {
+            return env;
+        }
+        String prop = System.getProperty("connect4." + key);
+        if (prop != null) {
+            return prop;
+        }
+        return file.getProperty(key, fallback);
+    }
+}
@@ -1,25 +1,97 @@
+import java.util.Arrays;
 import java.util.Random;
 import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Connect4 {
+    // The standard board. A game can be played on another size, with another
+    // line length to win, e.g. "8x7" or "9x7/5" (see ofVariant).
     public static final int numRows = 6;
     public static final int numCols = 7;
+    public static final String STANDARD = "7x6";
+    // the boards the server accepts
+    public static final int MIN_SIZE = 4, MAX_COLS = 10, MAX_ROWS = 9, MIN_CONNECT = 3, MAX_CONNECT = 6;
+    private static final Pattern VARIANT = Pattern.compile("(\\d{1,2})x(\\d{1,2})(?:/(\\d))?");
 
-    public static Vector<Vector<Character>> board;
-    public static char currPlayer;
+    // This game's board: its size and how many in a row win.
+    public final int rows;
+    public final int cols;
+    public final int connect;
+
+    // Game state belongs to each instance, so an AI can search a copy
+    // while the UI keeps using the live game.
+    public Vector<Vector<Character>> board;
+    public char currPlayer;
     public boolean gameEnded;
-    public static int numPlays = 0;
+    public int numPlays = 0;
+
+    // Columns played so far, in order. (Used for replays)
+    private final int[] moves;
+
+    // row step, column step of each line direction
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {-1, 1}};
+
+    // Cells changed since the last call to takeDirty(), one bit per cell (row * cols + col).
+    // Only kept for boards of up to 64 cells; bigger ones have to be redrawn whole.
+    private long dirty = 0;
 
     public Connect4() {
+        this(numCols, numRows, 4);
+    }
+
+    public Connect4(int cols, int rows, int connect) {
+        this.rows = rows;
+        this.cols = cols;
+        this.connect = connect;
+        this.moves = new int[rows * cols];
         reset();
     }
 
+    // A game on the board written as "<columns>x<rows>", with "/<n>" when n in a row
+    // wins instead of four. Throws IllegalArgumentException for anything else.
+    public static Connect4 ofVariant(String spec) {
+        Matcher m = VARIANT.matcher(spec.trim());
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Not a board size: " + spec);
+        }
+        int cols = Integer.parseInt(m.group(1));
+        int rows = Integer.parseInt(m.group(2));
+        int connect = m.group(3) == null ? 4 : Integer.parseInt(m.group(3));
+        if (cols < MIN_SIZE || cols > MAX_COLS || rows < MIN_SIZE || rows > MAX_ROWS
+                || connect < MIN_CONNECT || connect > MAX_CONNECT || connect > Math.max(cols, rows)) {
+            throw new IllegalArgumentException("Unsupported board: " + spec);
+        }
+        return new Connect4(cols, rows, connect);
+    }
+
+    // The board as ofVariant reads it, e.g. "7x6" or "9x7/5".
+    public String variant() {
+        return cols + "x" + rows + (connect == 4 ? "" : "/" + connect);
+    }
+
+    // Whether this is the 7x6 four-in-a-row board the AI engines are built for.
+    public boolean isStandard() {
+        return rows == numRows && cols == numCols && connect == 4;
+    }
+
+    // Create an independent copy of this game.
+    public Connect4 copy() {
+        Connect4 c = new Connect4(cols, rows, connect);
+        c.board = copyBoard(board);
+        c.currPlayer = currPlayer;
+        c.gameEnded = gameEnded;
+        c.numPlays = numPlays;
+        System.arraycopy(moves, 0, c.moves, 0, numPlays);
+        return c;
+    }
+
     // Reset to new empty board. (Beginning of new game)
     public void reset() {
         board = new Vector<>();
-        for (int row = 0; row < numRows; row++) {
+        for (int row = 0; row < rows; row++) {
             Vector<Character> temp = new Vector<>();
-            for (int col = 0; col < numCols; col++) {
+            for (int col = 0; col < cols; col++) {
                 temp.add('-');
             }
             board.add(temp);
@@ -27,11 +99,12 @@ public class Connect4 {
         currPlayer = 'X';
         gameEnded     = false;
         numPlays      = 0;
+        dirty         = rows * cols >= Long.SIZE ? -1L : (1L << (rows * cols)) - 1;
     }
 
     // Return the top most open slot for the chosen column.
     public int getNextOpenRow(int col) {
-        for (int row = numRows - 1; row >= 0; row--) {
+        for (int row = rows - 1; row >= 0; row--) {
             if (board.get(row).get(col) == '-') return row;
         }
         return -1;
@@ -49,7 +122,7 @@ public class Connect4 {
     // Update the board with the new move.
     public Vector<Vector<Character>> updateBoard(int col, char player) {
         Vector<Vector<Character>> copy = copyBoard(board);
-        for (int row = numRows - 1; row >= 0; row--) {
+        for (int row = rows - 1; row >= 0; row--) {
             if (copy.get(row).get(col) == '-') {
                 copy.get(row).set(col, player);
                 break;
@@ -60,18 +133,35 @@ public class Connect4 {
 
     // Drop a piece for the given player.
     public void drop(char player, int col) {
-        board = updateBoard(col, player);
+        int row = getNextOpenRow(col);
+        board.get(row).set(col, player);
+        if (row * cols + col < Long.SIZE) {
+            dirty |= 1L << (row * cols + col);
+        }
+        moves[numPlays] = col;
         numPlays++;
     }
 
+    // Return the cells changed since the last call and clear the set.
+    public long takeDirty() {
+        long d = dirty;
+        dirty = 0;
+        return d;
+    }
+
+    // Return the columns played so far, oldest first.
+    public int[] getMoves() {
+        return Arrays.copyOf(moves, numPlays);
+    }
+
     // Check if the column is full.
     public boolean isColumnFull(int col) {
-        return board.getFirst().get(col) != '-';
+        return board.get(0).get(col) != '-';
     }
 
     // Check if the board is full.
     public boolean isBoardFull() {
-        for (int col = 0; col < numCols; col++) {
+        for (int col = 0; col < cols; col++) {
             if (!isColumnFull(col)) return false;
         }
         return true;
@@ -83,53 +173,32 @@ public class Connect4 {
     }
 
     // Check for win.
-    public static boolean checkForWin() {
-        return checkForWin(board, currPlayer);
+    public boolean checkForWin() {
+        return checkForWin(board, currPlayer, connect);
     }
 
     // Check 4 in a row in all directions.
     public static boolean checkForWin(Vector<Vector<Character>> Board, char player) {
-        // horizontal
-        for (int row = 0; row < numRows; row++) {
-            for (int col = 0; col <= numCols - 4; col++) {
-                if (Board.get(row).get(col) == player &&
-                        Board.get(row).get(col+1) == player &&
-                        Board.get(row).get(col+2) == player &&
-                        Board.get(row).get(col+3) == player) {
-                    return true;
-                }
-            }
-        }
-        // vertical
-        for (int col = 0; col < numCols; col++) {
-            for (int row = 0; row <= numRows - 4; row++) {
-                if (Board.get(row).get(col)   == player &&
-                        Board.get(row+1).get(col) == player &&
-                        Board.get(row+2).get(col) == player &&
-                        Board.get(row+3).get(col) == player) {
-                    return true;
-                }
-            }
-        }
-        // diagonal Top left -> Bottom right
-        for (int row = 0; row <= numRows - 4; row++) {
-            for (int col = 0; col <= numCols - 4; col++) {
-                if (Board.get(row).get(col)     == player &&
-                        Board.get(row+1).get(col+1) == player &&
-                        Board.get(row+2).get(col+2) == player &&
-                        Board.get(row+3).get(col+3) == player) {
-                    return true;
-                }
-            }
-        }
-        // diagonal Bottom left -> Top right
-        for (int row = 3; row < numRows; row++) {
-            for (int col = 0; col <= numCols - 4; col++) {
-                if (Board.get(row).get(col)     == player &&
-                        Board.get(row-1).get(col+1) == player &&
-                        Board.get(row-2).get(col+2) == player &&
-                        Board.get(row-3).get(col+3) == player) {
-                    return true;
+        return checkForWin(Board, player, 4);
+    }
+
+    // Check connect in a row in all directions, on a board of any size.
+    public static boolean checkForWin(Vector<Vector<Character>> Board, char player, int connect) {
+        int rows = Board.size();
+        int cols = Board.get(0).size();
+        // horizontal, vertical, top left -> bottom right, bottom left -> top right
+        for (int[] d : DIRECTIONS) {
+            for (int row = 0; row < rows; row++) {
+                int lastRow = row + d[0] * (connect - 1);
+                if (lastRow < 0 || lastRow >= rows) continue;
+                for (int col = 0; col + d[1] * (connect - 1) < cols; col++) {
+                    int n = 0;
+                    while (n < connect && Board.get(row + d[0] * n).get(col + d[1] * n) == player) {
+                        n++;
+                    }
+                    if (n == connect) {
+                        return true;
+                    }
                 }
             }
         }
@@ -139,20 +208,20 @@ public class Connect4 {
     // AI Logic
     public int AI_chooseCol() {
         // Firstly, check if AI can win.
-        for (int col = 0; col < numCols; col++) {
+        for (int col = 0; col < cols; col++) {
             if (!isColumnFull(col)) {
                 Vector<Vector<Character>> sim = updateBoard(col, currPlayer);
-                if (checkForWin(sim, currPlayer)) {
+                if (checkForWin(sim, currPlayer, connect)) {
                     return col;
                 }
             }
         }
         // If not, check if player can win and block the move.
         char opp = (currPlayer == 'X' ? 'O' : 'X');
-        for (int col = 0; col < numCols; col++) {
+        for (int col = 0; col < cols; col++) {
             if (!isColumnFull(col)) {
                 Vector<Vector<Character>> sim = updateBoard(col, opp);
-                if (checkForWin(sim, opp)) {
+                if (checkForWin(sim, opp, connect)) {
                     return col;
                 }
             }
@@ -161,7 +230,7 @@ public class Connect4 {
         Random random = new Random();
         int choice;
         do {
-            choice = random.nextInt(numCols);
+            choice = random.nextInt(cols);
         } while (isColumnFull(choice));
         return choice;
     }
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Opens sockets to the server using one ClientConfig. A single factory can be
+// shared by any number of Clients (e.g. load-test bots), and keeps counts of
+// what it has done so a benchmark can report them.
+public class ConnectionFactory {
+    private final ClientConfig config;
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ConnectionFactory(ClientConfig config) {
+        this.config = config;
+    }
+
+    public ClientConfig getConfig() {
+        return config;
+    }
+
+    public long getConnectCount() {
+        return connects.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    // Connect, retrying with exponential backoff (plus jitter) up to config.maxRetries times.
+    public Socket connect() throws IOException {
+        long backoff = config.initialBackoffMillis;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Socket s = open();
+                connects.incrementAndGet();
+                return s;
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                if (attempt >= config.maxRetries) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reconnecting", e);
+            }
+            backoff = Math.min(backoff * 2, config.maxBackoffMillis);
+        }
+    }
+
+    private Socket open() throws IOException {
+        Socket s = new Socket();
+        try {
+            if (config.receiveBufferSize > 0) {
+                s.setReceiveBufferSize(config.receiveBufferSize);
+            }
+            if (config.sendBufferSize > 0) {
+                s.setSendBufferSize(config.sendBufferSize);
+            }
+            s.setTcpNoDelay(config.tcpNoDelay);
+            s.connect(new InetSocketAddress(config.host, config.port), config.connectTimeoutMillis);
+            return s;
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.Arrays;
+
+// A recorded game that can be stepped through or jumped to any ply.
+// Positions are stored as two bitmasks (one per player) with a checkpoint
+// every few plies, so a seek is a checkpoint copy plus a handful of moves.
+// A mask is one long on boards of up to 64 cells and as many as it takes on bigger ones.
+public class GameReplay {
+    private static final int CHECKPOINT_INTERVAL = 8;
+
+    // the board's size
+    private final int width;
+    private final int height;
+    private final int words;
+
+    private final int[] cols;
+    private final int[] rows;
+    // words longs per checkpoint
+    private final long[] redCheckpoints;
+    private final long[] yellowCheckpoints;
+
+    // position currently shown
+    private final long[] red;
+    private final long[] yellow;
+    private int ply;
+
+    public GameReplay(int[] moves) {
+        this(moves, Connect4.numCols, Connect4.numRows);
+    }
+
+    // A game played on a board width columns wide and height rows high.
+    public GameReplay(int[] moves, int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.words = (width * height + Long.SIZE - 1) / Long.SIZE;
+        cols = moves.clone();
+        rows = new int[cols.length];
+        redCheckpoints = new long[(cols.length / CHECKPOINT_INTERVAL + 1) * words];
+        yellowCheckpoints = new long[redCheckpoints.length];
+        red = new long[words];
+        yellow = new long[words];
+
+        int[] heights = new int[width];
+        for (int i = 0; i < cols.length; i++) {
+            if (i % CHECKPOINT_INTERVAL == 0) {
+                checkpoint(i / CHECKPOINT_INTERVAL);
+            }
+            int col = cols[i];
+            if (col < 0 || col >= width || heights[col] == height) {
+                throw new IllegalArgumentException("Illegal move " + col + " at ply " + (i + 1));
+            }
+            rows[i] = height - 1 - heights[col]++;
+            place(i);
+        }
+        if (cols.length % CHECKPOINT_INTERVAL == 0) {
+            checkpoint(cols.length / CHECKPOINT_INTERVAL);
+        }
+        seek(0);
+    }
+
+    private void checkpoint(int index) {
+        System.arraycopy(red, 0, redCheckpoints, index * words, words);
+        System.arraycopy(yellow, 0, yellowCheckpoints, index * words, words);
+    }
+
+    // Parse a comma separated move list such as "3,3,4,2".
+    public static GameReplay parse(String moveList) {
+        String trimmed = moveList.trim();
+        if (trimmed.isEmpty()) {
+            return new GameReplay(new int[0]);
+        }
+        int[] moves = Arrays.stream(trimmed.split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        return new GameReplay(moves);
+    }
+
+    public int length() {
+        return cols.length;
+    }
+
+    public int getPly() {
+        return ply;
+    }
+
+    public int colAt(int index) {
+        return cols[index];
+    }
+
+    public int rowAt(int index) {
+        return rows[index];
+    }
+
+    // Red ('X') always moves first.
+    public char playerAt(int index) {
+        return index % 2 == 0 ? 'X' : 'O';
+    }
+
+    // Jump to the position after the given number of plies.
+    public void seek(int target) {
+        if (target < 0 || target > cols.length) {
+            throw new IndexOutOfBoundsException("ply " + target + " of " + cols.length);
+        }
+        int checkpoint = target / CHECKPOINT_INTERVAL;
+        System.arraycopy(redCheckpoints, checkpoint * words, red, 0, words);
+        System.arraycopy(yellowCheckpoints, checkpoint * words, yellow, 0, words);
+        for (int i = checkpoint * CHECKPOINT_INTERVAL; i < target; i++) {
+            place(i);
+        }
+        ply = target;
+    }
+
+    public boolean stepForward() {
+        if (ply == cols.length) return false;
+        place(ply++);
+        return true;
+    }
+
+    public boolean stepBack() {
+        if (ply == 0) return false;
+        ply--;
+        int i = index(rows[ply], cols[ply]);
+        red[i >>> 6] &= ~(1L << i);
+        yellow[i >>> 6] &= ~(1L << i);
+        return true;
+    }
+
+    // Return 'X', 'O' or '-' for the cell in the current position.
+    public char cellAt(int row, int col) {
+        int i = index(row, col);
+        if ((red[i >>> 6] & 1L << i) != 0) return 'X';
+        if ((yellow[i >>> 6] & 1L << i) != 0) return 'O';
+        return '-';
+    }
+
+    private void place(int index) {
+        int i = index(rows[index], cols[index]);
+        if (index % 2 == 0) red[i >>> 6] |= 1L << i;
+        else yellow[i >>> 6] |= 1L << i;
+    }
+
+    // bit number of a cell; 1L << i uses only the low six bits, so it's the bit within word i >>> 6
+    private int index(int row, int col) {
+        return row * width + col;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < cols.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(cols[i]);
+        }
+        return sb.toString();
+    }
+}
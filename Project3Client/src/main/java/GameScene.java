@@ -2,17 +2,21 @@
 // https://www.tutorialspoint.com/javafx/javafx_images.htm
 // https://motleybytes.com/w/JavaFxFonts
 
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.animation.TranslateTransition;
+import javafx.beans.InvalidationListener;
+import javafx.beans.WeakInvalidationListener;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.Slider;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.effect.DropShadow;
@@ -20,8 +24,11 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
-import javafx.scene.text.Font;
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.Shape;
 import javafx.stage.Stage;
+import javafx.stage.Window;
 import javafx.util.Duration;
 
 // Manages the UI of the game , the single player against AI and
@@ -29,6 +36,8 @@ import javafx.util.Duration;
 public class GameScene {
     private final Connect4 game;
     public final Client client;
+    // "G<session id>" once the server has matched us with an opponent
+    private volatile String gameChannel;
     private final Stage stage;
     private final Scene menuScene;
 
@@ -40,25 +49,55 @@ public class GameScene {
     //UI components
     private Label statusLabel;
     private Label playsLabel;
+    private Label thinkingLabel;
+    private Timeline thinkingDots;
+    private CompletableFuture<Integer> aiMove;
+    // the AI searching ahead during the player's turn
+    private CompletableFuture<Void> pondering;
+    // single player hints: what each column is worth, from a solver running in the background
+    private boolean hintsOn = false;
+    private CompletableFuture<Void> analysis;
+    // bumped for every new analysis so late updates from an old one are dropped
+    private int analysisRun = 0;
+    private Button hintsBtn;
+    private GridPane hintRow;
+    private final Label[] hintLabels;
     private Button playAgainBtn;
     public Button returnButton;
     private Button centerMenuBtn;
     private Pane animationLayer;
+    private ImageView fallingCoin;
+    private TranslateTransition coinTransition;
     private final int CELL_SIZE = 65;
 
+    // Replay components
+    private GameReplay replay;
+    private Button replayBtn;
+    private HBox replayBar;
+    private Slider replaySlider;
+    private boolean replayAnimating = false;
+    private String statusBeforeReplay;
+
     // Chat components
     private TextArea chatArea;
+    private ChatLog chatLog;
     private TextField messageField;
     private VBox chatBox;
     private boolean chatVisible = true;
 
     //board components
-    private final StackPane[][] cells = new StackPane[Connect4.numRows][Connect4.numCols];
-    private final Pane[][] clickDetectors = new Pane[Connect4.numCols][1];
+    private final StackPane[][] cells;
+    private final Pane[][] clickDetectors;
+    // one coin view per cell, created once and swapped between red/yellow/hidden
+    private final ImageView[][] pieces;
+    // what each cell is currently showing ('X', 'O' or '-')
+    private final char[][] shown;
 
     // Background animation
-    private final Image[] bgFrames = new Image[9];
+    private final Background[] bgFrames = new Background[Assets.BACKGROUND_FRAMES];
     private int currentBg = 0;
+    private Timeline backgroundTimeline;
+    private final InvalidationListener iconifiedListener = obs -> refreshBackgroundAnimation();
 
     // game images
     private Image boardImg;
@@ -76,41 +115,45 @@ public class GameScene {
         this.stage = stage;
         this.menuScene = menuScene;
         this.myTurn = (client == null);
+        // sized for the game's board, which needn't be the standard one
+        this.cells = new StackPane[game.rows][game.cols];
+        this.clickDetectors = new Pane[game.cols][1];
+        this.pieces = new ImageView[game.rows][game.cols];
+        this.shown = new char[game.rows][game.cols];
+        this.hintLabels = new Label[game.cols];
 
         loadImages();
         initButtonBackground();
 
         if (client != null) {
-            client.setCallback(this::onReceive);
+            // join the queue over the menu's connection; the game channel is routed once matched
+            client.route(Client.MATCH, this::onReceive);
+            // the server only pairs players who asked for the same board
+            client.send(Client.MATCH, game.isStandard() ? "QUEUE" : "QUEUE:" + game.variant());
         }
 
         scene = buildScene();
         updateStatus();
         updatePlays();
+        if (client == null) {
+            startPondering();
+            startHints();
+        }
     }
 
     public Scene getScene() {
         return scene;
     }
 
-    // loads the images of background, board, red coin, yellow coin, and the button
+    // looks up the shared images of background, board, red coin, yellow coin, and the button
     private void loadImages() {
         for (int i = 0; i < bgFrames.length; i++) {
-            String name = String.format("bg%d.png", i + 1);
-            bgFrames[i] = new Image(Objects.requireNonNull(
-                    getClass().getResourceAsStream(name)
-            ));
-        }
-        boardImg = new Image(Objects.requireNonNull(getClass().getResourceAsStream("board.png")));
-        redImg = new Image(Objects.requireNonNull(getClass().getResourceAsStream("red_coin.png")));
-        yellowImg = new Image(Objects.requireNonNull(getClass().getResourceAsStream("yellow_coin.png")));
-        buttonBg = new Image(
-                Objects.requireNonNull(getClass().getResourceAsStream("Button.png")),
-                150,
-                40,
-                false,
-                true
-        );
+            bgFrames[i] = Assets.backgroundFill(i);
+        }
+        boardImg = Assets.image("board.png");
+        redImg = Assets.image("red_coin.png");
+        yellowImg = Assets.image("yellow_coin.png");
+        buttonBg = Assets.buttonImage();
     }
 
     // creates the button with the image background
@@ -130,38 +173,45 @@ public class GameScene {
     // build the complete scene of the game
     private Scene buildScene() {
         BorderPane root = new BorderPane();
-        setBackground(root, bgFrames[0]);
+        root.setBackground(bgFrames[0]);
         startBackgroundAnimation(root);
 
         // Main Menu button
         returnButton = new Button("Main Menu");
-        returnButton.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 12));
+        returnButton.setFont(Assets.font(12));
         returnButton.setTextFill(Color.WHITE);
         returnButton.setBackground(buttonBackground);
         returnButton.setPrefSize(buttonBg.getWidth(), buttonBg.getHeight());
-        returnButton.setOnAction(e -> {
-            if (client != null) {
-                client.disconnect();
-            }
-            stage.setScene(menuScene);
-        });
+        returnButton.setOnAction(e -> leaveGame());
 
         // chat toggle button
         Button toggleChatBtn = new Button("Toggle Chat");
-        toggleChatBtn.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 12));
+        toggleChatBtn.setFont(Assets.font(12));
         toggleChatBtn.setTextFill(Color.WHITE);
         toggleChatBtn.setBackground(buttonBackground);
         toggleChatBtn.setPrefSize(buttonBg.getWidth(), buttonBg.getHeight());
         toggleChatBtn.setOnAction(e -> toggleChat());
         toggleChatBtn.setVisible(client != null); // Only show toggle button in multiplayer mode
-
-        VBox topButtons = new VBox(10, returnButton, toggleChatBtn);
+        toggleChatBtn.setManaged(client != null);
+
+        // hints toggle, single player only: against a person it would be cheating
+        hintsBtn = new Button("Hints: Off");
+        hintsBtn.setFont(Assets.font(12));
+        hintsBtn.setTextFill(Color.WHITE);
+        hintsBtn.setBackground(buttonBackground);
+        hintsBtn.setPrefSize(buttonBg.getWidth(), buttonBg.getHeight());
+        hintsBtn.setOnAction(e -> toggleHints());
+        // the solver only knows the standard board
+        hintsBtn.setVisible(client == null && game.isStandard());
+        hintsBtn.setManaged(client == null && game.isStandard());
+
+        VBox topButtons = new VBox(10, returnButton, toggleChatBtn, hintsBtn);
         topButtons.setAlignment(Pos.TOP_LEFT);
         topButtons.setPadding(new Insets(20, 0, 0, 20));
 
         // shows the number of moves played by the user on top right
         playsLabel = new Label("Plays: 0");
-        playsLabel.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 18));
+        playsLabel.setFont(Assets.font(18));
         playsLabel.setTextFill(Color.LIGHTGRAY);
         DropShadow outline = new DropShadow(0, 0, 0, Color.BLACK);
         outline.setRadius(3);
@@ -180,13 +230,15 @@ public class GameScene {
         initChatComponents();
 
         playAgainBtn = new Button("Play Again");
-        playAgainBtn.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 12));
+        playAgainBtn.setFont(Assets.font(12));
         playAgainBtn.setTextFill(Color.WHITE);
         playAgainBtn.setBackground(buttonBackground);
         playAgainBtn.setPrefSize(buttonBg.getWidth(), buttonBg.getHeight());
         playAgainBtn.setVisible(false);
         playAgainBtn.setManaged(false);
         playAgainBtn.setOnAction(e -> {
+            cancelAIMove();
+            exitReplay();
             game.reset();
             gameStarted = (client == null);
             gameEnded = false;
@@ -202,32 +254,59 @@ public class GameScene {
             centerMenuBtn.setManaged(false);
             playAgainBtn.setVisible(false);
             playAgainBtn.setManaged(false);
+            replayBtn.setVisible(false);
+            replayBtn.setManaged(false);
 
             if (client != null) {
-                client.send("RESET");
+                client.send(gameChannel, "RESET");
+            } else {
+                startPondering();
+                startHints();
             }
         });
 
         // creates a main menu button after the game ends
         centerMenuBtn = new Button("Main Menu");
-        centerMenuBtn.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 12));
+        centerMenuBtn.setFont(Assets.font(12));
         centerMenuBtn.setTextFill(Color.WHITE);
         centerMenuBtn.setBackground(buttonBackground);
         centerMenuBtn.setPrefSize(buttonBg.getWidth(), buttonBg.getHeight());
         centerMenuBtn.setVisible(false);
         centerMenuBtn.setManaged(false);
-        centerMenuBtn.setOnAction(e -> {
-            if (client != null) {
-                client.disconnect();
-            }
-            stage.setScene(menuScene);
-        });
+        centerMenuBtn.setOnAction(e -> leaveGame());
+
+        // replays the finished game move by move
+        replayBtn = new Button("Replay");
+        replayBtn.setFont(Assets.font(12));
+        replayBtn.setTextFill(Color.WHITE);
+        replayBtn.setBackground(buttonBackground);
+        replayBtn.setPrefSize(buttonBg.getWidth(), buttonBg.getHeight());
+        replayBtn.setVisible(false);
+        replayBtn.setManaged(false);
+        replayBtn.setOnAction(e -> enterReplay(new GameReplay(game.getMoves(), game.cols, game.rows)));
+
+        initReplayBar();
 
         // label for the game messages
         statusLabel = new Label();
-        statusLabel.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 24));
+        statusLabel.setFont(Assets.font(24));
         statusLabel.setTextFill(Color.web("#4B0082"));
-        StackPane statusBox = new StackPane(statusLabel);
+        // animated indicator shown while the AI searches
+        thinkingLabel = new Label("Thinking");
+        thinkingLabel.setFont(Assets.font(16));
+        thinkingLabel.setTextFill(Color.web("#4B0082"));
+        thinkingLabel.setTranslateY(30);
+        thinkingLabel.setVisible(false);
+        thinkingDots = new Timeline(
+                new KeyFrame(Duration.ZERO, e -> thinkingLabel.setText("Thinking")),
+                new KeyFrame(Duration.seconds(0.3), e -> thinkingLabel.setText("Thinking.")),
+                new KeyFrame(Duration.seconds(0.6), e -> thinkingLabel.setText("Thinking..")),
+                new KeyFrame(Duration.seconds(0.9), e -> thinkingLabel.setText("Thinking...")),
+                new KeyFrame(Duration.seconds(1.2))
+        );
+        thinkingDots.setCycleCount(Timeline.INDEFINITE);
+
+        StackPane statusBox = new StackPane(statusLabel, thinkingLabel);
         statusBox.setAlignment(Pos.CENTER);
         statusBox.setTranslateY(100);
         statusBox.setPadding(new Insets(2, 0, 2, 0));
@@ -238,9 +317,16 @@ public class GameScene {
         grid.setHgap(8);
         grid.setVgap(-5);
         grid.setTranslateY(-8);
-        for (int r = 0; r < Connect4.numRows; r++) {
-            for (int c = 0; c < Connect4.numCols; c++) {
-                StackPane cell = new StackPane();
+        for (int r = 0; r < game.rows; r++) {
+            for (int c = 0; c < game.cols; c++) {
+                ImageView piece = new ImageView();
+                piece.setFitWidth(CELL_SIZE);
+                piece.setFitHeight(CELL_SIZE);
+                piece.setVisible(false);
+                pieces[r][c] = piece;
+                shown[r][c] = '-';
+
+                StackPane cell = new StackPane(piece);
                 cell.setPrefSize(CELL_SIZE, CELL_SIZE);
                 final int col = c;
                 cell.setOnMouseClicked(e -> handleLocalMove(col));
@@ -254,9 +340,9 @@ public class GameScene {
         detectors.setAlignment(Pos.TOP_CENTER);
         detectors.setTranslateY(-18);
         detectors.setHgap(8);
-        for (int c = 0; c < Connect4.numCols; c++) {
+        for (int c = 0; c < game.cols; c++) {
             Pane p = new Pane();
-            p.setPrefSize(CELL_SIZE, CELL_SIZE * Connect4.numRows);
+            p.setPrefSize(CELL_SIZE, CELL_SIZE * game.rows);
             p.setStyle("-fx-cursor: hand;");
 
             final int col = c;
@@ -265,20 +351,51 @@ public class GameScene {
             clickDetectors[c][0] = p;
         }
 
-        // game board overlay
-        ImageView boardView = new ImageView(boardImg);
-        boardView.setFitWidth(CELL_SIZE * Connect4.numCols * 1.7);
-        boardView.setFitHeight(CELL_SIZE * Connect4.numRows * 1.7);
-        boardView.setPreserveRatio(false);
-        boardView.setTranslateX(9);
+        // hint labels, one over each column's detector
+        hintRow = new GridPane();
+        hintRow.setAlignment(Pos.CENTER);
+        hintRow.setHgap(8);
+        hintRow.setVisible(false);
+        hintRow.setManaged(client == null && game.isStandard());
+        for (int c = 0; c < game.cols; c++) {
+            Label hint = new Label();
+            hint.setFont(Assets.font(10));
+            hint.setPrefWidth(CELL_SIZE);
+            hint.setAlignment(Pos.CENTER);
+            DropShadow hintOutline = new DropShadow(0, 0, 0, Color.BLACK);
+            hintOutline.setRadius(3);
+            hint.setEffect(hintOutline);
+            hintLabels[c] = hint;
+            hintRow.add(hint, c, 0);
+        }
+
+        // game board overlay; the artwork is drawn for 7x6, so other sizes get a plain board with holes
+        Node boardView;
+        if (game.isStandard()) {
+            ImageView art = new ImageView(boardImg);
+            art.setFitWidth(CELL_SIZE * game.cols * 1.7);
+            art.setFitHeight(CELL_SIZE * game.rows * 1.7);
+            art.setPreserveRatio(false);
+            art.setTranslateX(9);
+            boardView = art;
+        } else {
+            boardView = drawBoard();
+        }
 
-        // creates an animation of the coin dropping
-        animationLayer = new Pane();
+        // creates an animation of the coin dropping, reusing one coin for every drop
+        fallingCoin = new ImageView();
+        fallingCoin.setFitWidth(CELL_SIZE);
+        fallingCoin.setFitHeight(CELL_SIZE);
+        fallingCoin.setVisible(false);
+        coinTransition = new TranslateTransition();
+        coinTransition.setNode(fallingCoin);
+
+        animationLayer = new Pane(fallingCoin);
         animationLayer.setPickOnBounds(false);
 
         StackPane boardStack = new StackPane(grid, boardView, detectors, animationLayer);
 
-        VBox centerContainer = new VBox(8, statusBox, playAgainBtn, centerMenuBtn, boardStack);
+        VBox centerContainer = new VBox(8, statusBox, playAgainBtn, replayBtn, centerMenuBtn, hintRow, boardStack, replayBar);
         centerContainer.setAlignment(Pos.CENTER);
         root.setCenter(centerContainer);
 
@@ -289,15 +406,32 @@ public class GameScene {
 
         Scene s = new Scene(root, 1050, 1000);
 
-        s.widthProperty().addListener((obs, oldVal, newVal) -> updateBackground(root));
-        s.heightProperty().addListener((obs, oldVal, newVal) -> updateBackground(root));
+        s.windowProperty().addListener(obs -> refreshBackgroundAnimation());
+        stage.iconifiedProperty().addListener(new WeakInvalidationListener(iconifiedListener));
 
         redraw();
         return s;
     }
 
-    private void updateBackground(Region pane) {
-        setBackground(pane, bgFrames[currentBg]);
+    // A board the same shape as the grid of cells, with a hole over each one.
+    private Shape drawBoard() {
+        double width = game.cols * CELL_SIZE + (game.cols - 1) * 8;
+        double height = game.rows * CELL_SIZE + (game.rows - 1) * -5;
+        double margin = 14;
+        Shape board = new Rectangle(width + 2 * margin, height + 2 * margin);
+        for (int r = 0; r < game.rows; r++) {
+            for (int c = 0; c < game.cols; c++) {
+                double x = margin + c * (CELL_SIZE + 8) + CELL_SIZE / 2.0;
+                double y = margin + r * (CELL_SIZE - 5) + CELL_SIZE / 2.0;
+                board = Shape.subtract(board, new Circle(x, y, CELL_SIZE / 2.0 - 4));
+            }
+        }
+        board.setFill(Color.web("#1f3fa6"));
+        board.setStroke(Color.web("#0b1a4d"));
+        board.setStrokeWidth(3);
+        board.setMouseTransparent(true);
+        board.setTranslateY(-8);
+        return board;
     }
 
     private void initChatComponents() {
@@ -308,6 +442,7 @@ public class GameScene {
         chatArea.setPrefWidth(250);
         chatArea.setWrapText(true);
         chatArea.setStyle("-fx-font-size: 12px;");
+        chatLog = new ChatLog(chatArea);
 
         messageField = new TextField();
         messageField.setPrefWidth(180);
@@ -317,14 +452,14 @@ public class GameScene {
         Button sendBtn = new Button("Send");
         sendBtn.setBackground(buttonBackground);
         sendBtn.setTextFill(Color.WHITE);
-        sendBtn.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 12));
+        sendBtn.setFont(Assets.font(12));
         sendBtn.setOnAction(e -> sendChatMessage());
 
         HBox messageBox = new HBox(5, messageField, sendBtn);
         messageBox.setAlignment(Pos.CENTER);
 
         Label chatLabel = new Label("Private Chat");
-        chatLabel.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 16));
+        chatLabel.setFont(Assets.font(16));
         chatLabel.setTextFill(Color.WHITE);
 
         // Create a semi-transparent background for chat
@@ -341,10 +476,133 @@ public class GameScene {
 
         // Add initial message
         if (client != null) {
-            chatArea.appendText("Private chat with opponent.\n");
+            chatLog.append("Private chat with opponent.");
         }
     }
 
+    // slider and step buttons shown while replaying a game
+    private void initReplayBar() {
+        Button firstBtn = createReplayButton("<<");
+        firstBtn.setOnAction(e -> seekReplay(0));
+        Button backBtn = createReplayButton("<");
+        backBtn.setOnAction(e -> stepReplayBack());
+        Button forwardBtn = createReplayButton(">");
+        forwardBtn.setOnAction(e -> stepReplayForward());
+        Button lastBtn = createReplayButton(">>");
+        lastBtn.setOnAction(e -> seekReplay(replay.length()));
+        Button exitBtn = createReplayButton("Exit");
+        exitBtn.setOnAction(e -> exitReplay());
+
+        replaySlider = new Slider(0, 0, 0);
+        replaySlider.setPrefWidth(300);
+        replaySlider.setBlockIncrement(1);
+        replaySlider.setMajorTickUnit(1);
+        replaySlider.setMinorTickCount(0);
+        replaySlider.setSnapToTicks(true);
+        replaySlider.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (replay != null && !replayAnimating) {
+                seekReplay((int) Math.round(newVal.doubleValue()));
+            }
+        });
+
+        replayBar = new HBox(8, firstBtn, backBtn, replaySlider, forwardBtn, lastBtn, exitBtn);
+        replayBar.setAlignment(Pos.CENTER);
+        replayBar.setVisible(false);
+        replayBar.setManaged(false);
+    }
+
+    private Button createReplayButton(String text) {
+        Button b = new Button(text);
+        b.setFont(Assets.font(12));
+        b.setTextFill(Color.WHITE);
+        b.setBackground(buttonBackground);
+        return b;
+    }
+
+    // switches the board to show a recorded game instead of the live one
+    public void enterReplay(GameReplay r) {
+        replay = r;
+        statusBeforeReplay = statusLabel.getText();
+        replay.seek(replay.length());
+        disableBoard();
+        replaySlider.setMax(replay.length());
+        replaySlider.setValue(replay.length());
+        replayBar.setVisible(true);
+        replayBar.setManaged(true);
+        replayBtn.setVisible(false);
+        replayBtn.setManaged(false);
+        updateReplayStatus();
+    }
+
+    private void exitReplay() {
+        if (replay == null) {
+            return;
+        }
+        replay = null;
+        replayBar.setVisible(false);
+        replayBar.setManaged(false);
+        coinTransition.stop();
+        fallingCoin.setVisible(false);
+        replayAnimating = false;
+        redrawAll();
+        if (gameEnded) {
+            replayBtn.setVisible(true);
+            replayBtn.setManaged(true);
+            statusLabel.setText(statusBeforeReplay);
+        } else {
+            updateStatus();
+        }
+    }
+
+    // jumps straight to a ply and updates only the cells that differ
+    private void seekReplay(int ply) {
+        if (replay == null || replayAnimating) {
+            return;
+        }
+        replay.seek(ply);
+        for (int r = 0; r < game.rows; r++) {
+            for (int c = 0; c < game.cols; c++) {
+                showCell(r, c, replay.cellAt(r, c));
+            }
+        }
+        replaySlider.setValue(ply);
+        updateReplayStatus();
+    }
+
+    private void stepReplayForward() {
+        if (replay == null || replayAnimating || replay.getPly() == replay.length()) {
+            return;
+        }
+        int i = replay.getPly();
+        replayAnimating = true;
+        animateDrop(replay.colAt(i), replay.rowAt(i), replay.playerAt(i), row -> {
+            replay.stepForward();
+            showCell(row, replay.colAt(i), replay.playerAt(i));
+            replayAnimating = false;
+            replaySlider.setValue(replay.getPly());
+            updateReplayStatus();
+        });
+    }
+
+    private void stepReplayBack() {
+        if (replay == null || replayAnimating || replay.getPly() == 0) {
+            return;
+        }
+        replay.stepBack();
+        int i = replay.getPly();
+        showCell(replay.rowAt(i), replay.colAt(i), '-');
+        replayAnimating = true;
+        animateLift(replay.colAt(i), replay.rowAt(i), replay.playerAt(i), () -> {
+            replayAnimating = false;
+            replaySlider.setValue(replay.getPly());
+            updateReplayStatus();
+        });
+    }
+
+    private void updateReplayStatus() {
+        statusLabel.setText("Replay: move " + replay.getPly() + "/" + replay.length());
+    }
+
     private void toggleChat() {
         chatVisible = !chatVisible;
         chatBox.setVisible(chatVisible);
@@ -356,56 +614,82 @@ public class GameScene {
             return;
         }
 
+        String channel = gameChannel;
+        if (channel == null) {
+            // nobody to talk to until the server pairs us; keep the text for then
+            chatLog.append("Chat opens once you're matched with an opponent.");
+            return;
+        }
+
         String message = messageField.getText().trim();
-        client.send("PRIVATE_CHAT:" + message);
-        chatArea.appendText("You: " + message + "\n");
+        client.send(channel, "PRIVATE_CHAT:" + message);
+        chatLog.append("You: " + message);
         messageField.clear();
     }
 
     private void animateDrop(int col, char player, Consumer<Integer> onFinished) {
-        Image img = player == 'X' ? redImg : yellowImg;
-        ImageView coin = new ImageView(img);
-        coin.setFitWidth(CELL_SIZE);
-        coin.setFitHeight(CELL_SIZE);
-
-        double totalWidth = Connect4.numCols * CELL_SIZE + (Connect4.numCols - 1) * 8;
-        double startX = (animationLayer.getWidth() - totalWidth) / 2 + col * (CELL_SIZE + 8);
-        coin.setLayoutX(startX);
-        coin.setLayoutY(-CELL_SIZE);
-        animationLayer.getChildren().add(coin);
-
-        int targetRow = game.getNextOpenRow(col);
-
-        double totalHeight = Connect4.numRows * CELL_SIZE + (Connect4.numRows - 1) * -5;
-        double finalY = (animationLayer.getHeight() - totalHeight) / 2 + targetRow * (CELL_SIZE - 5);
-
-        TranslateTransition tt = new TranslateTransition(Duration.seconds(0.4), coin);
-        tt.setToY(finalY + CELL_SIZE);
-        tt.setOnFinished(e -> {
-            animationLayer.getChildren().remove(coin);
+        animateDrop(col, game.getNextOpenRow(col), player, onFinished);
+    }
+
+    private void animateDrop(int col, int targetRow, char player, Consumer<Integer> onFinished) {
+        double finalY = placeFallingCoin(col, targetRow, player);
+        fallingCoin.setTranslateY(0);
+
+        coinTransition.stop();
+        coinTransition.setDuration(Duration.seconds(0.4));
+        coinTransition.setToY(finalY + CELL_SIZE);
+        coinTransition.setOnFinished(e -> {
+            fallingCoin.setVisible(false);
             onFinished.accept(targetRow);
         });
-        tt.play();
+        coinTransition.play();
+    }
+
+    // the reverse of animateDrop: lifts a coin out of its cell and off the board
+    private void animateLift(int col, int row, char player, Runnable onFinished) {
+        double cellY = placeFallingCoin(col, row, player);
+        fallingCoin.setTranslateY(cellY + CELL_SIZE);
+
+        coinTransition.stop();
+        coinTransition.setDuration(Duration.seconds(0.3));
+        coinTransition.setToY(0);
+        coinTransition.setOnFinished(e -> {
+            fallingCoin.setVisible(false);
+            onFinished.run();
+        });
+        coinTransition.play();
+    }
+
+    // positions the shared coin above the column and returns the y offset of the given row
+    private double placeFallingCoin(int col, int row, char player) {
+        fallingCoin.setImage(player == 'X' ? redImg : yellowImg);
+        double totalWidth = game.cols * CELL_SIZE + (game.cols - 1) * 8;
+        fallingCoin.setLayoutX((animationLayer.getWidth() - totalWidth) / 2 + col * (CELL_SIZE + 8));
+        fallingCoin.setLayoutY(-CELL_SIZE);
+        fallingCoin.setVisible(true);
+
+        double totalHeight = game.rows * CELL_SIZE + (game.rows - 1) * -5;
+        return (animationLayer.getHeight() - totalHeight) / 2 + row * (CELL_SIZE - 5);
     }
 
     private void handleLocalMove(int col) {
-        if (!myTurn || gameEnded || (client != null && !gameStarted) || game.isColumnFull(col)) {
+        if (!myTurn || gameEnded || replay != null || (client != null && !gameStarted) || game.isColumnFull(col)) {
             return;
         }
         disableBoard();
-        animateDrop(col, Connect4.currPlayer, row -> {
-        game.drop(Connect4.currPlayer, col);
+        // the AI's turn is next; whatever it worked out meanwhile is in its tree
+        stopPondering();
+        stopHints();
+        animateDrop(col, game.currPlayer, row -> {
+        game.drop(game.currPlayer, col);
         redraw();
         updatePlays();
 
         if (client != null) {
-            client.send("MOVE:" + col);
-        }
-        else {
-            handleAIMove();
+            client.send(gameChannel, "MOVE:" + col);
         }
 
-        if (Connect4.checkForWin()) {
+        if (game.checkForWin()) {
             gameEnded = true;
             statusLabel.setText("You win!");
             showNewGame();
@@ -419,39 +703,136 @@ public class GameScene {
             game.switchPlayer();
             myTurn = false;
             updateStatus();
+            if (client == null) {
+                handleAIMove();
+            }
         }
 
-        if (!gameEnded) {
+        if (!gameEnded && client != null) {
             enableBoard();
         }
         });
     }
 
+    // asks the AI for a move on a background thread and plays it when it arrives
     private void handleAIMove() {
-        game.switchPlayer();
-        myTurn = false;
-        updateStatus();
-
-        int col = game.AI_chooseCol();
         disableBoard();
-        animateDrop(col, Connect4.currPlayer, row -> {
-            game.drop(Connect4.currPlayer, col);
+        setThinking(true);
+
+        CompletableFuture<Integer> move = AIService.chooseCol(game);
+        aiMove = move;
+        move.thenAccept(col -> Platform.runLater(() -> {
+            if (aiMove != move) {
+                return; // cancelled or replaced by a newer game
+            }
+            aiMove = null;
+            setThinking(false);
+            playAIMove(col);
+        }));
+    }
+
+    private void playAIMove(int col) {
+        animateDrop(col, game.currPlayer, row -> {
+            game.drop(game.currPlayer, col);
             redraw();
             updatePlays();
 
-            if (Connect4.checkForWin()) {
+            if (game.checkForWin()) {
                 gameEnded = true;
                 statusLabel.setText("AI wins!");
                 showNewGame();
+            } else if (game.isBoardFull()) {
+                gameEnded = true;
+                statusLabel.setText("Draw!");
+                showNewGame();
             } else {
                 game.switchPlayer();
                 myTurn = true;
                 updateStatus();
                 enableBoard();
+                startPondering();
+                startHints();
             }
         });
     }
 
+    // lets the AI think on the player's time
+    private void startPondering() {
+        stopPondering();
+        pondering = AIService.ponder(game);
+    }
+
+    private void stopPondering() {
+        if (pondering != null) {
+            pondering.cancel(true);
+            pondering = null;
+        }
+    }
+
+    private void toggleHints() {
+        hintsOn = !hintsOn;
+        hintsBtn.setText(hintsOn ? "Hints: On" : "Hints: Off");
+        hintRow.setVisible(hintsOn);
+        if (hintsOn) {
+            startHints();
+        } else {
+            stopHints();
+        }
+    }
+
+    // analyses the player's options off the FX thread; each deeper pass replaces the labels
+    private void startHints() {
+        stopHints();
+        if (!hintsOn || client != null || gameEnded || !myTurn || !game.isStandard()) {
+            return;
+        }
+        int run = analysisRun;
+        analysis = Solver.analyse(game, result -> Platform.runLater(() -> {
+            if (analysisRun == run) {
+                showHints(result);
+            }
+        }));
+    }
+
+    private void stopHints() {
+        analysisRun++;
+        if (analysis != null) {
+            analysis.cancel(true);
+            analysis = null;
+        }
+        for (Label hint : hintLabels) {
+            hint.setText("");
+        }
+    }
+
+    private void showHints(Solver.Result result) {
+        for (int c = 0; c < game.cols; c++) {
+            int outcome = result.outcome(c);
+            hintLabels[c].setText(result.label(c));
+            hintLabels[c].setTextFill(outcome > 0 ? Color.LIGHTGREEN : outcome < 0 ? Color.SALMON : Color.LIGHTGRAY);
+        }
+    }
+
+    // stops any AI search that is still running
+    private void cancelAIMove() {
+        stopPondering();
+        stopHints();
+        if (aiMove != null) {
+            aiMove.cancel(true);
+            aiMove = null;
+        }
+        setThinking(false);
+    }
+
+    private void setThinking(boolean thinking) {
+        thinkingLabel.setVisible(thinking);
+        if (thinking) {
+            thinkingDots.playFromStart();
+        } else {
+            thinkingDots.stop();
+        }
+    }
+
     private void onOpponentLeave() {
         gameEnded = true;
         statusLabel.setText("Opponent left.");
@@ -462,7 +843,34 @@ public class GameScene {
         centerMenuBtn.setManaged(true);
     }
 
+    // back to the menu, leaving the game (or the queue) but keeping the connection open
+    private void leaveGame() {
+        cancelAIMove();
+        if (client != null) {
+            if (gameChannel != null) {
+                client.send(gameChannel, "LEAVE");
+                client.unroute(gameChannel);
+            } else {
+                client.send(Client.MATCH, "CANCEL");
+            }
+            client.unroute(Client.MATCH);
+        }
+        stage.setScene(menuScene);
+    }
+
     public void onReceive(String msg) {
+        if (msg.startsWith("MATCHED:")) {
+            // route the game channel right away so no game message arrives unrouted
+            gameChannel = Client.gameChannel(Integer.parseInt(msg.substring(8)));
+            client.route(gameChannel, this::onReceive);
+            client.unroute(Client.MATCH);
+            return;
+        }
+        if (msg.startsWith("PRIVATE_CHAT:")) {
+            // Handle private chat messages from opponent; the log batches them per frame
+            chatLog.append("Opponent: " + msg.substring(13));
+            return;
+        }
         Platform.runLater(() -> {
             if (msg.equals("DISCONNECT:server")) {
                 gameEnded = true;
@@ -470,6 +878,20 @@ public class GameScene {
                 disableBoard();
                 return;
             }
+            if (msg.equals("STATUS:UNSUPPORTED")) {
+                // the server doesn't host games on this board
+                gameEnded = true;
+                statusLabel.setText("The server doesn't offer a " + game.variant() + " board.");
+                disableBoard();
+                return;
+            }
+            if (msg.equals("STATUS:CLOSING")) {
+                // the server is shutting down and matches nobody new
+                gameEnded = true;
+                statusLabel.setText("Server is restarting, try again shortly.");
+                disableBoard();
+                return;
+            }
             if (msg.equals("DISCONNECT:opponent")) {
                 onOpponentLeave();
                 return;
@@ -481,11 +903,11 @@ public class GameScene {
             } else if (msg.startsWith("MOVE:")) {
                 int c = Integer.parseInt(msg.substring(5));
                 disableBoard();
-                animateDrop(c, Connect4.currPlayer, row -> {
-                    game.drop(Connect4.currPlayer, c);
+                animateDrop(c, game.currPlayer, row -> {
+                    game.drop(game.currPlayer, c);
                     redraw();
                     updatePlays();
-                    if (Connect4.checkForWin()) {
+                    if (game.checkForWin()) {
                         gameEnded = true;
                         statusLabel.setText("You lose!");
                         showNewGame();
@@ -496,9 +918,6 @@ public class GameScene {
                         enableBoard();
                     }
                 });
-            } else if (msg.startsWith("PRIVATE_CHAT:")) {
-                // Handle private chat messages from opponent
-                chatArea.appendText("Opponent: " + msg.substring(13) + "\n");
             }
         });
     }
@@ -506,6 +925,8 @@ public class GameScene {
     private void showNewGame() {
         playAgainBtn.setVisible(true);
         playAgainBtn.setManaged(true);
+        replayBtn.setVisible(true);
+        replayBtn.setManaged(true);
     }
 
     private void disableBoard() {
@@ -528,21 +949,47 @@ public class GameScene {
         }
     }
 
+    // redraws only the cells the game reports as changed since the last redraw
     private void redraw() {
-        for (int r = 0; r < Connect4.numRows; r++) {
-            for (int c = 0; c < Connect4.numCols; c++) {
-                cells[r][c].getChildren().clear();
-                char m = Connect4.board.get(r).get(c);
-                if (m == 'X' || m == 'O') {
-                    ImageView iv = new ImageView(m == 'X' ? redImg : yellowImg);
-                    iv.setFitWidth(CELL_SIZE);
-                    iv.setFitHeight(CELL_SIZE);
-                    cells[r][c].getChildren().add(iv);
-                }
+        if (game.rows * game.cols > Long.SIZE) {
+            redrawAll(); // too big to track; showCell skips the cells that haven't changed
+            return;
+        }
+        long dirty = game.takeDirty();
+        while (dirty != 0) {
+            int i = Long.numberOfTrailingZeros(dirty);
+            dirty &= dirty - 1;
+            int r = i / game.cols;
+            int c = i % game.cols;
+            showCell(r, c, game.board.get(r).get(c));
+        }
+    }
+
+    // brings every cell back in line with the live game (e.g. after a replay)
+    private void redrawAll() {
+        game.takeDirty();
+        for (int r = 0; r < game.rows; r++) {
+            for (int c = 0; c < game.cols; c++) {
+                showCell(r, c, game.board.get(r).get(c));
             }
         }
     }
 
+    // change a single cell, leaving it alone if it already shows that piece
+    private void showCell(int r, int c, char m) {
+        if (shown[r][c] == m) {
+            return;
+        }
+        ImageView piece = pieces[r][c];
+        if (m == 'X' || m == 'O') {
+            piece.setImage(m == 'X' ? redImg : yellowImg);
+            piece.setVisible(true);
+        } else {
+            piece.setVisible(false);
+        }
+        shown[r][c] = m;
+    }
+
     private void updateStatus() {
         if (!gameStarted && client != null) {
             statusLabel.setText("Waiting for opponent to join...");
@@ -555,40 +1002,29 @@ public class GameScene {
     }
 
     private void updatePlays() {
-        playsLabel.setText("Plays: " + Connect4.numPlays);
-    }
-
-    private void setBackground(Region pane, Image img) {
-
-        BackgroundSize bs = new BackgroundSize(
-                BackgroundSize.AUTO,
-                BackgroundSize.AUTO,
-                false,
-                false,
-                true,
-                true
-        );
-
-        BackgroundImage bgImage = new BackgroundImage(
-                img,
-                BackgroundRepeat.NO_REPEAT,
-                BackgroundRepeat.NO_REPEAT,
-                BackgroundPosition.CENTER,
-                bs
-        );
-
-        pane.setBackground(new Background(bgImage));
+        playsLabel.setText("Plays: " + game.numPlays);
     }
 
     private void startBackgroundAnimation(Region pane) {
-        Timeline timeline = new Timeline(new KeyFrame(
+        backgroundTimeline = new Timeline(new KeyFrame(
                 Duration.seconds(1),
                 e -> {
                     currentBg = (currentBg + 1) % bgFrames.length;
-                    setBackground(pane, bgFrames[currentBg]);
+                    pane.setBackground(bgFrames[currentBg]);
                 }
         ));
-        timeline.setCycleCount(Timeline.INDEFINITE);
-        timeline.play();
+        backgroundTimeline.setCycleCount(Timeline.INDEFINITE);
+        // plays once the scene is put on the stage
+    }
+
+    // only animate the background while this scene is on screen
+    private void refreshBackgroundAnimation() {
+        Window w = scene == null ? null : scene.getWindow();
+        boolean onScreen = w != null && w.isShowing() && !stage.isIconified();
+        if (onScreen) {
+            backgroundTimeline.play();
+        } else {
+            backgroundTimeline.pause();
+        }
     }
-}
\ No newline at end of file
+}
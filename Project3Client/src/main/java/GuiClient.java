@@ -4,7 +4,10 @@ import javafx.stage.Stage;
 public class GuiClient extends Application {
 	@Override
 	public void start(Stage primaryStage) {
-		MainMenu menu = new MainMenu(primaryStage);
+		Assets.preload();
+		ClientConfig config = ClientConfig.load(getParameters().getRaw().toArray(new String[0]));
+		AIService.configure(config);
+		MainMenu menu = new MainMenu(primaryStage, config);
 		primaryStage.setScene(menu.getScene());
 		primaryStage.setTitle("Connect-4");
 		primaryStage.show();
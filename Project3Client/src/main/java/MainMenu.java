@@ -18,29 +18,36 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
-import javafx.scene.text.Font;
 import javafx.stage.Stage;
 
-import java.util.Objects;
-
 
 public class MainMenu {
     private final Stage stage;
     private TextArea chatArea;
+    private ChatLog chatLog;
     private TextField messageField;
     private TextField usernameField;
     private String username = "User";
     private Client client;
+    private final ConnectionFactory connections;
+    // the board new games are played on (ClientConfig.variant)
+    private final String variant;
 
     // We'll rely on the server to validate username uniqueness
     public MainMenu(Stage stage) {
+        this(stage, ClientConfig.defaults());
+    }
+
+    public MainMenu(Stage stage, ClientConfig config) {
         this.stage = stage;
+        this.connections = new ConnectionFactory(config);
+        this.variant = config.variant;
         stage.setResizable(false);
     }
 
     public Scene getScene() {
         // Set up the background image
-        Image backgroundImage = new Image(Objects.requireNonNull(getClass().getResourceAsStream("background.png")));
+        Image backgroundImage = Assets.image("background.png");
         BackgroundImage background = new BackgroundImage(
                 backgroundImage,
                 BackgroundRepeat.NO_REPEAT,
@@ -50,10 +57,10 @@ public class MainMenu {
         );
 
         // Set up custom button image
-        Image buttonImg = new Image(Objects.requireNonNull(getClass().getResourceAsStream("button.png")));
+        Image buttonImg = Assets.image("Button.png");
 
         Label title = new Label("Connect-4");
-        title.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 30));
+        title.setFont(Assets.font(30));
 
         // Create custom buttons using the button image
         Button single = createCustomButton("Single Player", buttonImg);
@@ -71,6 +78,7 @@ public class MainMenu {
         chatArea.setPrefHeight(400);
         chatArea.setWrapText(true);
         chatArea.setStyle("-fx-font-size: 14px; -fx-control-inner-background: rgba(255, 255, 255, 0.8);");
+        chatLog = new ChatLog(chatArea);
 
         // Message input at the bottom
         messageField = new TextField();
@@ -110,7 +118,7 @@ public class MainMenu {
 
         // Chat section
         Label chatLabel = new Label("Public Chat");
-        chatLabel.setFont(Font.loadFont(getClass().getResourceAsStream("ka1.ttf"), 12));
+        chatLabel.setFont(Assets.font(12));
         chatLabel.setTextFill(Color.WHITE);
 
         VBox chatBox = new VBox(10,
@@ -160,12 +168,12 @@ public class MainMenu {
         // If we're connected to server, send username change request
         if (client != null) {
             // The server will validate uniqueness and respond with USERNAME_ACCEPTED or USERNAME_TAKEN
-            client.send("SET_USERNAME:" + newUsername);
-            chatArea.appendText("Requesting username change to: " + newUsername + "...\n");
+            client.setUsername(newUsername);
+            chatLog.append("Requesting username change to: " + newUsername + "...");
         } else {
             // If not connected, just update locally
             username = newUsername;
-            chatArea.appendText("Username set to: " + username + " (not connected to server)\n");
+            chatLog.append("Username set to: " + username + " (not connected to server)");
         }
     }
 
@@ -180,7 +188,7 @@ public class MainMenu {
     private void connectToServer() {
         // Check if already connected
         if (client != null) {
-            chatArea.appendText("Already connected to server.\n");
+            chatLog.append("Already connected to server.");
             return;
         }
 
@@ -194,92 +202,94 @@ public class MainMenu {
         // Store the desired username
         username = newUsername;
 
-        // Connect to localhost:5555
-        client = new Client("localhost", 5555, this::handleServerMessage);
+        // Connect to the configured server; this one connection also carries every multiplayer game
+        client = new Client(connections, null);
+        client.setAutoReconnect(connections.getConfig().reconnect);
+        client.route(Client.LOBBY, this::handleServerMessage);
 
-        // Now start the networking thread
+        // Now start the networking thread and ask for our username (sent once connected)
         client.start();
+        client.setUsername(username);
 
         // Server will send list of active usernames upon connection
-        chatArea.appendText("Connecting to server...\n");
+        chatLog.append("Connecting to server...");
     }
 
     private void startSingle(ActionEvent e) {
-        Connect4 logic = new Connect4();
+        Connect4 logic = Connect4.ofVariant(variant);
         GameScene gs = new GameScene(logic, null, stage, getScene());
 
         stage.setScene(gs.getScene());
     }
 
     private void startMultiplayer(ActionEvent e) {
-        // Get username before starting multiplayer
-        String newUsername = usernameField.getText().trim();
-        if (newUsername.isEmpty()) {
-            newUsername = "User" + System.currentTimeMillis() % 1000;
-            usernameField.setText(newUsername);
+        // Reuse the lobby connection, connecting first if needed
+        if (client == null) {
+            connectToServer();
         }
 
-        // Store the desired username - the server will validate
-        username = newUsername;
-
-        Connect4 logic = new Connect4();
-        Client gameClient = new Client("localhost", 5555, null);
-        GameScene gs = new GameScene(logic, gameClient, stage, getScene());
-
-        // wire callback after construction
-        gs.client.setCallback(gs::onReceive);
-
+        Connect4 logic = Connect4.ofVariant(variant);
+        GameScene gs = new GameScene(logic, client, stage, getScene());
         stage.setScene(gs.getScene());
-        gs.client.start();
-
-        // Set username for this client - the server will validate
-        gameClient.setUsername(username);
     }
 
     private void sendChatMessage() {
         String message = messageField.getText().trim();
         if (message.isEmpty() || client == null) return;
 
-        // Send public chat message
-        client.sendPublicChat(username + ": " + message);
+        // Send public chat message; the server adds our username
+        client.sendPublicChat(message);
         messageField.clear();
     }
 
     private void handleServerMessage(String message) {
-        javafx.application.Platform.runLater(() -> {
+        // chat and join/leave lines go straight to the log, which batches them per frame
+        if (message.startsWith("PUBLIC_CHAT:")) {
             // Public chat from server: protocol → "PUBLIC_CHAT:user:hello there"
-            if (message.startsWith("PUBLIC_CHAT:")) {
-                String payload = message.substring("PUBLIC_CHAT:".length());
-                String[] parts = payload.split(":", 2);
-                if (parts.length == 2) {
-                    String fromUser = parts[0];
-                    String text     = parts[1];
-                    chatArea.appendText(fromUser + ": " + text + "\n");
+            String payload = message.substring("PUBLIC_CHAT:".length());
+            String[] parts = payload.split(":", 2);
+            if (parts.length == 2) {
+                String fromUser = parts[0];
+                String text     = parts[1];
+                chatLog.append(fromUser + ": " + text);
+            } else {
+                // fallback if server sent just "PUBLIC_CHAT:hello"
+                chatLog.append(payload);
+            }
+            return;
+        }
+        // User join/leave
+        if (message.startsWith("USER_JOINED:")) {
+            chatLog.append(message.substring("USER_JOINED:".length()) + " joined.");
+            return;
+        }
+        if (message.startsWith("USER_LEFT:")) {
+            chatLog.append(message.substring("USER_LEFT:".length()) + " left.");
+            return;
+        }
+        javafx.application.Platform.runLater(() -> {
+            if (message.equals("DISCONNECT:server")) {
+                if (connections.getConfig().reconnect) {
+                    // the client keeps trying; the lobby carries on once it's back
+                    chatLog.append("Lost the server, reconnecting...");
                 } else {
-                    // fallback if server sent just "PUBLIC_CHAT:hello"
-                    chatArea.appendText(payload + "\n");
+                    chatLog.append("Disconnected from server.");
+                    client = null;
                 }
             }
-            // User join/leave/disconnect
-            else if (message.startsWith("USER_JOINED:")) {
-                chatArea.appendText(message.substring("USER_JOINED:".length()) + " joined.\n");
-            }
-            else if (message.startsWith("USER_LEFT:")) {
-                chatArea.appendText(message.substring("USER_LEFT:".length()) + " left.\n");
-            }
-            else if (message.startsWith("DISCONNECTED:")) {
-                chatArea.appendText("Disconnected: " + message.substring("DISCONNECTED:".length()) + "\n");
-                client = null;
-            }
             // Username feedback
             else if (message.startsWith("USERNAME_TAKEN:")) {
                 String name = message.substring("USERNAME_TAKEN:".length());
-                chatArea.appendText("Username '" + name + "' is taken.\n");
+                chatLog.append("Username '" + name + "' is taken.");
                 usernameField.setText(name + System.currentTimeMillis() % 1000);
             }
+            else if (message.startsWith("SERVER_CLOSING:")) {
+                chatLog.append("Server is shutting down in up to " + message.substring("SERVER_CLOSING:".length()) +
+                        "s; games in progress can finish.");
+            }
             else if (message.startsWith("USERNAME_ACCEPTED:")) {
                 username = message.substring("USERNAME_ACCEPTED:".length());
-                chatArea.appendText("Username set to " + username + "\n");
+                chatLog.append("Username set to " + username);
             }
         });
     }
@@ -0,0 +1,521 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Monte Carlo tree search player, an alternative to Connect4.AI_chooseCol.
+// It plays random games from the position and grows a tree toward the moves that
+// win them most often (UCT), so it plays better the longer it runs and can stop at
+// any time. Its mistakes look more human than a depth-limited search's.
+//
+// The tree lives in one array of longs rather than in node objects: a node is an
+// index, its children are a contiguous block, and each node takes two slots side by
+// side, its visits and score in one (so a single atomic add updates both) and its
+// links in the other. Several threads search one tree; a thread going down a path
+// counts a visit with no score on every node (a virtual loss), which steers the
+// others elsewhere until its result comes back. Playouts run on a bitboard
+// (current + mask, the layout the server's BitBoard uses). Between moves the subtree
+// under the position actually reached is kept and packed to the front of the arena,
+// so the next search starts with that work done. ponder() grows the tree while the
+// opponent thinks; if they then play a move it has already searched as much as a
+// whole search would, chooseCol answers at once.
+//
+// One instance plays one side of a game at a time; chooseCol is synchronized.
+public class Mcts implements Bot.Policy {
+    static final int WIDTH = Connect4.numCols;
+    static final int HEIGHT = Connect4.numRows;
+    static final int CELLS = WIDTH * HEIGHT;
+    private static final int H1 = HEIGHT + 1;
+    static final long BOTTOM = bottomRow();
+    static final long BOARD = BOTTOM * ((1L << HEIGHT) - 1);
+    // horizontal, diagonal /, diagonal \
+    private static final int[] SIDEWAYS = {H1, H1 + 1, H1 - 1};
+    // center columns first: they're tried first and win ties
+    private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+
+    // a node that ends the game, from the side of the player who moved into it
+    private static final int WON = 1, DRAWN = 2;
+    // links: first child << 32 | being expanded << 24 | child count << 16 | terminal << 8 | column
+    private static final long EXPANDING = 1L << 24;
+    // a leaf gets a few playouts of its own before it grows children, which keeps
+    // the tree small enough to stay in cache
+    private static final int EXPAND_VISITS = 16;
+    // playouts from each leaf reached: the walk down the tree costs more than a playout,
+    // so sharing it keeps the playout rate up at the price of a slightly coarser tree
+    private static final int PLAYOUTS_PER_LEAF = 4;
+    // what going down through a node adds to its stats: the leaf's playouts, as losses until they're in
+    private static final long VISIT = (long) PLAYOUTS_PER_LEAF << 32;
+    private static final double EXPLORATION = 1.0;
+    // nodes in a single player engine's arena, 16 bytes each
+    static final int DEFAULT_CAPACITY = 1 << 20;
+    // playouts per move for engines named mcts with no number
+    static final long DEFAULT_PLAYOUTS = 2000;
+
+    // 1/n and sqrt(ln n) for small n, so choosing a child needs no division or log
+    private static final int TABLE = 1 << 16;
+    private static final float[] INVERSE = new float[TABLE];
+    private static final float[] INVERSE_SQRT = new float[TABLE];
+    private static final float[] SQRT_LOG = new float[TABLE];
+
+    static {
+        for (int n = 1; n < TABLE; n++) {
+            INVERSE[n] = 1f / n;
+            INVERSE_SQRT[n] = (float) (1 / Math.sqrt(n));
+            SQRT_LOG[n] = (float) Math.sqrt(Math.log(n));
+        }
+    }
+
+    // helper threads for every instance; the caller's thread searches too
+    private static final ExecutorService helpers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "mcts-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int threads;
+    private final long millis;
+    private final long playoutLimit;
+    private final int capacity;
+
+    // node n: [2n] visits << 32 | score (2 a win, 1 a draw, for the player who moved in),
+    // [2n + 1] its links; node 0 is the root and nobody's child, so first child 0 means a leaf
+    private final AtomicLongArray arena;
+    private final AtomicInteger next = new AtomicInteger(1);
+
+    // the position at node 0, and the game's moves up to it
+    private long rootCurrent, rootMask;
+    private int rootMoves;
+    private int[] history;
+
+    private final AtomicLong playouts = new AtomicLong();
+    private volatile boolean stop;
+    private long lastPlayouts;
+    private int lastReused;
+    private boolean lastPondered;
+    // measured on the last timed search, to tell how many playouts a search would make
+    private double playoutsPerMilli;
+
+    // Search for up to millis per move or playoutLimit playouts, whichever comes first
+    // (0 for no limit on either), on threads threads, in a tree of up to capacity nodes.
+    public Mcts(int threads, long millis, long playoutLimit, int capacity) {
+        this.threads = Math.max(1, threads);
+        this.millis = millis;
+        this.playoutLimit = playoutLimit;
+        this.capacity = capacity;
+        arena = new AtomicLongArray(2 * capacity);
+    }
+
+    // A policy that gives each calling thread an engine of its own, for callers like
+    // Tournament that play many games at once through one Policy.
+    public static Bot.Policy perThread(long playoutLimit) {
+        if (playoutLimit <= 0) {
+            throw new IllegalArgumentException("playouts must be positive: " + playoutLimit);
+        }
+        ThreadLocal<Mcts> engines = ThreadLocal.withInitial(() ->
+                new Mcts(1, 0, playoutLimit, (int) Math.min(DEFAULT_CAPACITY, playoutLimit + 64)));
+        return game -> engines.get().chooseCol(game);
+    }
+
+    // "mcts" or "mctsN" for N playouts a move, as engines are named on command lines
+    static Bot.Policy named(String name) {
+        String playouts = name.substring(4);
+        return perThread(playouts.isEmpty() ? DEFAULT_PLAYOUTS : Long.parseLong(playouts));
+    }
+
+    // playouts in the last search, and how many nodes it started with from the one before
+    public long lastPlayouts() {
+        return lastPlayouts;
+    }
+
+    public int lastReused() {
+        return lastReused;
+    }
+
+    // whether the last move came straight from the pondered tree
+    public boolean lastPondered() {
+        return lastPondered;
+    }
+
+    @Override
+    public synchronized int chooseCol(Connect4 game) {
+        int[] moves = game.getMoves();
+        long current = 0, mask = 0;
+        for (int col : moves) {
+            current ^= mask;
+            mask |= mask + bottom(col);
+        }
+        lastPlayouts = 0;
+        lastPondered = false;
+
+        // take a win, then block the opponent's, without searching
+        for (int col : ORDER) {
+            if (canPlay(mask, col) && hasFour(current | stone(mask, col))) return col;
+        }
+        for (int col : ORDER) {
+            if (canPlay(mask, col) && hasFour((current ^ mask) | stone(mask, col))) return col;
+        }
+
+        reuse(moves, current, mask);
+        if ((arena.get(0) >>> 32) >= searchPlayouts()) {
+            lastPondered = true;
+        } else {
+            search(millis, playoutLimit, false);
+        }
+
+        // the most visited move is the one the search trusts most
+        int best = -1;
+        long bestVisits = -1;
+        long links = arena.get(1);
+        for (int c = first(links); c < first(links) + count(links); c++) {
+            long visits = arena.get(2 * c) >>> 32;
+            if (visits > bestVisits) {
+                bestVisits = visits;
+                best = column(arena.get(2 * c + 1));
+            }
+        }
+        return best;
+    }
+
+    // Search the position the opponent has to move in until the thread is interrupted,
+    // maxMillis pass, or the root has a full search's worth of visits for each of its
+    // moves, past which the most visited reply needs no search of its own.
+    // The tree is kept for chooseCol.
+    public synchronized void ponder(Connect4 game, long maxMillis) {
+        int[] moves = game.getMoves();
+        long current = 0, mask = 0;
+        for (int col : moves) {
+            current ^= mask;
+            mask |= mask + bottom(col);
+        }
+        reuse(moves, current, mask);
+        long enough = searchPlayouts();
+        long limit = 0;
+        if (enough != Long.MAX_VALUE) {
+            long visits = arena.get(0) >>> 32;
+            // the root's visits from before it grew children belong to none of them
+            limit = WIDTH * enough + EXPAND_VISITS - visits;
+            if (limit <= 0) return;
+        }
+        search(maxMillis, limit, true);
+    }
+
+    // how many playouts a search of its own would make, as far as we know
+    private long searchPlayouts() {
+        long timed = millis > 0 && playoutsPerMilli > 0 ? (long) (millis * playoutsPerMilli) : Long.MAX_VALUE;
+        return playoutLimit > 0 ? Math.min(playoutLimit, timed) : timed;
+    }
+
+    // Make node 0 the current position, keeping what's known about it.
+    private void reuse(int[] moves, long current, long mask) {
+        int node = history != null && moves.length >= rootMoves ? 0 : -1;
+        for (int i = 0; node >= 0 && i < rootMoves; i++) {
+            if (moves[i] != history[i]) node = -1;
+        }
+        for (int i = rootMoves; node >= 0 && i < moves.length; i++) {
+            node = child(node, moves[i]);
+        }
+        if (node > 0) {
+            compact(node);
+        } else if (node < 0) {
+            arena.set(0, 0);
+            arena.set(1, 0);
+            next.set(1);
+        }
+        lastReused = Math.min(next.get(), capacity);
+        rootCurrent = current;
+        rootMask = mask;
+        rootMoves = moves.length;
+        history = moves;
+        expand(0, current, mask);
+    }
+
+    private int child(int node, int col) {
+        long links = arena.get(2 * node + 1);
+        for (int c = first(links); c < first(links) + count(links); c++) {
+            if (column(arena.get(2 * c + 1)) == col) return c;
+        }
+        return -1;
+    }
+
+    // Drop everything outside root's subtree and slide the rest down, keeping its order.
+    // Children always sit after their parent, so one forward sweep marks the subtree,
+    // and no node ever moves up, so the copy can happen in place.
+    private void compact(int root) {
+        int used = Math.min(next.get(), capacity);
+        long[] keep = new long[(used + 63) >>> 6];
+        keep[root >>> 6] |= 1L << root;
+        for (int i = root; i < used; i++) {
+            if ((keep[i >>> 6] & (1L << i)) == 0) continue;
+            long links = arena.get(2 * i + 1);
+            for (int c = first(links); c < first(links) + count(links); c++) {
+                keep[c >>> 6] |= 1L << c;
+            }
+        }
+        int[] before = new int[keep.length];
+        for (int w = 1; w < keep.length; w++) {
+            before[w] = before[w - 1] + Long.bitCount(keep[w - 1]);
+        }
+        int kept = 0;
+        for (int i = root; i < used; i++) {
+            if ((keep[i >>> 6] & (1L << i)) == 0) continue;
+            long links = arena.get(2 * i + 1);
+            int first = first(links);
+            if (first > 0) {
+                int moved = before[first >>> 6] + Long.bitCount(keep[first >>> 6] & ((1L << first) - 1));
+                links = (long) moved << 32 | (links & 0xffffffffL);
+            }
+            arena.set(2 * kept, arena.get(2 * i));
+            arena.set(2 * kept + 1, links);
+            kept++;
+        }
+        next.set(kept);
+    }
+
+    // Run every thread until millis or limit (0 for none) or the caller's thread is
+    // interrupted. A ponder's rate isn't measured, as it's usually cut short.
+    private void search(long millis, long limit, boolean pondering) {
+        stop = false;
+        playouts.set(0);
+        long start = System.nanoTime();
+        long deadline = millis > 0 ? start + millis * 1_000_000 : Long.MAX_VALUE;
+        Future<?>[] running = new Future<?>[threads - 1];
+        for (int i = 0; i < running.length; i++) {
+            running[i] = helpers.submit(() -> new Worker().run(deadline, limit));
+        }
+        new Worker().run(deadline, limit);
+        stop = true;
+        // the helpers must be done with the arena before anything else touches it
+        boolean interrupted = false;
+        for (Future<?> f : running) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("MCTS worker failed", e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        lastPlayouts = playouts.get();
+        long elapsed = System.nanoTime() - start;
+        if (elapsed > 50_000_000 && !pondering) {
+            playoutsPerMilli = lastPlayouts * 1e6 / elapsed;
+        }
+    }
+
+    // One searching thread's scratch space.
+    private class Worker {
+        final int[] path = new int[CELLS + 1];
+        long seed = ThreadLocalRandom.current().nextLong() | 1;
+
+        void run(long deadline, long limit) {
+            int local = 0;
+            while (!stop) {
+                iterate();
+                local += PLAYOUTS_PER_LEAF;
+                if (local >= 64) {
+                    long total = playouts.addAndGet(local);
+                    local = 0;
+                    if ((limit > 0 && total >= limit) || System.nanoTime() > deadline
+                            || Thread.currentThread().isInterrupted()) {
+                        stop = true;
+                    }
+                }
+            }
+            playouts.addAndGet(local);
+        }
+
+        // Down the tree to a leaf, one playout, and the result back up.
+        void iterate() {
+            long current = rootCurrent, mask = rootMask;
+            int node = 0, depth = 0;
+            path[depth++] = 0;
+            long visits = arena.getAndAdd(0, VISIT) >>> 32;
+            long links = arena.get(1);
+            while (first(links) > 0 && terminal(links) == 0) {
+                node = select(first(links), count(links), visits + PLAYOUTS_PER_LEAF);
+                links = arena.get(2 * node + 1);
+                current ^= mask;
+                mask |= mask + bottom(column(links));
+                path[depth++] = node;
+                // the virtual loss: a visit now, the score when the playout's done
+                visits = arena.getAndAdd(2 * node, VISIT) >>> 32;
+                if (first(links) == 0 && terminal(links) == 0 && visits + PLAYOUTS_PER_LEAF >= EXPAND_VISITS) {
+                    expand(node, current, mask);
+                    links = arena.get(2 * node + 1);
+                }
+            }
+
+            // score for the player who moved into the leaf
+            int score = 0;
+            if (terminal(links) == WON) {
+                score = 2 * PLAYOUTS_PER_LEAF;
+            } else if (terminal(links) == DRAWN) {
+                score = PLAYOUTS_PER_LEAF;
+            } else {
+                int moves = Long.bitCount(mask);
+                for (int i = 0; i < PLAYOUTS_PER_LEAF; i++) {
+                    score += 2 - playout(current, mask, moves);
+                }
+            }
+            for (int i = depth - 1; i >= 0; i--) {
+                arena.getAndAdd(2 * path[i], score);
+                score = 2 * PLAYOUTS_PER_LEAF - score;
+            }
+        }
+
+        // the child with the best upper confidence bound; unvisited ones first
+        int select(int first, int count, long parentVisits) {
+            float sqrtLog = parentVisits < TABLE ? SQRT_LOG[(int) parentVisits] : (float) Math.sqrt(Math.log(parentVisits));
+            int best = first;
+            float bestValue = -1;
+            for (int c = first; c < first + count; c++) {
+                long s = arena.get(2 * c);
+                int visits = (int) (s >>> 32);
+                if (visits == 0) return c;
+                float value;
+                if (visits < TABLE) {
+                    value = 0.5f * (int) s * INVERSE[visits] + (float) EXPLORATION * sqrtLog * INVERSE_SQRT[visits];
+                } else {
+                    value = (float) (0.5 * (int) s / visits + EXPLORATION * sqrtLog / Math.sqrt(visits));
+                }
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        // Random moves to the end: 2 if the player to move in the given position wins, 0 if they lose.
+        int playout(long current, long mask, int moves) {
+            int start = moves;
+            long x = seed;
+            while (moves < CELLS) {
+                int col;
+                do {
+                    x ^= x << 13;
+                    x ^= x >>> 7;
+                    x ^= x << 17;
+                    col = (int) (((x >>> 32) * WIDTH) >>> 32);
+                } while ((mask & top(col)) != 0);
+                long s = stone(mask, col);
+                if (hasFour(current | s)) {
+                    seed = x;
+                    return ((moves - start) & 1) == 0 ? 2 : 0;
+                }
+                current ^= mask;
+                mask |= s;
+                moves++;
+            }
+            seed = x;
+            return 1;
+        }
+    }
+
+    // Give a leaf its children, one per open column, unless another thread is already
+    // doing it. If the arena is full the node stays a leaf.
+    private void expand(int node, long current, long mask) {
+        long links = arena.get(2 * node + 1);
+        if (first(links) > 0 || (links & EXPANDING) != 0
+                || !arena.compareAndSet(2 * node + 1, links, links | EXPANDING)) {
+            return;
+        }
+        int n = 0;
+        for (int col = 0; col < WIDTH; col++) {
+            if (canPlay(mask, col)) n++;
+        }
+        int first = next.get() + n > capacity ? capacity : next.getAndAdd(n);
+        if (n == 0 || first + n > capacity) {
+            arena.set(2 * node + 1, links);
+            return;
+        }
+        int c = first;
+        for (int col : ORDER) {
+            if (!canPlay(mask, col)) continue;
+            long s = stone(mask, col);
+            int end = hasFour(current | s) ? WON : Long.bitCount(mask) + 1 == CELLS ? DRAWN : 0;
+            arena.lazySet(2 * c, 0);
+            arena.lazySet(2 * c + 1, end << 8 | col);
+            c++;
+        }
+        // publishes the block to the threads reading links
+        arena.set(2 * node + 1, (long) first << 32 | n << 16 | (links & 0xffff));
+    }
+
+    private static int first(long links) {
+        return (int) (links >>> 32);
+    }
+
+    private static int count(long links) {
+        return (int) (links >>> 16) & 0xff;
+    }
+
+    private static int terminal(long links) {
+        return (int) (links >>> 8) & 0xff;
+    }
+
+    private static int column(long links) {
+        return (int) links & 0xff;
+    }
+
+    // The bitboard helpers below are shared with Solver.
+
+    static boolean canPlay(long mask, int col) {
+        return (mask & top(col)) == 0;
+    }
+
+    // the cell a piece dropped in col lands on
+    static long stone(long mask, int col) {
+        return (mask + bottom(col)) & (((1L << HEIGHT) - 1) << (col * H1));
+    }
+
+    static boolean hasFour(long pos) {
+        return line(pos, 1) || line(pos, H1) || line(pos, H1 + 1) || line(pos, H1 - 1);
+    }
+
+    private static boolean line(long pos, int shift) {
+        long m = pos & (pos >>> shift);
+        return (m & (m >>> (2 * shift))) != 0;
+    }
+
+    static long bottom(int col) {
+        return 1L << (col * H1);
+    }
+
+    static long top(int col) {
+        return 1L << (HEIGHT - 1 + col * H1);
+    }
+
+    // Empty cells that would complete four for the stones in pos.
+    static long winningCells(long pos, long mask) {
+        // vertical
+        long r = (pos << 1) & (pos << 2) & (pos << 3);
+        for (int shift : SIDEWAYS) {
+            long p = (pos << shift) & (pos << (2 * shift));
+            r |= p & (pos << (3 * shift));
+            r |= p & (pos >>> shift);
+            p = (pos >>> shift) & (pos >>> (2 * shift));
+            r |= p & (pos << shift);
+            r |= p & (pos >>> (3 * shift));
+        }
+        return r & (BOARD ^ mask);
+    }
+
+    private static long bottomRow() {
+        long b = 0;
+        for (int col = 0; col < WIDTH; col++) {
+            b |= bottom(col);
+        }
+        return b;
+    }
+}
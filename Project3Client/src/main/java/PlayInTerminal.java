@@ -31,10 +31,10 @@ public class PlayInTerminal {
         Connect4 game = new Connect4();
 
         while (!game.gameEnded) {
-            if (Connect4.currPlayer == 'X') {
-                printBoard();
+            if (game.currPlayer == 'X') {
+                printBoard(game);
 
-                System.out.println("Number of plays: " + Connect4.numPlays);
+                System.out.println("Number of plays: " + game.numPlays);
                 System.out.print("Player X, enter column (0-6): ");
 
                 int col = scanner.nextInt();
@@ -42,21 +42,21 @@ public class PlayInTerminal {
                     System.out.print("Invalid. Try again: ");
                     col = scanner.nextInt();
                 }
-                game.drop(Connect4.currPlayer, col);
+                game.drop(game.currPlayer, col);
             }
             else {
                 int aiCol = game.AI_chooseCol();
                 System.out.println("*** AI plays at column: " + aiCol + " ***");
-                game.drop(Connect4.currPlayer, aiCol);
+                game.drop(game.currPlayer, aiCol);
             }
 
-            if (Connect4.checkForWin(Connect4.board, Connect4.currPlayer)) {
-                printBoard();
-                System.out.println("Player " + Connect4.currPlayer + " wins!");
+            if (Connect4.checkForWin(game.board, game.currPlayer)) {
+                printBoard(game);
+                System.out.println("Player " + game.currPlayer + " wins!");
                 game.gameEnded = true;
             }
             else if (game.isBoardFull()) {
-                printBoard();
+                printBoard(game);
                 System.out.println("It's a draw!");
                 game.gameEnded = true;
             }
@@ -71,10 +71,10 @@ public class PlayInTerminal {
         LinkedList history = new LinkedList();
 
         while (!game.gameEnded) {
-            printBoard();
+            printBoard(game);
 
-            System.out.println("Number of plays: " + Connect4.numPlays);
-            System.out.println("It is " + Connect4.currPlayer + "'s turn.");
+            System.out.println("Number of plays: " + game.numPlays);
+            System.out.println("It is " + game.currPlayer + "'s turn.");
             System.out.print("Enter 0–6, U=undo, P=print all, Q=quit: ");
 
             String in = scanner.nextLine().trim();
@@ -82,9 +82,9 @@ public class PlayInTerminal {
                 break;
             }
             else if (in.equalsIgnoreCase("u")) {
-                Vector<Vector<Character>> prev = history.undoMove();
+                Vector<Vector<Character>> prev = history.undoMove(game);
                 if (prev != null) {
-                    Connect4.board = prev;
+                    game.board = prev;
                     game.switchPlayer();
                 }
                 else {
@@ -93,7 +93,7 @@ public class PlayInTerminal {
                 continue;
             }
             else if (in.equalsIgnoreCase("p")) {
-                printAllBoards(history.head);
+                printAllBoards(new GameReplay(game.getMoves()));
                 continue;
             }
 
@@ -113,16 +113,16 @@ public class PlayInTerminal {
                 continue;
             }
 
-            history.addBoard(Connect4.board);
-            game.drop(Connect4.currPlayer, col);
+            history.addBoard(game.board);
+            game.drop(game.currPlayer, col);
 
-            if (Connect4.checkForWin(Connect4.board, Connect4.currPlayer)) {
-                printBoard();
-                System.out.println("Player " + Connect4.currPlayer + " wins!");
+            if (Connect4.checkForWin(game.board, game.currPlayer)) {
+                printBoard(game);
+                System.out.println("Player " + game.currPlayer + " wins!");
                 game.gameEnded = true;
             }
             else if (game.isBoardFull()) {
-                printBoard();
+                printBoard(game);
                 System.out.println("It's a draw!");
                 game.gameEnded = true;
             }
@@ -132,9 +132,9 @@ public class PlayInTerminal {
         }
     }
 
-    private static void printBoard() {
+    private static void printBoard(Connect4 game) {
         System.out.println("0 1 2 3 4 5 6");
-        for (Vector<Character> row : Connect4.board) {
+        for (Vector<Character> row : game.board) {
             for (char cell : row) System.out.print(cell + " ");
             System.out.println();
         }
@@ -163,22 +163,24 @@ public class PlayInTerminal {
             n.next = head;
             head  = n;
         }
-        public synchronized Vector<Vector<Character>> undoMove() {
+        public synchronized Vector<Vector<Character>> undoMove(Connect4 game) {
             if (head == null) return null;
             Vector<Vector<Character>> prev = head.board;
             head = head.next;
-            Connect4.numPlays--;
+            game.numPlays--;
             return prev;
         }
     }
-    private static void printAllBoards(Node node) {
-        if (node == null) return;
-        printAllBoards(node.next);
-        System.out.println("0 1 2 3 4 5 6");
-        for (Vector<Character> row : node.board) {
-            for (char cell : row) System.out.print(cell + " ");
+    // Print the board as it was before each move, oldest first.
+    private static void printAllBoards(GameReplay replay) {
+        for (int ply = 0; ply < replay.length(); ply++) {
+            replay.seek(ply);
+            System.out.println("0 1 2 3 4 5 6");
+            for (int row = 0; row < Connect4.numRows; row++) {
+                for (int col = 0; col < Connect4.numCols; col++) System.out.print(replay.cellAt(row, col) + " ");
+                System.out.println();
+            }
             System.out.println();
         }
-        System.out.println();
     }
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Works out what each column is worth to the player to move, for the hint overlay.
+// analyse() runs on a background thread and searches one ply deeper at a time, so
+// the first answers come back at once and get better as it goes. A column is a win
+// or a loss (and in how many moves) once the search sees it forced; until then it
+// is unknown, and once the search reaches the end of the game it is a draw.
+//
+// The search is alpha-beta on Mcts's bitboard, with a transposition table keyed by the
+// position, so the work done on one position carries over to the ones after it,
+// and finished analyses are kept per position so going back to one is instant.
+public final class Solver {
+    static final int WIDTH = Connect4.numCols;
+    static final int HEIGHT = Connect4.numRows;
+    static final int CELLS = WIDTH * HEIGHT;
+    private static final long BOTTOM = Mcts.BOTTOM;
+    private static final long BOARD = Mcts.BOARD;
+    private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+
+    // a win with the n-th stone scores BIG - n for the winner; 0 is a draw or unknown
+    static final int BIG = CELLS + 1;
+    // a full column in Result.scores
+    static final int FULL = Integer.MIN_VALUE;
+
+    private static final int EXACT = 1, LOWER = 2, UPPER = 3;
+    private static final int TABLE_BITS = 19;
+    // an analysis stops deepening after this long, solved or not
+    static final long MAX_MILLIS = 60_000;
+    // finished or partial analyses kept by position
+    private static final int RESULTS = 4096;
+
+    // What the search knows about one position after searching depth plies.
+    public static final class Result {
+        public final int depth;
+        // every column is exact: the search saw to the end of the game
+        public final boolean complete;
+        final int moves;
+        // per column, for the player to move: BIG - n for a win with stone n, -(BIG - n)
+        // for a loss, 0 for a draw (if complete) or unknown, FULL for a full column
+        final int[] scores;
+
+        Result(int depth, boolean complete, int moves, int[] scores) {
+            this.depth = depth;
+            this.complete = complete;
+            this.moves = moves;
+            this.scores = scores;
+        }
+
+        // 1 if playing col wins, -1 if it loses, 0 for a draw or not known yet
+        public int outcome(int col) {
+            int s = scores[col];
+            return s == FULL ? 0 : Integer.signum(s);
+        }
+
+        // "Win 2" (on your second move from now), "Loss 1", "Draw", "?" or "" for a full column
+        public String label(int col) {
+            int s = scores[col];
+            if (s == FULL) return "";
+            if (s == 0) return complete ? "Draw" : "?";
+            int stone = BIG - Math.abs(s);
+            int plies = stone - moves;
+            return s > 0 ? "Win " + (plies + 1) / 2 : "Loss " + plies / 2;
+        }
+    }
+
+    private static final class Cancelled extends RuntimeException {
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Cancelled CANCELLED = new Cancelled();
+
+    // one thread, below the UI and the AI
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "analysis");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // only ever used on the analysis thread
+    private static final Solver shared = new Solver(TABLE_BITS);
+    private static final Map<Long, Result> results = new LinkedHashMap<Long, Result>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Result> eldest) {
+            return size() > RESULTS;
+        }
+    };
+
+    // transposition table: key is current + mask, which is unique per position
+    private final long[] keys;
+    private final int[] entries;
+    private final int tableMask;
+    private long nodes;
+
+    Solver(int tableBits) {
+        keys = new long[1 << tableBits];
+        entries = new int[1 << tableBits];
+        tableMask = (1 << tableBits) - 1;
+    }
+
+    // Analyse the player to move's options in game, deeper and deeper, handing each
+    // pass to onUpdate on the analysis thread. Cancel the future to stop it.
+    public static CompletableFuture<Void> analyse(Connect4 game, Consumer<Result> onUpdate) {
+        int[] moves = game.getMoves();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                shared.deepen(moves, onUpdate);
+                result.complete(null);
+            } catch (Cancelled c) {
+                result.cancel(false);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((v, err) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private void deepen(int[] moves, Consumer<Result> onUpdate) {
+        long[] position = position(moves);
+        long current = position[0], mask = position[1];
+        long key = current + mask;
+        int remaining = CELLS - moves.length;
+        Result known = results.get(key);
+        if (known != null) {
+            onUpdate.accept(known);
+            if (known.complete || decided(known)) return;
+        }
+        long deadline = System.currentTimeMillis() + MAX_MILLIS;
+        for (int depth = known == null ? 1 : known.depth + 1; depth <= remaining; depth++) {
+            Result r = search(current, mask, moves.length, depth);
+            results.put(key, r);
+            onUpdate.accept(r);
+            if (r.complete || decided(r) || System.currentTimeMillis() > deadline) return;
+        }
+    }
+
+    // every open column is a known win or loss, so searching deeper changes nothing
+    private static boolean decided(Result r) {
+        for (int s : r.scores) {
+            if (s == 0) return false;
+        }
+        return true;
+    }
+
+    // Score every column of game with a search depth plies deep, on this thread.
+    Result search(Connect4 game, int depth) {
+        int[] moves = game.getMoves();
+        long[] position = position(moves);
+        return search(position[0], position[1], moves.length, depth);
+    }
+
+    // {current, mask} after moves, current being the player to move's stones
+    private static long[] position(int[] moves) {
+        long current = 0, mask = 0;
+        for (int col : moves) {
+            current ^= mask;
+            mask |= mask + Mcts.bottom(col);
+        }
+        return new long[]{current, mask};
+    }
+
+    // Score every column with a search depth plies deep (the column's own move included).
+    Result search(long current, long mask, int moves, int depth) {
+        int[] scores = new int[WIDTH];
+        for (int col = 0; col < WIDTH; col++) {
+            if (!Mcts.canPlay(mask, col)) {
+                scores[col] = FULL;
+            } else if (Mcts.hasFour(current | Mcts.stone(mask, col))) {
+                scores[col] = BIG - (moves + 1);
+            } else {
+                long next = mask | (mask + Mcts.bottom(col));
+                scores[col] = -negamax(current ^ mask, next, moves + 1, depth - 1, -BIG, BIG);
+            }
+        }
+        return new Result(depth, depth >= CELLS - moves, moves, scores);
+    }
+
+    // Score for the player to move (current), looking depth plies ahead; 0 past the horizon.
+    private int negamax(long current, long mask, int moves, int depth, int alpha, int beta) {
+        if ((++nodes & 4095) == 0 && Thread.currentThread().isInterrupted()) {
+            throw CANCELLED;
+        }
+        long possible = (mask + BOTTOM) & BOARD;
+        if ((Mcts.winningCells(current, mask) & possible) != 0) {
+            return BIG - (moves + 1);
+        }
+        if (moves + 1 >= CELLS) {
+            return 0; // the last stone doesn't win
+        }
+        // the opponent wins next unless we stop them, and we can stop only one threat;
+        // nor may we fill the cell under one of theirs
+        long threats = Mcts.winningCells(current ^ mask, mask);
+        long forced = threats & possible;
+        if (forced != 0 && (forced & (forced - 1)) != 0) {
+            return -(BIG - (moves + 2));
+        }
+        long safe = (forced != 0 ? forced : possible) & ~(threats >>> 1);
+        if (safe == 0) {
+            return -(BIG - (moves + 2));
+        }
+        if (depth == 0) {
+            return 0;
+        }
+
+        int alphaIn = alpha;
+        int slot = (int) (mix(current + mask) & tableMask);
+        if (keys[slot] == current + mask) {
+            int e = entries[slot];
+            int score = (e & 0xff) - 128, flag = (e >>> 8) & 3, searched = e >>> 10;
+            // a forced result holds however deep we look, so it's good at any depth
+            if (searched >= depth || (flag == EXACT && score != 0) || (flag == LOWER && score > 0)
+                    || (flag == UPPER && score < 0)) {
+                if (flag == EXACT) return score;
+                if (flag == LOWER && score >= beta) return score;
+                if (flag == UPPER && score <= alpha) return score;
+                if (flag == LOWER && score > alpha) alpha = score;
+                if (flag == UPPER && score < beta) beta = score;
+            }
+        }
+        // we can't win before our next move, nor lose before theirs
+        int max = BIG - (moves + 3);
+        if (beta > max) beta = max;
+        int min = -(BIG - (moves + 2));
+        if (alpha < min) alpha = min;
+        if (alpha >= beta) return alpha;
+
+        int best = Integer.MIN_VALUE;
+        for (int col : ORDER) {
+            long cell = Mcts.stone(mask, col);
+            if ((safe & cell) == 0) continue;
+            int score = -negamax(current ^ mask, mask | cell, moves + 1, depth - 1, -beta, -alpha);
+            if (score > best) best = score;
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) break;
+        }
+        int flag = best <= alphaIn ? UPPER : best >= beta ? LOWER : EXACT;
+        keys[slot] = current + mask;
+        entries[slot] = (best + 128) | flag << 8 | depth << 10;
+        return best;
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+}
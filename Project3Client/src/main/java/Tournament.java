@@ -0,0 +1,392 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Command line driver for engine-vs-engine self-play, used to tune AI levels
+// and to check that an engine change is really an improvement.
+//
+//   mvn exec:java -Dexec.mainClass=Tournament -Dexec.args="--engines=heuristic,heuristic:0.3,random --games=100000"
+//
+// Every game runs on its own Connect4 instance, so workers share nothing but the
+// tallies they add to once per batch. Keys:
+//   --engines=A,B,...  engines to play: random, heuristic, mcts (2000 playouts a move)
+//                      or mctsN (N playouts); any of them :P to play a random move
+//                      with probability P; the first one is the candidate
+//   --schedule=NAME    roundrobin (every pair) or gauntlet (first against the rest)
+//   --games=N          games per pairing (default 10000)
+//   --opening=N        random plies before the engines take over (default 2)
+//   --threads=N        worker threads (default: cores)
+//   --out=FILE         stream every result to a binary file (default: none)
+//   --sprt=E0,E1       stop a pairing once a sequential probability ratio test decides
+//                      between elo E0 and E1 for its first engine (default: off)
+//   --alpha=A --beta=B SPRT error rates (default 0.05)
+//
+// The output file starts with "C4T1", the engine count and each name (writeUTF),
+// followed by four bytes per game: X engine, O engine, result (0 draw, 1 X won,
+// 2 O won) and the number of plies.
+public class Tournament {
+    static final int DRAW = 0, X_WON = 1, O_WON = 2;
+    // games a worker plays before adding to the shared tallies; even, so every opening is played from both sides
+    static final int BATCH = 256;
+
+    // A move policy plus the chance it plays a random column instead.
+    static class Engine {
+        final String name;
+        final Bot.Policy policy;
+        final double noise;
+
+        Engine(String name, Bot.Policy policy, double noise) {
+            this.name = name;
+            this.policy = policy;
+            this.noise = noise;
+        }
+
+        static Engine parse(String spec) {
+            String[] parts = spec.split(":", 2);
+            Bot.Policy policy;
+            if (parts[0].equalsIgnoreCase("random")) {
+                policy = Bot.RANDOM;
+            } else if (parts[0].equalsIgnoreCase("heuristic")) {
+                policy = Bot.HEURISTIC;
+            } else if (parts[0].matches("(?i)mcts\\d*")) {
+                policy = Mcts.named(parts[0]);
+            } else {
+                throw new IllegalArgumentException("Unknown engine: " + spec);
+            }
+            return new Engine(spec, policy, parts.length > 1 ? Double.parseDouble(parts[1]) : 0);
+        }
+
+        int chooseCol(Connect4 game, Random random) {
+            return noise > 0 && random.nextDouble() < noise ? randomCol(game, random) : policy.chooseCol(game);
+        }
+    }
+
+    // Two engines and their score so far, from a's point of view.
+    static class Pairing {
+        final int a, b;
+        final AtomicLong issued = new AtomicLong();
+        long wins, draws, losses;
+        // set once the SPRT has decided: 1 for elo1, -1 for elo0
+        volatile int verdict = 0;
+
+        Pairing(int a, int b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        synchronized void add(int w, int d, int l) {
+            wins += w;
+            draws += d;
+            losses += l;
+        }
+
+        synchronized long games() {
+            return wins + draws + losses;
+        }
+    }
+
+    private final Engine[] engines;
+    private final List<Pairing> pairings = new ArrayList<>();
+    private final long gamesPerPairing;
+    private final int openingPlies;
+    private final double[] sprt; // elo0, elo1, alpha, beta; null when off
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final AtomicLong gamesPlayed = new AtomicLong();
+    private final AtomicLong plies = new AtomicLong();
+    // finished batches waiting for the file writer; bounded so a slow disk holds the workers back
+    private final BlockingQueue<byte[]> results = new ArrayBlockingQueue<>(256);
+    private static final byte[] END = new byte[0];
+    // cleared if the writer fails, so the workers stop queueing for it
+    private volatile boolean recording = false;
+    private volatile IOException writeError;
+
+    Tournament(Engine[] engines, boolean gauntlet, long gamesPerPairing, int openingPlies, double[] sprt) {
+        this.engines = engines;
+        this.gamesPerPairing = gamesPerPairing;
+        this.openingPlies = openingPlies;
+        this.sprt = sprt;
+        for (int i = 0; i < engines.length; i++) {
+            for (int j = i + 1; j < engines.length; j++) {
+                if (!gauntlet || i == 0) {
+                    pairings.add(new Pairing(i, j));
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties none = new Properties();
+        String[] specs = ClientConfig.lookup(args, none, "engines", "heuristic,random").split(",");
+        Engine[] engines = new Engine[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            engines[i] = Engine.parse(specs[i].trim());
+        }
+        boolean gauntlet = ClientConfig.lookup(args, none, "schedule", "roundrobin").equalsIgnoreCase("gauntlet");
+        long games = Long.parseLong(ClientConfig.lookup(args, none, "games", "10000"));
+        int opening = Integer.parseInt(ClientConfig.lookup(args, none, "opening", "2"));
+        int threads = Integer.parseInt(ClientConfig.lookup(args, none, "threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        String out = ClientConfig.lookup(args, none, "out", "");
+        String sprtBounds = ClientConfig.lookup(args, none, "sprt", "");
+        double[] sprt = null;
+        if (!sprtBounds.isEmpty()) {
+            String[] e = sprtBounds.split(",");
+            sprt = new double[]{Double.parseDouble(e[0]), Double.parseDouble(e[1]),
+                    Double.parseDouble(ClientConfig.lookup(args, none, "alpha", "0.05")),
+                    Double.parseDouble(ClientConfig.lookup(args, none, "beta", "0.05"))};
+        }
+
+        Tournament t = new Tournament(engines, gauntlet, games, opening, sprt);
+        System.out.println(t.pairings.size() + " pairings, " + games + " games each, " + threads + " threads");
+        IOException error = t.run(threads, out.isEmpty() ? null : out);
+        if (error != null) {
+            System.err.println("Writing results to " + out + " failed: " + error);
+            System.exit(1);
+        }
+    }
+
+    // Play every pairing out and print the table. Returns the error that stopped the
+    // results file being written, or null; the games still count either way.
+    IOException run(int threads, String outFile) throws Exception {
+        Thread writer = null;
+        if (outFile != null) {
+            DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16));
+            file.writeBytes("C4T1");
+            file.writeByte(engines.length);
+            for (Engine e : engines) {
+                file.writeUTF(e.name);
+            }
+            recording = true;
+            writer = new Thread(() -> writeLoop(file), "tournament-writer");
+            writer.start();
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "tournament-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.submit(this::work);
+        }
+        workers.shutdown();
+
+        long start = System.nanoTime();
+        long last = 0;
+        while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+            long played = gamesPlayed.get();
+            System.out.println(played + " games, " + (played - last) + "/s");
+            last = played;
+        }
+        if (writer != null) {
+            // a writer that has failed isn't taking anything more
+            while (writer.isAlive() && !results.offer(END, 100, TimeUnit.MILLISECONDS)) {
+            }
+            writer.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%d games in %.1f s (%.0f/s), %.1f plies per game%n",
+                gamesPlayed.get(), seconds, gamesPlayed.get() / seconds, (double) plies.get() / Math.max(1, gamesPlayed.get()));
+        report();
+        return writeError;
+    }
+
+    // Claim batches from the pairings in turn until none has games left.
+    private void work() {
+        Random random = ThreadLocalRandom.current();
+        Connect4 game = new Connect4();
+        int[] opening = new int[openingPlies];
+        byte[] record = new byte[BATCH * 4];
+        while (true) {
+            Pairing p = null;
+            int n = 0;
+            int start = cursor.getAndIncrement();
+            for (int i = 0; i < pairings.size() && p == null; i++) {
+                Pairing next = pairings.get(Math.floorMod(start + i, pairings.size()));
+                long first = next.verdict == 0 ? next.issued.getAndAdd(BATCH) : gamesPerPairing;
+                if (first < gamesPerPairing) {
+                    p = next;
+                    n = (int) Math.min(BATCH, gamesPerPairing - first);
+                }
+            }
+            if (p == null) {
+                return; // every pairing is finished or decided
+            }
+            int w = 0, d = 0, l = 0;
+            long batchPlies = 0;
+            for (int g = 0; g < n; g++) {
+                // each opening twice, with the colors swapped
+                boolean aIsX = (g & 1) == 0;
+                if (aIsX) {
+                    randomOpening(opening, random);
+                }
+                int x = aIsX ? p.a : p.b, o = aIsX ? p.b : p.a;
+                int result = play(game, engines[x], engines[o], opening, random);
+                if (result == DRAW) {
+                    d++;
+                } else if ((result == X_WON) == aIsX) {
+                    w++;
+                } else {
+                    l++;
+                }
+                batchPlies += game.numPlays;
+                record[g * 4] = (byte) x;
+                record[g * 4 + 1] = (byte) o;
+                record[g * 4 + 2] = (byte) result;
+                record[g * 4 + 3] = (byte) game.numPlays;
+            }
+            p.add(w, d, l);
+            gamesPlayed.addAndGet(n);
+            plies.addAndGet(batchPlies);
+            if (sprt != null) {
+                decide(p);
+            }
+            if (recording) {
+                byte[] batch = Arrays.copyOf(record, n * 4);
+                try {
+                    // waits for a slow disk, but not for a writer that has given up
+                    while (recording && !results.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // On a write error, keep it for run() to return and stop taking batches.
+    private void writeLoop(DataOutputStream file) {
+        try {
+            for (byte[] batch = results.take(); batch != END; batch = results.take()) {
+                file.write(batch);
+            }
+            file.close();
+        } catch (IOException e) {
+            writeError = e;
+            recording = false;
+            results.clear();
+            try {
+                file.close();
+            } catch (IOException ignored) {}
+        } catch (InterruptedException e) {
+            recording = false;
+            results.clear();
+        }
+    }
+
+    // Play one game from the opening and return DRAW, X_WON or O_WON; the moves stay in game.
+    static int play(Connect4 game, Engine x, Engine o, int[] opening, Random random) {
+        game.reset();
+        for (int ply = 0; ; ply++) {
+            int col;
+            if (ply < opening.length && !game.isColumnFull(opening[ply])) {
+                col = opening[ply];
+            } else {
+                col = (game.currPlayer == 'X' ? x : o).chooseCol(game, random);
+            }
+            game.drop(game.currPlayer, col);
+            if (game.checkForWin()) {
+                return game.currPlayer == 'X' ? X_WON : O_WON;
+            }
+            if (game.isBoardFull()) {
+                return DRAW;
+            }
+            game.switchPlayer();
+        }
+    }
+
+    private static void randomOpening(int[] opening, Random random) {
+        for (int i = 0; i < opening.length; i++) {
+            opening[i] = random.nextInt(Connect4.numCols);
+        }
+    }
+
+    private static int randomCol(Connect4 game, Random random) {
+        int col;
+        do {
+            col = random.nextInt(Connect4.numCols);
+        } while (game.isColumnFull(col));
+        return col;
+    }
+
+    private void decide(Pairing p) {
+        long w, d, l;
+        synchronized (p) {
+            w = p.wins;
+            d = p.draws;
+            l = p.losses;
+        }
+        double llr = llr(w, d, l, sprt[0], sprt[1]);
+        if (llr >= Math.log((1 - sprt[3]) / sprt[2])) {
+            p.verdict = 1;
+        } else if (llr <= Math.log(sprt[3] / (1 - sprt[2]))) {
+            p.verdict = -1;
+        }
+    }
+
+    private void report() {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-24s %-24s %8s %8s %8s %7s %18s%s%n",
+                "engine", "opponent", "wins", "draws", "losses", "score", "elo (95%)", sprt != null ? "      llr" : "");
+        for (Pairing p : pairings) {
+            long n = p.games();
+            double score = n == 0 ? 0.5 : (p.wins + p.draws / 2.0) / n;
+            double margin = 1.96 * Math.sqrt(variance(p.wins, p.draws, p.losses) / Math.max(1, n));
+            String elo = String.format(Locale.ROOT, "%s [%s, %s]",
+                    formatElo(elo(score)), formatElo(elo(score - margin)), formatElo(elo(score + margin)));
+            System.out.printf(Locale.ROOT, "%-24s %-24s %8d %8d %8d %7.4f %18s", engines[p.a].name, engines[p.b].name,
+                    p.wins, p.draws, p.losses, score, elo);
+            if (sprt != null) {
+                System.out.printf(Locale.ROOT, " %8.2f %s", llr(p.wins, p.draws, p.losses, sprt[0], sprt[1]),
+                        p.verdict > 0 ? "H1 accepted" : p.verdict < 0 ? "H0 accepted" : "undecided");
+            }
+            System.out.println();
+        }
+    }
+
+    // Elo difference that gives the expected score.
+    static double elo(double score) {
+        if (score <= 0) return Double.NEGATIVE_INFINITY;
+        if (score >= 1) return Double.POSITIVE_INFINITY;
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    private static String formatElo(double elo) {
+        return Double.isInfinite(elo) ? (elo > 0 ? "+inf" : "-inf") : String.format(Locale.ROOT, "%+.0f", elo);
+    }
+
+    // Per-game variance of the score.
+    private static double variance(long w, long d, long l) {
+        long n = w + d + l;
+        if (n == 0) return 0;
+        double s = (w + d / 2.0) / n;
+        return (w * (1 - s) * (1 - s) + d * (0.5 - s) * (0.5 - s) + l * s * s) / n;
+    }
+
+    // Log-likelihood ratio of elo1 against elo0 given the results so far
+    // (the normal approximation to the trinomial GSPRT).
+    static double llr(long w, long d, long l, double elo0, double elo1) {
+        long n = w + d + l;
+        double var = variance(w, d, l);
+        if (n == 0 || var == 0) return 0;
+        double s = (w + d / 2.0) / n;
+        double s0 = 1 / (1 + Math.pow(10, -elo0 / 400));
+        double s1 = 1 / (1 + Math.pow(10, -elo1 / 400));
+        return (s1 - s0) * (2 * s - s0 - s1) / (2 * var / n);
+    }
+}
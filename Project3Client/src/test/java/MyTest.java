@@ -1,5 +1,7 @@
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Random;
+
 import org.junit.jupiter.api.Test;
 
 import org.junit.jupiter.api.DisplayName;
@@ -14,4 +16,288 @@ class MyTest {
 		fail("Not yet implemented");
 	}
 
+	@Test
+	void replaySeekMatchesStepping() {
+		GameReplay replay = GameReplay.parse("3,3,4,2,5,6,6,1,0,0,3,3,2,2,1,1,5");
+		GameReplay stepped = new GameReplay(new int[]{3,3,4,2,5,6,6,1,0,0,3,3,2,2,1,1,5});
+		for (int ply = 0; ply <= replay.length(); ply++) {
+			replay.seek(ply);
+			for (int r = 0; r < Connect4.numRows; r++) {
+				for (int c = 0; c < Connect4.numCols; c++) {
+					assertEquals(stepped.cellAt(r, c), replay.cellAt(r, c));
+				}
+			}
+			stepped.stepForward();
+		}
+		replay.seek(1);
+		assertEquals('X', replay.cellAt(Connect4.numRows - 1, 3));
+		assertTrue(replay.stepBack());
+		assertEquals('-', replay.cellAt(Connect4.numRows - 1, 3));
+	}
+
+	@Test
+	void dropMarksOnlyTheChangedCellDirty() {
+		Connect4 game = new Connect4();
+		game.takeDirty();
+		game.drop('X', 3);
+		assertEquals(1L << ((Connect4.numRows - 1) * Connect4.numCols + 3), game.takeDirty());
+		assertEquals(0L, game.takeDirty());
+	}
+
+	@Test
+	void aiServiceTakesTheWinningColumnOffThread() throws Exception {
+		Connect4 game = new Connect4();
+		for (int col = 0; col < 3; col++) {
+			game.drop('X', col);
+			game.drop('O', col);
+		}
+		assertEquals(3, AIService.chooseCol(game).get(5, java.util.concurrent.TimeUnit.SECONDS));
+	}
+
+	@Test
+	void replayRejectsFullColumn() {
+		assertThrows(IllegalArgumentException.class, () -> GameReplay.parse("0,0,0,0,0,0,0"));
+	}
+
+	@Test
+	void tournamentScoresAndSprt() {
+		assertEquals(0, Tournament.elo(0.5), 1e-9);
+		assertTrue(Tournament.elo(0.75) > 190 && Tournament.elo(0.75) < 191);
+		// a clear edge supports elo1, an even score supports elo0
+		assertTrue(Tournament.llr(600, 100, 300, 0, 20) > 2.95);
+		assertTrue(Tournament.llr(450, 100, 450, 0, 20) < 0);
+
+		Tournament.Engine heuristic = Tournament.Engine.parse("heuristic");
+		Tournament.Engine random = Tournament.Engine.parse("random:0.5");
+		Connect4 game = new Connect4();
+		int result = Tournament.play(game, heuristic, random, new int[]{3, 3}, new Random(1));
+		assertEquals(3, game.getMoves()[0]);
+		assertEquals(result != Tournament.DRAW, game.checkForWin());
+	}
+
+	@Test
+	void tournamentFinishesAndReportsWhenTheResultsFileFails() {
+		// every write to /dev/full fails once the 64 KB buffer fills, long before the last game
+		org.junit.jupiter.api.Assumptions.assumeTrue(new java.io.File("/dev/full").exists());
+		Tournament.Engine[] engines = {Tournament.Engine.parse("random"), Tournament.Engine.parse("random")};
+		Tournament t = new Tournament(engines, false, 100_000, 0, null);
+		java.io.IOException error = assertTimeoutPreemptively(java.time.Duration.ofSeconds(60),
+				() -> t.run(2, "/dev/full"));
+		assertNotNull(error);
+	}
+
+	@Test
+	void mctsWinsBlocksAndKeepsItsTreeBetweenMoves() {
+		Mcts mcts = new Mcts(2, 0, 4000, 1 << 16);
+		Connect4 game = new Connect4();
+		for (int col : new int[]{0, 6, 1, 6, 2}) {
+			game.drop(game.currPlayer, col);
+			game.switchPlayer();
+		}
+		// O must block at 3
+		assertEquals(3, mcts.chooseCol(game));
+
+		// from an open position it searches, and the reply it has already looked at is kept
+		game = new Connect4();
+		for (int col : new int[]{3, 3}) {
+			game.drop(game.currPlayer, col);
+			game.switchPlayer();
+		}
+		int col = mcts.chooseCol(game);
+		assertTrue(mcts.lastPlayouts() >= 4000);
+		game.drop(game.currPlayer, col);
+		game.switchPlayer();
+		game.drop(game.currPlayer, 2);
+		game.switchPlayer();
+		col = mcts.chooseCol(game);
+		assertTrue(mcts.lastReused() > 1);
+		assertFalse(game.isColumnFull(col));
+
+		// a policy for many threads at once still takes a win
+		game = new Connect4();
+		for (int c : new int[]{0, 6, 1, 6, 2, 6}) {
+			game.drop(game.currPlayer, c);
+			game.switchPlayer();
+		}
+		assertEquals(3, Mcts.named("mcts500").chooseCol(game));
+	}
+
+	@Test
+	void ponderedReplyComesBackWithoutASearch() throws Exception {
+		Mcts mcts = new Mcts(1, 0, 2000, 1 << 18);
+		Connect4 game = new Connect4();
+		game.drop(game.currPlayer, 3);
+		game.switchPlayer();
+		int reply = mcts.chooseCol(game);
+		assertFalse(mcts.lastPondered());
+		assertTrue(mcts.lastPlayouts() >= 2000);
+		game.drop(game.currPlayer, reply);
+		game.switchPlayer();
+
+		// think on the player's time: with a playout limit the ponder stops by itself once
+		// every reply has had room for a full search's worth
+		Connect4 position = game.copy();
+		mcts.ponder(position, 60_000);
+
+		// the player makes the move the tree expected most
+		int expected = mcts.chooseCol(position);
+		assertTrue(mcts.lastPondered());
+		game.drop(game.currPlayer, expected);
+		game.switchPlayer();
+		int col = mcts.chooseCol(game);
+		assertTrue(mcts.lastPondered());
+		assertEquals(0, mcts.lastPlayouts());
+		assertFalse(game.isColumnFull(col));
+	}
+
+	@Test
+	void solverLabelsEachColumnFromTheBackground() throws Exception {
+		Connect4 game = new Connect4();
+		for (int col : new int[]{0, 0, 1, 1, 2, 2}) {
+			game.drop(game.currPlayer, col);
+			game.switchPlayer();
+		}
+		// one ply only sees the win at 3
+		Solver.Result shallow = new Solver(12).search(game, 1);
+		assertEquals("Win 1", shallow.label(3));
+		assertEquals(1, shallow.outcome(3));
+		assertEquals("?", shallow.label(6));
+		assertFalse(shallow.complete);
+
+		// O can block only one end of X's three: every column loses, and the analysis stops there
+		game = new Connect4();
+		for (int col : new int[]{1, 1, 2, 2, 3}) {
+			game.drop(game.currPlayer, col);
+			game.switchPlayer();
+		}
+		java.util.List<Solver.Result> updates = new java.util.concurrent.CopyOnWriteArrayList<>();
+		Solver.analyse(game, updates::add).get(10, java.util.concurrent.TimeUnit.SECONDS);
+		Solver.Result last = updates.get(updates.size() - 1);
+		for (int c = 0; c < Connect4.numCols; c++) {
+			assertEquals("Loss 1", last.label(c));
+		}
+		assertEquals(1, updates.size());
+
+		// solved to the end: a draw whatever is played, full columns left blank
+		game = new Connect4();
+		for (int col : new int[]{4, 1, 6, 3, 6, 2, 1, 6, 1, 6, 4, 5, 1, 3, 6, 5, 6, 1, 1, 5, 5, 2, 4, 5, 0, 0, 5, 4, 3, 2, 4, 3, 3, 4, 2, 0}) {
+			game.drop(game.currPlayer, col);
+			game.switchPlayer();
+		}
+		updates.clear();
+		Solver.analyse(game, updates::add).get(10, java.util.concurrent.TimeUnit.SECONDS);
+		last = updates.get(updates.size() - 1);
+		assertTrue(last.complete);
+		assertEquals("Draw", last.label(0));
+		assertEquals("", last.label(1));
+
+		// asked again, the finished analysis comes straight from the cache
+		updates.clear();
+		Solver.analyse(game, updates::add).get(10, java.util.concurrent.TimeUnit.SECONDS);
+		assertEquals(1, updates.size());
+		assertTrue(updates.get(0).complete);
+	}
+
+	@Test
+	void variantBoardsNeedTheirOwnLineLength() {
+		Connect4 game = Connect4.ofVariant("9x7/5");
+		assertEquals("9x7/5", game.variant());
+		assertFalse(game.isStandard());
+		for (int col = 0; col < 4; col++) {
+			game.drop('X', col);
+		}
+		assertFalse(Connect4.checkForWin(game.board, 'X', game.connect));
+		assertTrue(Connect4.checkForWin(game.board, 'X', 4));
+		game.drop('X', 4);
+		game.currPlayer = 'X';
+		assertTrue(game.checkForWin());
+		assertTrue(Connect4.ofVariant("7x6").isStandard());
+		assertThrows(IllegalArgumentException.class, () -> Connect4.ofVariant("20x6"));
+		assertThrows(IllegalArgumentException.class, () -> Connect4.ofVariant("7x6/9"));
+
+		// a replay of a board bigger than one long still seeks like stepping
+		int[] moves = new int[90];
+		for (int i = 0; i < moves.length; i++) {
+			moves[i] = (i * 3) % 10;
+		}
+		GameReplay replay = new GameReplay(moves, 10, 9);
+		GameReplay stepped = new GameReplay(moves, 10, 9);
+		for (int ply = 0; ply <= replay.length(); ply += 7) {
+			replay.seek(ply);
+			while (stepped.getPly() < ply) stepped.stepForward();
+			for (int r = 0; r < 9; r++) {
+				for (int c = 0; c < 10; c++) {
+					assertEquals(stepped.cellAt(r, c), replay.cellAt(r, c));
+				}
+			}
+		}
+		replay.seek(replay.length());
+		assertEquals('O', replay.cellAt(0, 7));
+	}
+
+	@Test
+	void batchedFramesSplitBackIntoMessages() {
+		String sep = String.valueOf(Client.BATCH_SEPARATOR);
+		assertEquals(java.util.Arrays.asList("LOBBY|PUBLIC_CHAT:a:hi", "G3|PRIVATE_CHAT:x|y", "LOBBY|USER_LEFT:b"),
+				Client.unbatch("BATCH|LOBBY|PUBLIC_CHAT:a:hi" + sep + "G3|PRIVATE_CHAT:x|y" + sep + "LOBBY|USER_LEFT:b"));
+		assertEquals(java.util.Collections.singletonList("G3|MOVE:4"), Client.unbatch("G3|MOVE:4"));
+	}
+
+	@Test
+	void clientReconnectsOnceTheServerIsBackAndTellsItsChannelsOnce() throws Exception {
+		java.net.ServerSocket server = new java.net.ServerSocket(0);
+		int port = server.getLocalPort();
+		ClientConfig config = ClientConfig.defaults();
+		config.port = port;
+		config.initialBackoffMillis = 10;
+		config.maxBackoffMillis = 40;
+		ConnectionFactory factory = new ConnectionFactory(config);
+		java.util.concurrent.atomic.AtomicInteger lost = new java.util.concurrent.atomic.AtomicInteger();
+		Client client = new Client(factory, msg -> {
+			if (msg.equals("DISCONNECT:server")) lost.incrementAndGet();
+		});
+		client.setAutoReconnect(true);
+		client.setUsername("Ann");
+		client.start();
+
+		java.net.Socket first = server.accept();
+		String id = readHello(first);
+		java.io.ObjectInputStream in = new java.io.ObjectInputStream(first.getInputStream());
+		assertEquals("LOBBY|COMPRESS:deflate", in.readObject());
+		assertEquals("LOBBY|SET_USERNAME:Ann", in.readObject());
+		first.close();
+		server.close();
+
+		// refused a few times over: still one notice for the one lost connection
+		for (int i = 0; i < 200 && factory.getFailureCount() < 3; i++) Thread.sleep(10);
+		assertTrue(factory.getFailureCount() >= 3);
+		assertEquals(1, lost.get());
+		client.send("G3", "MOVE:1");
+		client.send(Client.MATCH, "QUEUE");
+
+		server = new java.net.ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(new java.net.InetSocketAddress(port));
+		java.net.Socket second = server.accept();
+		// the same id, so a router would send it back to the same node
+		assertEquals(id, readHello(second));
+		in = new java.io.ObjectInputStream(second.getInputStream());
+		assertEquals("LOBBY|COMPRESS:deflate", in.readObject());
+		assertEquals("LOBBY|SET_USERNAME:Ann", in.readObject());
+		// the move for the lost game is dropped
+		assertEquals("MATCH|QUEUE", in.readObject());
+		assertEquals(1, lost.get());
+		client.disconnect();
+		second.close();
+		server.close();
+	}
+
+	private static String readHello(java.net.Socket s) throws java.io.IOException {
+		java.io.DataInputStream in = new java.io.DataInputStream(s.getInputStream());
+		byte[] head = new byte[Client.HELLO.length];
+		in.readFully(head);
+		assertArrayEquals(Client.HELLO, head);
+		return in.readUTF();
+	}
+
 }
@@ -0,0 +1,311 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+// Worker threads that choose moves for every server-hosted AI opponent.
+// Each search is an iterative-deepening alpha-beta over a BitBoard, stopped by a
+// time budget that comes from the session's difficulty. Budgets shrink as the
+// queue of pending searches grows, and once the pool has used its share of CPU
+// for the current second, searches drop to a shallow fixed depth until the next
+// second starts. That CPU share is what keeps the AIs from crowding out game relays:
+// workers ask for minimum priority, but HotSpot on Linux ignores thread priorities
+// unless started with -XX:ThreadPriorityPolicy, so the ask is only a hint.
+// Searches share an EvalCache, so no game searches a position another has already done.
+public class AIPool {
+	public enum Difficulty {
+		// depth cap, time budget, chance of a random move
+		EASY(2, 50, 0.25),
+		MEDIUM(8, 150, 0),
+		HARD(BitBoard.CELLS, 600, 0);
+
+		final int maxDepth;
+		final long millis;
+		final double randomness;
+
+		Difficulty(int maxDepth, long millis, double randomness) {
+			this.maxDepth = maxDepth;
+			this.millis = millis;
+			this.randomness = randomness;
+		}
+
+		// Parse a name case-insensitively, falling back for anything unknown.
+		public static Difficulty parse(String name, Difficulty fallback) {
+			for (Difficulty d : values()) {
+				if (d.name().equalsIgnoreCase(name)) return d;
+			}
+			return fallback;
+		}
+	}
+
+	// depth used once the CPU budget is spent; a few thousand nodes at most
+	private static final int THROTTLED_DEPTH = 4;
+	private static final long MIN_BUDGET_MILLIS = 10;
+	private static final int WIN = 1000;
+	// center columns first, for better alpha-beta cutoffs
+	private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+
+	private final ThreadPoolExecutor workers;
+	private final int threads;
+	private final long cpuNanosPerSecond;
+	private final ThreadMXBean cpuClock = ManagementFactory.getThreadMXBean();
+	private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+	private final AtomicLong cpuUsed = new AtomicLong();
+
+	private final EvalCache cache;
+	private final Metrics.Counter searches, throttled;
+	private final Metrics.Histogram searchTime;
+
+	// threads workers that together may use cpuShare of all cores (0.5 = half the machine).
+	// cache may be null to search without one.
+	public AIPool(int threads, double cpuShare, Metrics metrics, EvalCache cache) {
+		this.threads = threads;
+		this.cache = cache;
+		this.cpuNanosPerSecond = (long) (cpuShare * Runtime.getRuntime().availableProcessors() * 1e9);
+		this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+			Thread t = new Thread(r, "ai-worker");
+			t.setDaemon(true);
+			// a hint only: ignored by HotSpot on Linux by default
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+		searches = metrics.counter("connect4_ai_searches_total", "Moves chosen by server AI opponents");
+		throttled = metrics.counter("connect4_ai_throttled_total", "AI searches cut short by the CPU budget");
+		searchTime = metrics.histogram("connect4_ai_search_seconds", "Wall time of one AI move search", 1_000_000);
+		metrics.gauge("connect4_ai_queue_depth", "AI searches waiting for a worker", () -> workers.getQueue().size());
+	}
+
+	// Abandon queued and running searches; for shutdown.
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	public int queueDepth() {
+		return workers.getQueue().size();
+	}
+
+	// Choose a move for the player to move in board and hand it to onMove on a worker thread.
+	// Cancelling the returned future (interrupting) abandons the search.
+	public Future<?> submit(BitBoard board, Difficulty difficulty, IntConsumer onMove) {
+		BitBoard position = board.copy();
+		return workers.submit(() -> {
+			long start = System.nanoTime();
+			long cpuStart = cpuTime();
+			int col = choose(position, difficulty);
+			chargeCpu(cpuTime() - cpuStart);
+			searches.increment();
+			searchTime.record((System.nanoTime() - start) / 1000);
+			if (!Thread.currentThread().isInterrupted()) {
+				onMove.accept(col);
+			}
+		});
+	}
+
+	// The same for a game on any board. Only the standard game has the full search; other
+	// variants get a one-ply player that takes a win, blocks one, and otherwise plays
+	// toward the center without giving the opponent a win on top of its stone.
+	public Future<?> submit(Board board, Difficulty difficulty, IntConsumer onMove) {
+		if (board instanceof BitBoard) {
+			return submit((BitBoard) board, difficulty, onMove);
+		}
+		Board position = board.copy();
+		return workers.submit(() -> {
+			long start = System.nanoTime();
+			int col = chooseQuick(position, difficulty);
+			searches.increment();
+			searchTime.record((System.nanoTime() - start) / 1000);
+			if (!Thread.currentThread().isInterrupted()) {
+				onMove.accept(col);
+			}
+		});
+	}
+
+	static int chooseQuick(Board b, Difficulty d) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int width = b.width();
+		if (d.randomness > 0 && random.nextDouble() < d.randomness) {
+			int col;
+			do {
+				col = random.nextInt(width);
+			} while (!b.canPlay(col));
+			return col;
+		}
+		for (int col = 0; col < width; col++) {
+			if (b.canPlay(col) && b.isWinningMove(col)) return col;
+		}
+		for (int col = 0; col < width; col++) {
+			if (b.canPlay(col) && b.isThreat(col)) return col;
+		}
+		int best = -1, bestScore = Integer.MIN_VALUE;
+		for (int col = 0; col < width; col++) {
+			if (!b.canPlay(col)) continue;
+			Board next = b.copy();
+			next.play(col);
+			boolean gift = next.canPlay(col) && next.isWinningMove(col);
+			// distance from the center, and a coin toss between equals
+			int score = (gift ? -4 * width : 0) - Math.abs(2 * col - (width - 1)) * 2 + random.nextInt(2);
+			if (score > bestScore) {
+				bestScore = score;
+				best = col;
+			}
+		}
+		return best;
+	}
+
+	private int choose(BitBoard b, Difficulty d) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (d.randomness > 0 && random.nextDouble() < d.randomness) {
+			int col;
+			do {
+				col = random.nextInt(BitBoard.WIDTH);
+			} while (!b.canPlay(col));
+			return col;
+		}
+		if (overBudget()) {
+			throttled.increment();
+			return search(b, Math.min(d.maxDepth, THROTTLED_DEPTH), Long.MAX_VALUE, cache);
+		}
+		// share the time out: the deeper the queue, the less each search gets
+		long millis = Math.max(MIN_BUDGET_MILLIS, d.millis * threads / (threads + queueDepth()));
+		return search(b, d.maxDepth, System.nanoTime() + millis * 1_000_000, cache);
+	}
+
+	private boolean overBudget() {
+		long now = System.nanoTime();
+		long started = windowStart.get();
+		if (now - started >= 1_000_000_000L && windowStart.compareAndSet(started, now)) {
+			cpuUsed.set(0);
+		}
+		return cpuUsed.get() >= cpuNanosPerSecond;
+	}
+
+	private void chargeCpu(long nanos) {
+		cpuUsed.addAndGet(nanos);
+	}
+
+	private long cpuTime() {
+		return cpuClock.isCurrentThreadCpuTimeSupported() ? cpuClock.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	static int search(BitBoard b, int maxDepth, long deadline) {
+		return search(b, maxDepth, deadline, null);
+	}
+
+	// Best column found by iterative deepening up to maxDepth or until the deadline.
+	static int search(BitBoard b, int maxDepth, long deadline, EvalCache cache) {
+		// take a win without searching
+		for (int col : ORDER) {
+			if (b.canPlay(col) && b.isWinningMove(col)) return col;
+		}
+		int best = -1;
+		for (int col : ORDER) {
+			if (b.canPlay(col)) {
+				best = col;
+				break;
+			}
+		}
+		Search s = new Search(deadline, cache);
+		try {
+			for (int depth = 1; depth <= Math.min(maxDepth, BitBoard.CELLS - b.moves); depth++) {
+				int bestAtDepth = -1;
+				int alpha = -WIN - 1;
+				for (int col : ORDER) {
+					if (!b.canPlay(col)) continue;
+					long mask = b.mask | (b.mask + BitBoard.bottom(col));
+					long next = b.current ^ b.mask;
+					int score = -s.negamax(next, mask, b.moves + 1, depth - 1, -WIN - 1, -alpha);
+					if (score > alpha) {
+						alpha = score;
+						bestAtDepth = col;
+					}
+				}
+				best = bestAtDepth;
+				if (alpha >= WIN - BitBoard.CELLS) break; // forced win found
+			}
+		} catch (Search.Timeout e) {
+			// keep the best move from the last depth that finished
+		}
+		return best;
+	}
+
+	private static class Search {
+		static class Timeout extends RuntimeException {
+			Timeout() {
+				super(null, null, false, false);
+			}
+		}
+
+		private final long deadline;
+		private final EvalCache cache;
+		private long nodes;
+
+		Search(long deadline, EvalCache cache) {
+			this.deadline = deadline;
+			this.cache = cache;
+		}
+
+		// Score for the player to move (current) with depth plies left.
+		int negamax(long current, long mask, int moves, int depth, int alpha, int beta) {
+			if ((++nodes & 1023) == 0 && (System.nanoTime() > deadline || Thread.currentThread().isInterrupted())) {
+				throw new Timeout();
+			}
+			if (moves == BitBoard.CELLS) {
+				return 0;
+			}
+			for (int col = 0; col < BitBoard.WIDTH; col++) {
+				if (BitBoard.canPlay(mask, col) && BitBoard.isWinningMove(current, mask, col)) {
+					return WIN - moves;
+				}
+			}
+			if (depth == 0) {
+				return evaluate(current, mask);
+			}
+			// a result from at least this deep settles the node or narrows the window;
+			// a win's score counts moves from the start, so it holds wherever it's found
+			int hint = -1;
+			if (cache != null) {
+				long entry = cache.probe(current, mask);
+				if (entry != 0) {
+					hint = EvalCache.move(entry);
+					if (EvalCache.depth(entry) >= depth) {
+						int cached = EvalCache.score(entry);
+						int bound = EvalCache.bound(entry);
+						if (bound == EvalCache.EXACT) return cached;
+						if (bound == EvalCache.LOWER && cached >= beta) return cached;
+						if (bound == EvalCache.UPPER && cached <= alpha) return cached;
+					}
+				}
+			}
+			int alphaIn = alpha;
+			int best = -1;
+			// the cached best move first, then center out
+			for (int i = -1; i < ORDER.length; i++) {
+				int col = i < 0 ? hint : ORDER[i];
+				if (col < 0 || (i >= 0 && col == hint) || !BitBoard.canPlay(mask, col)) continue;
+				long nextMask = mask | (mask + BitBoard.bottom(col));
+				int score = -negamax(current ^ mask, nextMask, moves + 1, depth - 1, -beta, -alpha);
+				if (score >= beta) {
+					if (cache != null) cache.store(current, mask, depth, EvalCache.LOWER, score, col);
+					return score;
+				}
+				if (score > alpha) {
+					alpha = score;
+					best = col;
+				}
+			}
+			if (cache != null) {
+				cache.store(current, mask, depth, alpha > alphaIn ? EvalCache.EXACT : EvalCache.UPPER, alpha, best);
+			}
+			return alpha;
+		}
+
+		// open cells that would complete four for us, minus the same for them
+		private static int evaluate(long current, long mask) {
+			long opponent = current ^ mask;
+			return Long.bitCount(BitBoard.winningCells(current, mask))
+					- Long.bitCount(BitBoard.winningCells(opponent, mask));
+		}
+	}
+}
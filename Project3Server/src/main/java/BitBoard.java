@@ -0,0 +1,127 @@
+// Connect 4 position packed into two longs, for the server's AI.
+// Bits run up each column with one spare bit on top (bit = col * 7 + row, row 0 at
+// the bottom), so a line of four is a few shifts and ANDs and a move is an add.
+// current holds the stones of the player to move, mask every stone on the board.
+// This is the standard game's Board; Variant has the boards for other sizes.
+public class BitBoard implements Board {
+	public static final int WIDTH = 7;
+	public static final int HEIGHT = 6;
+	public static final int CELLS = WIDTH * HEIGHT;
+
+	private static final int H1 = HEIGHT + 1;
+	private static final long BOTTOM = bottomRow();
+	private static final long BOARD = BOTTOM * ((1L << HEIGHT) - 1);
+	// horizontal, diagonal /, diagonal \
+	private static final int[] SIDEWAYS = {H1, H1 + 1, H1 - 1};
+
+	public long current;
+	public long mask;
+	public int moves;
+
+	public BitBoard() {}
+
+	public BitBoard(long current, long mask, int moves) {
+		this.current = current;
+		this.mask = mask;
+		this.moves = moves;
+	}
+
+	public BitBoard copy() {
+		return new BitBoard(current, mask, moves);
+	}
+
+	public int width() {
+		return WIDTH;
+	}
+
+	public int moves() {
+		return moves;
+	}
+
+	public void reset() {
+		current = 0;
+		mask = 0;
+		moves = 0;
+	}
+
+	public boolean canPlay(int col) {
+		return canPlay(mask, col);
+	}
+
+	// Drop a stone for the player to move; the other player is then to move.
+	public void play(int col) {
+		current ^= mask;
+		mask |= mask + bottom(col);
+		moves++;
+	}
+
+	// Whether playing col wins for the player to move.
+	public boolean isWinningMove(int col) {
+		return isWinningMove(current, mask, col);
+	}
+
+	public boolean isThreat(int col) {
+		return isWinningMove(current ^ mask, mask, col);
+	}
+
+	// Whether the player who just moved has four in a row.
+	public boolean lastMoveWon() {
+		return hasFour(current ^ mask);
+	}
+
+	public boolean isFull() {
+		return moves == CELLS;
+	}
+
+	static boolean canPlay(long mask, int col) {
+		return (mask & top(col)) == 0;
+	}
+
+	static boolean isWinningMove(long current, long mask, int col) {
+		return hasFour(current | ((mask + bottom(col)) & column(col)));
+	}
+
+	static boolean hasFour(long pos) {
+		return line(pos, 1) || line(pos, H1) || line(pos, H1 + 1) || line(pos, H1 - 1);
+	}
+
+	private static boolean line(long pos, int shift) {
+		long m = pos & (pos >>> shift);
+		return (m & (m >>> (2 * shift))) != 0;
+	}
+
+	// Empty cells that would complete four for the stones in pos.
+	static long winningCells(long pos, long mask) {
+		// vertical
+		long r = (pos << 1) & (pos << 2) & (pos << 3);
+		for (int shift : SIDEWAYS) {
+			long p = (pos << shift) & (pos << (2 * shift));
+			r |= p & (pos << (3 * shift));
+			r |= p & (pos >>> shift);
+			p = (pos >>> shift) & (pos >>> (2 * shift));
+			r |= p & (pos << shift);
+			r |= p & (pos >>> (3 * shift));
+		}
+		return r & (BOARD ^ mask);
+	}
+
+	static long bottom(int col) {
+		return 1L << (col * H1);
+	}
+
+	static long top(int col) {
+		return 1L << (HEIGHT - 1 + col * H1);
+	}
+
+	static long column(int col) {
+		return ((1L << HEIGHT) - 1) << (col * H1);
+	}
+
+	private static long bottomRow() {
+		long b = 0;
+		for (int col = 0; col < WIDTH; col++) {
+			b |= 1L << (col * H1);
+		}
+		return b;
+	}
+}
@@ -0,0 +1,29 @@
+// A game position as the server follows it, whatever board it is played on.
+// BitBoard is the standard 7x6 connect four; Variant.newBoard() gives the other sizes
+// a board that fits them. Columns are numbered from 0 at the left.
+public interface Board {
+	int width();
+
+	// stones on the board
+	int moves();
+
+	boolean canPlay(int col);
+
+	// Drop a stone for the player to move; the other player is then to move.
+	void play(int col);
+
+	// Whether playing col wins for the player to move.
+	boolean isWinningMove(int col);
+
+	// Whether the other player would win by playing col, so the player to move should block it.
+	boolean isThreat(int col);
+
+	// Whether the player who just moved has a line.
+	boolean lastMoveWon();
+
+	boolean isFull();
+
+	void reset();
+
+	Board copy();
+}
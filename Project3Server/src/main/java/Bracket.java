@@ -0,0 +1,276 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+// Pairings and standings for one tournament, kept apart from the networking.
+// Players are numbered 0..n-1 in seed order. Swiss rounds pair players on equal
+// points and avoid rematches; knockout rounds follow a seeded bracket. Points are
+// kept in halves (win 2, draw 1) so they stay integers. The standings table is a
+// sorted set that moves one player at a time as results come in, with a Fenwick
+// tree over the same order alongside it so a player's rank is O(log n).
+public class Bracket {
+	public enum Format { SWISS, KNOCKOUT }
+
+	// the opponent of a player who sits the round out
+	public static final int BYE = -1;
+
+	private final Format format;
+	private final String[] names;
+	private final int rounds;
+	private final int[] points;
+	// games played as X, so colors even out over a Swiss event
+	private final int[] firsts;
+	private final boolean[] hadBye;
+	// knocked out, or left the event
+	private final boolean[] out;
+	private final HashSet<Long> played = new HashSet<>();
+	private final TreeSet<Integer> table;
+	// players counted by place in the table order: points down, then seed
+	private final int[] places;
+	private int round = 0;
+
+	// knockout: players in bracket order this round, the winner of each pair, and each player's pair
+	private static final int PENDING = -2;
+	private int[] slots;
+	private int[] winners;
+	private int[] pairOf;
+
+	// rounds only matters for Swiss; 0 plays enough rounds to separate a winner.
+	public Bracket(Format format, String[] names, int rounds) {
+		this.format = format;
+		this.names = names.clone();
+		int n = names.length;
+		this.points = new int[n];
+		this.firsts = new int[n];
+		this.hadBye = new boolean[n];
+		this.out = new boolean[n];
+		int needed = 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1));
+		this.rounds = format == Format.KNOCKOUT || rounds <= 0 ? needed : rounds;
+		this.table = new TreeSet<>((a, b) -> points[a] != points[b] ? points[b] - points[a] : a - b);
+		this.places = new int[(2 * this.rounds + 1) * n + 1];
+		for (int p = 0; p < n; p++) {
+			table.add(p);
+			count(p, 1);
+		}
+		if (format == Format.KNOCKOUT) {
+			slots = seeded(n);
+			pairOf = new int[n];
+		}
+	}
+
+	public String name(int player) {
+		return names[player];
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public int rounds() {
+		return rounds;
+	}
+
+	public synchronized int round() {
+		return round;
+	}
+
+	public synchronized int points(int player) {
+		return points[player];
+	}
+
+	public synchronized boolean isOut(int player) {
+		return out[player];
+	}
+
+	// 1-based place in the standings; knockout ties are broken by seed.
+	public synchronized int rank(int player) {
+		int sum = 0;
+		for (int i = place(player) - 1; i > 0; i -= i & -i) {
+			sum += places[i];
+		}
+		return sum + 1;
+	}
+
+	// Pairings for the next round as {x, o}, where x moves first. A player paired with
+	// BYE sits out and scores a win. Returns null once the event is over.
+	public synchronized List<int[]> nextRound() {
+		if (finished()) {
+			return null;
+		}
+		round++;
+		return format == Format.SWISS ? pairSwiss() : pairKnockout();
+	}
+
+	public synchronized boolean finished() {
+		if (format == Format.SWISS) {
+			return round >= rounds || active() < 2;
+		}
+		return round >= rounds;
+	}
+
+	// Record a finished game. outcome is 1 if x won, 0 for a draw, -1 if o won.
+	public synchronized void result(int x, int o, int outcome) {
+		award(x, outcome > 0 ? 2 : outcome == 0 ? 1 : 0);
+		award(o, outcome < 0 ? 2 : outcome == 0 ? 1 : 0);
+		if (format == Format.KNOCKOUT) {
+			// a draw goes to O, who moved second
+			int winner = outcome > 0 ? x : o;
+			winners[pairOf[winner]] = winner;
+			out[outcome > 0 ? o : x] = true;
+		}
+	}
+
+	// Take a player out of future rounds; their finished games still count.
+	public synchronized void withdraw(int player) {
+		out[player] = true;
+	}
+
+	// The player at the top of the standings.
+	public synchronized int leader() {
+		return table.first();
+	}
+
+	// The top limit of the standings as "rank. name points".
+	public synchronized List<String> standings(int limit) {
+		List<String> rows = new ArrayList<>();
+		for (int p : table) {
+			if (rows.size() == limit) break;
+			rows.add((rows.size() + 1) + ". " + names[p] + " " + formatPoints(points[p]));
+		}
+		return rows;
+	}
+
+	public static String formatPoints(int halves) {
+		return (halves / 2) + (halves % 2 == 1 ? ".5" : "");
+	}
+
+	private void award(int player, int halves) {
+		if (halves == 0) return;
+		table.remove(player);
+		count(player, -1);
+		points[player] += halves;
+		table.add(player);
+		count(player, 1);
+	}
+
+	// 1-based index of player in places; nobody scores more than a win a round
+	private int place(int player) {
+		int below = 2 * rounds - Math.min(points[player], 2 * rounds);
+		return below * names.length + player + 1;
+	}
+
+	private void count(int player, int delta) {
+		for (int i = place(player); i < places.length; i += i & -i) {
+			places[i] += delta;
+		}
+	}
+
+	private int active() {
+		int n = 0;
+		for (boolean o : out) {
+			if (!o) n++;
+		}
+		return n;
+	}
+
+	// Walk down the standings and give each player the next one below them they
+	// haven't met yet. The lowest-ranked player who hasn't had a bye gets one if
+	// the count is odd.
+	private List<int[]> pairSwiss() {
+		int[] order = new int[names.length];
+		int n = 0;
+		for (int p : table) {
+			if (!out[p]) order[n++] = p;
+		}
+		List<int[]> pairs = new ArrayList<>(n / 2 + 1);
+		boolean[] taken = new boolean[names.length];
+		if (n % 2 == 1) {
+			int bye = order[n - 1];
+			for (int i = n - 1; i >= 0; i--) {
+				if (!hadBye[order[i]]) {
+					bye = order[i];
+					break;
+				}
+			}
+			taken[bye] = true;
+			hadBye[bye] = true;
+			award(bye, 2);
+			pairs.add(new int[]{bye, BYE});
+		}
+		for (int i = 0; i < n; i++) {
+			int a = order[i];
+			if (taken[a]) continue;
+			taken[a] = true;
+			int partner = -1, fallback = -1;
+			for (int j = i + 1; j < n; j++) {
+				if (taken[order[j]]) continue;
+				if (fallback < 0) fallback = j;
+				if (!played.contains(key(a, order[j]))) {
+					partner = j;
+					break;
+				}
+			}
+			if (partner < 0) partner = fallback; // everyone left is a rematch
+			if (partner < 0) break;
+			int b = order[partner];
+			taken[b] = true;
+			played.add(key(a, b));
+			// whoever has had X less often gets it; the higher ranked on a tie in odd rounds
+			boolean aFirst = firsts[a] != firsts[b] ? firsts[a] < firsts[b] : round % 2 == 1;
+			int x = aFirst ? a : b, o = aFirst ? b : a;
+			firsts[x]++;
+			pairs.add(new int[]{x, o});
+		}
+		return pairs;
+	}
+
+	private static long key(int a, int b) {
+		return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+	}
+
+	private List<int[]> pairKnockout() {
+		if (winners != null) {
+			slots = winners;
+		}
+		List<int[]> pairs = new ArrayList<>(slots.length / 2);
+		winners = new int[slots.length / 2];
+		for (int i = 0; i < slots.length; i += 2) {
+			int a = slots[i], b = slots[i + 1];
+			boolean aIn = a >= 0 && !out[a], bIn = b >= 0 && !out[b];
+			if (aIn && bIn) {
+				// the higher seed moves first
+				pairs.add(new int[]{Math.min(a, b), Math.max(a, b)});
+				pairOf[a] = pairOf[b] = i / 2;
+				winners[i / 2] = PENDING;
+			} else {
+				int through = aIn ? a : bIn ? b : BYE;
+				winners[i / 2] = through;
+				if (through != BYE) {
+					award(through, 2);
+					pairs.add(new int[]{through, BYE});
+				}
+			}
+		}
+		return pairs;
+	}
+
+	// Bracket positions for n players, best seeds as far apart as possible; empty spots are BYE.
+	static int[] seeded(int n) {
+		int size = 1;
+		while (size < n) size <<= 1;
+		int[] order = {0};
+		while (order.length < size) {
+			int[] wider = new int[order.length * 2];
+			for (int i = 0; i < order.length; i++) {
+				wider[2 * i] = order[i];
+				wider[2 * i + 1] = order.length * 2 - 1 - order[i];
+			}
+			order = wider;
+		}
+		for (int i = 0; i < size; i++) {
+			if (order[i] >= n) order[i] = BYE;
+		}
+		return order;
+	}
+}
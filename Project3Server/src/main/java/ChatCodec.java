@@ -0,0 +1,46 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+// DEFLATE for the chat sent to one connection, for clients that ask with COMPRESS:deflate.
+// The connection keeps a single stream and flushes it after every batch, so each batch
+// is compressed against everything sent before it. The stream starts out primed with
+// DICTIONARY, which lets even the first short line come out smaller than it went in.
+public class ChatCodec {
+	// Protocol words and common chat, the most frequent last. Clients inflate with the
+	// same bytes (Client.CHAT_DICTIONARY), so change both or neither.
+	public static final byte[] DICTIONARY = ("thanks thank you sorry again rematch one more " +
+			"good game well played nice move close game lucky oops wow no way yes no ok lol haha " +
+			"hi hello hey your turn my turn I you the and to is it that of in for on what " +
+			"USER_JOINED:USER_LEFT:LOBBY|PRIVATE_CHAT:gg|PUBLIC_CHAT:User").getBytes(StandardCharsets.UTF_8);
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final byte[] buffer = new byte[8192];
+	private boolean closed;
+
+	public ChatCodec() {
+		deflater.setDictionary(DICTIONARY);
+	}
+
+	// Compress text and flush, so the client can inflate it without waiting for more.
+	public synchronized byte[] compress(String text) {
+		if (closed) {
+			throw new IllegalStateException("closed");
+		}
+		byte[] in = text.getBytes(StandardCharsets.UTF_8);
+		deflater.setInput(in);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(in.length / 2 + 16);
+		int n;
+		do {
+			n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+			out.write(buffer, 0, n);
+		} while (n == buffer.length);
+		return out.toByteArray();
+	}
+
+	// Free the native stream; the connection is gone.
+	public synchronized void close() {
+		closed = true;
+		deflater.end();
+	}
+}
@@ -0,0 +1,158 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.function.Consumer;
+
+// A node's connection to the Router's cluster port.
+// The link says hello with the node's id and client address so the router can send
+// it players, publishes every game the node rates, and feeds results rated on other
+// nodes back in, so every node sees nearly every game. Results arrive in a different
+// order on each node and Elo depends on order, so the leaderboards drift apart a little.
+// It reconnects on its own if the router goes away; results rated meanwhile stay local
+// and the other nodes never see them.
+//
+// Frames are a type byte followed by fixed fields (DataOutput encoding):
+//   HELLO   utf node id, utf host, int port     node -> router
+//   RESULT  utf a, utf b, byte outcome          both ways
+//   DRAIN                                       node -> router: send no more players
+public class ClusterLink extends Thread {
+	static final byte HELLO = 1, RESULT = 2, DRAIN = 3;
+
+	// A rated game: outcome is 1 if a won, 0 for a draw, -1 if b won.
+	public static class Result {
+		public final String a, b;
+		public final int outcome;
+
+		public Result(String a, String b, int outcome) {
+			this.a = a;
+			this.b = b;
+			this.outcome = outcome;
+		}
+	}
+
+	private final String routerHost;
+	private final int routerPort;
+	private final String nodeId;
+	private final String host;
+	private final int port;
+	private final Consumer<Result> onResult;
+	private final Consumer<Serializable> callback;
+
+	private volatile DataOutputStream out;
+	private volatile Socket socket;
+	private volatile boolean draining = false;
+	private volatile boolean closed = false;
+
+	// router is "host:port"; host and port are where clients of this node connect.
+	public ClusterLink(String router, String nodeId, String host, int port,
+			Consumer<Result> onResult, Consumer<Serializable> callback) {
+		super("cluster-link");
+		int colon = router.lastIndexOf(':');
+		this.routerHost = colon < 0 ? "localhost" : router.substring(0, colon);
+		this.routerPort = Integer.parseInt(router.substring(colon + 1));
+		this.nodeId = nodeId;
+		this.host = host;
+		this.port = port;
+		this.onResult = onResult;
+		this.callback = callback;
+		setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		long backoff = 250;
+		while (!closed) {
+			try (Socket s = new Socket()) {
+				s.connect(new InetSocketAddress(routerHost, routerPort), 3000);
+				s.setTcpNoDelay(true);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+				DataOutputStream o = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+				synchronized (this) {
+					o.writeByte(HELLO);
+					o.writeUTF(nodeId);
+					o.writeUTF(host);
+					o.writeInt(port);
+					if (draining) {
+						o.writeByte(DRAIN);
+					}
+					o.flush();
+					socket = s;
+					out = o;
+				}
+				backoff = 250;
+				if (callback != null)
+					callback.accept("CONN:Joined the cluster at " + routerHost + ":" + routerPort + " as " + nodeId);
+				while (true) {
+					byte type = in.readByte();
+					if (type != RESULT) {
+						throw new IOException("Unexpected cluster frame " + type);
+					}
+					onResult.accept(readResult(in));
+				}
+			} catch (IOException e) {
+				out = null;
+				if (closed) {
+					return;
+				}
+				if (callback != null)
+					callback.accept("CONN:Cluster link down (" + e.getMessage() + "), retrying");
+			}
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				return;
+			}
+			backoff = Math.min(backoff * 2, 5000);
+		}
+	}
+
+	// Tell the other nodes about a game rated here. Dropped while the router is unreachable.
+	public synchronized void publish(String a, String b, int outcome) {
+		DataOutputStream o = out;
+		if (o == null) {
+			return;
+		}
+		try {
+			writeResult(o, new Result(a, b, outcome));
+			o.flush();
+		} catch (IOException ignored) {
+			// the reader notices and reconnects
+		}
+	}
+
+	// Ask the router to stop sending players here; players already here stay.
+	public synchronized void drain() {
+		draining = true;
+		DataOutputStream o = out;
+		if (o == null) {
+			return; // sent with the next hello
+		}
+		try {
+			o.writeByte(DRAIN);
+			o.flush();
+		} catch (IOException ignored) {}
+	}
+
+	public void close() {
+		closed = true;
+		interrupt();
+		try {
+			Socket s = socket;
+			if (s != null) s.close();
+		} catch (IOException ignored) {}
+	}
+
+	static void writeResult(DataOutputStream out, Result r) throws IOException {
+		out.writeByte(RESULT);
+		out.writeUTF(r.a);
+		out.writeUTF(r.b);
+		out.writeByte(r.outcome);
+	}
+
+	// the fields after a RESULT type byte
+	static Result readResult(DataInputStream in) throws IOException {
+		String a = in.readUTF();
+		String b = in.readUTF();
+		return new Result(a, b, in.readByte());
+	}
+}
@@ -0,0 +1,202 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Search results shared by every AI game in the process, so positions one game has
+// searched (the openings above all) are free for the next.
+// Positions are keyed by BitBoard's current + mask, which is exact, folded with its
+// mirror image so a position and its reflection share an entry. The table is open
+// addressing in buckets of four slots with no locks: each slot is two longs, the key
+// XOR the data and the data itself, so a reader that races a writer sees a key that
+// doesn't match and treats it as a miss. A hit sets the slot's reference bit, and a
+// full bucket evicts by clock: the hand clears set bits until it finds a clear one.
+// Entries can be saved to a file and loaded by the next process, so it starts warm.
+public class EvalCache {
+	// how a stored score bounds the real one
+	public static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+	private static final int WAYS = 4;
+	private static final int MAGIC = 0x43344543; // "C4EC"
+	private static final int COLUMN_BITS = BitBoard.HEIGHT + 1;
+	private static final long COLUMN = (1L << COLUMN_BITS) - 1;
+
+	private final int buckets;
+	private final AtomicLongArray slots;
+	private final byte[] referenced;
+	private final byte[] hands;
+	private final AtomicLong used = new AtomicLong();
+
+	private final Metrics.Counter hits, misses, stores, evictions;
+
+	// Room for about entries positions, rounded up to a power of two.
+	public EvalCache(int entries, Metrics metrics) {
+		int b = Integer.highestOneBit(Math.max(WAYS, entries) / WAYS);
+		this.buckets = b * WAYS < entries ? b * 2 : b;
+		this.slots = new AtomicLongArray(buckets * WAYS * 2);
+		this.referenced = new byte[buckets * WAYS];
+		this.hands = new byte[buckets];
+		hits = metrics.counter("connect4_eval_cache_hits_total", "AI positions found in the shared cache");
+		misses = metrics.counter("connect4_eval_cache_misses_total", "AI positions not in the shared cache");
+		stores = metrics.counter("connect4_eval_cache_stores_total", "AI search results written to the shared cache");
+		evictions = metrics.counter("connect4_eval_cache_evictions_total", "Cache entries pushed out to make room");
+		metrics.gauge("connect4_eval_cache_entries", "Positions in the shared cache", used::get);
+	}
+
+	public int capacity() {
+		return buckets * WAYS;
+	}
+
+	public long size() {
+		return used.get();
+	}
+
+	// The entry for a position, or 0 if there isn't one. Read it with score(), depth(),
+	// bound() and move(); the move is already turned back round for a mirrored hit.
+	public long probe(long current, long mask) {
+		long key = current + mask;
+		long mirrored = mirror(key);
+		long canonical = Math.min(key, mirrored);
+		int first = bucket(canonical);
+		for (int i = first; i < first + WAYS; i++) {
+			long data = slots.get(2 * i + 1);
+			if (data != 0 && (slots.get(2 * i) ^ data) == canonical) {
+				referenced[i] = 1;
+				hits.increment();
+				return key == canonical ? data : flip(data);
+			}
+		}
+		misses.increment();
+		return 0;
+	}
+
+	// Record a search result: score bounded as bound says, from depth plies of search,
+	// with move the best one found (-1 for none).
+	public void store(long current, long mask, int depth, int bound, int score, int move) {
+		long key = current + mask;
+		long mirrored = mirror(key);
+		long canonical = Math.min(key, mirrored);
+		long data = pack(score, depth, bound, move);
+		put(canonical, key == canonical ? data : flip(data));
+		stores.increment();
+	}
+
+	private void put(long canonical, long data) {
+		int first = bucket(canonical);
+		int free = -1;
+		for (int i = first; i < first + WAYS; i++) {
+			long old = slots.get(2 * i + 1);
+			if (old != 0 && (slots.get(2 * i) ^ old) == canonical) {
+				// keep the deeper result
+				if (depth(data) >= depth(old)) write(i, canonical, data);
+				return;
+			}
+			if (old == 0 && free < 0) free = i;
+		}
+		if (free >= 0) {
+			used.incrementAndGet();
+			write(free, canonical, data);
+			return;
+		}
+		// clock: at most two sweeps, since the first clears every bit it passes
+		int b = first / WAYS;
+		for (int step = 0; step < 2 * WAYS; step++) {
+			int i = first + (hands[b] & (WAYS - 1));
+			hands[b]++;
+			if (referenced[i] == 0 || step == 2 * WAYS - 1) {
+				evictions.increment();
+				write(i, canonical, data);
+				return;
+			}
+			referenced[i] = 0;
+		}
+	}
+
+	private void write(int i, long canonical, long data) {
+		referenced[i] = 0;
+		slots.set(2 * i + 1, data);
+		slots.set(2 * i, canonical ^ data);
+	}
+
+	private int bucket(long canonical) {
+		long h = canonical * 0x9e3779b97f4a7c15L;
+		return (int) ((h ^ (h >>> 29)) & (buckets - 1)) * WAYS;
+	}
+
+	// the key with the columns in reverse order
+	static long mirror(long key) {
+		long m = 0;
+		for (int col = 0; col < BitBoard.WIDTH; col++) {
+			m |= ((key >>> (col * COLUMN_BITS)) & COLUMN) << ((BitBoard.WIDTH - 1 - col) * COLUMN_BITS);
+		}
+		return m;
+	}
+
+	// data: score in bits 0-15, depth 16-23, bound 24-25, move + 1 in 26-29; never 0 as bound isn't
+	static long pack(int score, int depth, int bound, int move) {
+		return (score & 0xffffL) | ((long) depth << 16) | ((long) bound << 24) | ((long) (move + 1) << 26);
+	}
+
+	public static int score(long data) {
+		return (short) data;
+	}
+
+	public static int depth(long data) {
+		return (int) (data >>> 16) & 0xff;
+	}
+
+	public static int bound(long data) {
+		return (int) (data >>> 24) & 3;
+	}
+
+	public static int move(long data) {
+		return (int) ((data >>> 26) & 0xf) - 1;
+	}
+
+	private static long flip(long data) {
+		int move = move(data);
+		return move < 0 ? data : pack(score(data), depth(data), bound(data), BitBoard.WIDTH - 1 - move);
+	}
+
+	// Write every entry to file, replacing it in one step.
+	public void save(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null) dir.mkdirs();
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			for (int i = 0; i < capacity(); i++) {
+				long data = slots.get(2 * i + 1);
+				long canonical = slots.get(2 * i) ^ data;
+				if (data != 0 && canonical == Math.min(canonical, mirror(canonical))) {
+					out.writeLong(canonical);
+					out.writeLong(data);
+				}
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Add the entries from a file written by save(); returns how many were read.
+	public int load(File file) throws IOException {
+		int n = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not an eval cache snapshot: " + file);
+			}
+			while (true) {
+				long canonical, data;
+				try {
+					canonical = in.readLong();
+				} catch (EOFException end) {
+					break;
+				}
+				data = in.readLong();
+				put(canonical, data);
+				n++;
+			}
+		}
+		return n;
+	}
+}
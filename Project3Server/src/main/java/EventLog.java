@@ -0,0 +1,162 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// A bounded log of server events for the monitor.
+// The newest events stay in a fixed-size ring in memory; everything also goes to a
+// spill file on disk that rolls over at a size cap, so memory use is flat however
+// long the server runs. append() never blocks or locks; readers pull what's new
+// in batches with since().
+public class EventLog {
+	private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+	// spill file size before it rolls over to <name>.1
+	private static final long MAX_FILE_BYTES = 64L << 20;
+
+	private static class Entry {
+		final long seq;
+		final String text;
+
+		Entry(long seq, String text) {
+			this.seq = seq;
+			this.text = text;
+		}
+	}
+
+	private final AtomicReferenceArray<Entry> ring;
+	private final AtomicLong next = new AtomicLong();
+	private final LongAdder dropped = new LongAdder();
+
+	// lines waiting for the spill writer; if the disk falls behind, new lines are dropped from the file only
+	private final BlockingQueue<String> spill = new ArrayBlockingQueue<>(65536);
+	private final File file;
+
+	// Keep the last capacity events in memory, and spill every event to file (null for none).
+	public EventLog(int capacity, File file) {
+		this.ring = new AtomicReferenceArray<>(capacity);
+		this.file = file;
+		if (file != null) {
+			Thread writer = new Thread(this::writeLoop, "event-log-" + file.getName());
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	public int capacity() {
+		return ring.length();
+	}
+
+	public void append(String text) {
+		long seq = next.getAndIncrement();
+		ring.set((int) (seq % ring.length()), new Entry(seq, text));
+		if (file != null && !spill.offer(LocalDateTime.now().format(TIME) + '\t' + text.replace('\n', ' '))) {
+			dropped.increment();
+		}
+	}
+
+	// Events appended so far, including the ones that have left the ring.
+	public long count() {
+		return next.get();
+	}
+
+	// Lines that didn't make it to the spill file because it fell behind.
+	public long droppedFromFile() {
+		return dropped.sum();
+	}
+
+	// Add events after sequence number after (-1 for all) to out, oldest first,
+	// and return the last sequence number added. Events already pushed out of the ring are skipped.
+	public long since(long after, List<String> out) {
+		long last = next.get() - 1;
+		long seq = Math.max(after + 1, last - ring.length() + 1);
+		for (; seq <= last; seq++) {
+			Entry e = ring.get((int) (seq % ring.length()));
+			if (e == null || e.seq < seq) {
+				break; // claimed but not written yet; pick it up next time
+			}
+			if (e.seq == seq) {
+				out.add(e.text);
+			}
+			// e.seq > seq: overwritten while we read, skip it
+		}
+		return seq - 1;
+	}
+
+	// Up to limit of the newest lines in the spill files containing query (case-insensitive).
+	// Reads the disk, so call it off the UI thread.
+	public List<String> search(String query, int limit) throws IOException {
+		ArrayDeque<String> matches = new ArrayDeque<>(limit);
+		if (file == null) {
+			return new ArrayList<>();
+		}
+		String q = query.toLowerCase(Locale.ROOT);
+		for (File f : new File[]{rolled(), file}) {
+			if (!f.exists()) continue;
+			try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = r.readLine()) != null) {
+					if (line.toLowerCase(Locale.ROOT).contains(q)) {
+						if (matches.size() == limit) matches.removeFirst();
+						matches.addLast(line);
+					}
+				}
+			}
+		}
+		return new ArrayList<>(matches);
+	}
+
+	private File rolled() {
+		return new File(file.getPath() + ".1");
+	}
+
+	private void writeLoop() {
+		Writer out = null;
+		long written = 0;
+		try {
+			File dir = file.getAbsoluteFile().getParentFile();
+			if (dir != null) dir.mkdirs();
+			written = file.length();
+			out = open();
+			while (true) {
+				String line = spill.poll(500, TimeUnit.MILLISECONDS);
+				if (line == null) {
+					out.flush(); // quiet moment: make everything so far searchable
+					continue;
+				}
+				out.write(line);
+				out.write('\n');
+				written += line.length() + 1;
+				if (written > MAX_FILE_BYTES) {
+					out.close();
+					File old = rolled();
+					old.delete();
+					file.renameTo(old);
+					out = open();
+					written = 0;
+				}
+			}
+		} catch (IOException | InterruptedException e) {
+			// stop spilling; the in-memory ring keeps working
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException ignored) {}
+			}
+		}
+	}
+
+	private Writer open() throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 1 << 16);
+	}
+}
@@ -1,18 +1,42 @@
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
 import javafx.scene.layout.VBox;
 import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 public class GuiServer extends Application {
 	private Server serverConnection;
-	private Label lblSessions, lblClients, lblWaiting;
+	private Label lblSessions, lblClients, lblWaiting, lblRate, lblRelay, lblEvents;
 	private ListView<String> connList, gameList;
+	// message and event totals at the last poll, for the rate labels
+	private long lastMessages = 0;
+	private long lastEvents = 0;
+
+	// Server threads append to the logs; the views copy what's new ten times a second.
+	private EventLog connLog, gameLog;
+	private final ObservableList<String> connItems = FXCollections.observableArrayList();
+	private final ObservableList<String> gameItems = FXCollections.observableArrayList();
+	private long connSeen = -1, gameSeen = -1;
+	private TextField filter;
 
     public static void main(String[] args) {
 		launch(args);
@@ -24,55 +48,165 @@ public class GuiServer extends Application {
 		lblSessions = new Label("Games: 0");
 		lblClients  = new Label("Clients: 0");
 		lblWaiting  = new Label("Waiting: 0");
+		lblRate     = new Label("Msgs/s: 0");
+		lblRelay    = new Label("Relay p99: -");
+		lblEvents   = new Label("Events/s: 0");
+
+		ServerConfig config = ServerConfig.load(getParameters().getRaw().toArray(new String[0]));
+		boolean spill = !config.logDir.isEmpty();
+		connLog = new EventLog(config.logCapacity, spill ? new File(config.logDir, "connections.log") : null);
+		gameLog = new EventLog(config.logCapacity, spill ? new File(config.logDir, "games.log") : null);
 
-		// Connection vs. Game event logs
-		connList = new ListView<>();
-		gameList = new ListView<>();
+		// Connection vs. Game event logs, narrowed by the filter box
+		filter = new TextField();
+		filter.setPromptText("Filter, or press Enter to search the log files");
+		FilteredList<String> connShown = new FilteredList<>(connItems);
+		FilteredList<String> gameShown = new FilteredList<>(gameItems);
+		filter.textProperty().addListener((obs, old, text) -> {
+			String q = text.toLowerCase(Locale.ROOT);
+			connShown.setPredicate(q.isEmpty() ? null : s -> s.toLowerCase(Locale.ROOT).contains(q));
+			gameShown.setPredicate(q.isEmpty() ? null : s -> s.toLowerCase(Locale.ROOT).contains(q));
+		});
+		filter.setOnAction(e -> searchFiles(filter.getText()));
+		connList = new ListView<>(connShown);
+		gameList = new ListView<>(gameShown);
 		connList.setPrefHeight(300);
 		gameList.setPrefHeight(300);
 
 		// Wire up server callbacks
-		serverConnection = new Server(data -> {
-			Platform.runLater(() -> {
-				String s = data.toString();
-				if (s.startsWith("CONN:")) {
-					connList.getItems().add(s.substring(5));
-				} else if (s.startsWith("GAME:")) {
-					gameList.getItems().add(s.substring(5));
-				}
-				updateStats();
-			});
+		serverConnection = new Server(config, data -> {
+			String s = data.toString();
+			if (s.startsWith("CONN:")) {
+				connLog.append(s.substring(5));
+			} else if (s.startsWith("GAME:")) {
+				gameLog.append(s.substring(5));
+			}
 		});
+		serverConnection.start();
+
+		// Move new events into the views in batches
+		Timeline logs = new Timeline(new KeyFrame(Duration.millis(100), e -> {
+			connSeen = drain(connLog, connItems, connSeen);
+			gameSeen = drain(gameLog, gameItems, gameSeen);
+		}));
+		logs.setCycleCount(Timeline.INDEFINITE);
+		logs.play();
+
+		// Read the counters once a second rather than after every event
+		Timeline stats = new Timeline(new KeyFrame(Duration.seconds(1), e -> updateStats()));
+		stats.setCycleCount(Timeline.INDEFINITE);
+		stats.play();
 
         HashMap<String, Scene> sceneMap = new HashMap<>();
 		sceneMap.put("server", createServerGui());
 
 		primaryStage.setScene(sceneMap.get("server"));
 		primaryStage.setTitle("Connect4 Server Monitor");
+		// let games in progress finish before going; closing again while draining quits at once
 		primaryStage.setOnCloseRequest(e -> {
-			Platform.exit();
-			System.exit(0);
+			if (serverConnection.getState() == Server.State.DRAINING) {
+				Platform.exit();
+				System.exit(0);
+			}
+			e.consume();
+			primaryStage.setTitle("Connect4 Server Monitor (draining, close again to quit now)");
+			Thread drain = new Thread(() -> {
+				serverConnection.drain(config.drainTimeoutSeconds * 1000L);
+				Platform.exit();
+				System.exit(0);
+			}, "drain");
+			drain.setDaemon(true);
+			drain.start();
 		});
 		primaryStage.show();
 	}
 
+	// Append what the log gained since seen, keeping at most the log's capacity on screen.
+	private static long drain(EventLog log, ObservableList<String> items, long seen) {
+		if (log.count() - 1 == seen) {
+			return seen;
+		}
+		List<String> batch = new ArrayList<>();
+		seen = log.since(seen, batch);
+		int over = items.size() + batch.size() - log.capacity();
+		if (over >= items.size()) {
+			items.setAll(batch.subList(batch.size() - Math.min(batch.size(), log.capacity()), batch.size()));
+		} else {
+			if (over > 0) {
+				items.remove(0, over);
+			}
+			items.addAll(batch);
+		}
+		return seen;
+	}
+
+	// Look through everything written to disk, not only what's still on screen.
+	private void searchFiles(String query) {
+		if (query.isEmpty()) return;
+		CompletableFuture.supplyAsync(() -> {
+			List<String> results = new ArrayList<>();
+			try {
+				for (String line : connLog.search(query, 500)) results.add("[conn] " + line);
+				for (String line : gameLog.search(query, 500)) results.add("[game] " + line);
+			} catch (IOException e) {
+				results.add("Search failed: " + e.getMessage());
+			}
+			return results;
+		}).thenAccept(results -> Platform.runLater(() -> {
+			ListView<String> list = new ListView<>(FXCollections.observableArrayList(results));
+			Label summary = new Label(results.isEmpty() ? "No matches" : results.size() + " matches (newest 500 per log)");
+			VBox box = new VBox(5, summary, list);
+			box.setPadding(new Insets(10));
+			Stage stage = new Stage();
+			stage.setTitle("Search: " + query);
+			stage.setScene(new Scene(box, 700, 400));
+			stage.show();
+		}));
+	}
+
 	private void updateStats() {
 		lblSessions.setText("Games: " + serverConnection.getSessionCount());
 		lblClients.setText("Clients: " + serverConnection.getCurrentClients());
-		lblWaiting.setText("Waiting: " + serverConnection.getWaitingCount());
+		lblWaiting.setText("Waiting: " + serverConnection.getWaitingCount() +
+				" (+" + serverConnection.getEntrantCount() + " for tournament)");
+
+		long messages = serverConnection.messagesIn.get() + serverConnection.messagesOut.get();
+		lblRate.setText("Msgs/s: " + (messages - lastMessages));
+		lastMessages = messages;
+		lblRelay.setText(serverConnection.relayLatency.values().count() == 0 ? "Relay p99: -"
+				: String.format(Locale.ROOT, "Relay p99: %.2f ms", serverConnection.relayLatency.percentile(99) * 1000));
+
+		long events = connLog.count() + gameLog.count();
+		lblEvents.setText("Events/s: " + (events - lastEvents));
+		lastEvents = events;
+	}
+
+	private void startTournament(Bracket.Format format) {
+		if (!serverConnection.startTournament(format, 0)) {
+			gameLog.append("Tournament not started: one is running or fewer than two players joined");
+		}
 	}
 
 	public Scene createServerGui() {
 		VBox root = new VBox(10);
 		root.setPadding(new Insets(20));
 
-		HBox statsBox = new HBox(20, lblSessions, lblClients, lblWaiting);
+		HBox statsBox = new HBox(20, lblSessions, lblClients, lblWaiting, lblRate, lblRelay, lblEvents);
+		Button search = new Button("Search files");
+		search.setOnAction(e -> searchFiles(filter.getText()));
+		// tournaments are for whoever has sent TOURNAMENT|JOIN
+		Button swiss = new Button("Start Swiss");
+		swiss.setOnAction(e -> startTournament(Bracket.Format.SWISS));
+		Button knockout = new Button("Start knockout");
+		knockout.setOnAction(e -> startTournament(Bracket.Format.KNOCKOUT));
+		HBox filterBox = new HBox(10, filter, search, swiss, knockout);
+		filter.setPrefWidth(400);
 		VBox connBox = new VBox(5, new Label("Connections"), connList);
 		VBox gameBox = new VBox(5, new Label("Game Events"), gameList);
 		HBox logsBox = new HBox(10, connBox, gameBox);
 		logsBox.setPadding(new Insets(10));
 
-		root.getChildren().addAll(statsBox, logsBox);
-		return new Scene(root, 550, 400);
+		root.getChildren().addAll(statsBox, filterBox, logsBox);
+		return new Scene(root, 900, 450);
 	}
-}
\ No newline at end of file
+}
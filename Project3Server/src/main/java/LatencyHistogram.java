@@ -0,0 +1,159 @@
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed-size, log-linear histogram in the style of HdrHistogram.
+// Values below 128 get their own bucket; above that each power of two is split
+// into 64 buckets, so any recorded value is reported within ~1.6%.
+// Recording is a single atomic increment and safe from any number of threads.
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 128;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int BUCKETS = SUB_BUCKETS + 57 * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    public long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) return highestEquivalent(i);
+        }
+        return 0;
+    }
+
+    // Smallest value that is >= the given percentile (0-100) of recorded values.
+    public long percentile(double percentile) {
+        return percentile(snapshot(), percentile);
+    }
+
+    private static long percentile(long[] snapshot, double percentile) {
+        long n = 0;
+        for (long c : snapshot) n += c;
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) return highestEquivalent(i);
+        }
+        return 0;
+    }
+
+    // Bucket counts copied out once, so a report adds up while other threads keep recording.
+    private long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) copy[i] = counts.get(i);
+        return copy;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.reset();
+        sum.reset();
+    }
+
+    // Cumulative count of values <= the given bound (for Prometheus-style buckets).
+    // A bucket that straddles the bound is left out, so the count never includes a
+    // value above it; it can miss values up to ~1.6% below it.
+    public long countAtOrBelow(long bound) {
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && highestEquivalent(i) <= bound; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    // Percentile distribution in HdrHistogram's text layout, values divided by scale
+    // (e.g. 1000.0 to print microsecond recordings as milliseconds).
+    public void outputPercentileDistribution(PrintStream out, double scale) {
+        out.println("       Value     Percentile TotalCount 1/(1-Percentile)");
+        out.println();
+        long[] snapshot = snapshot();
+        long n = 0;
+        long last = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += snapshot[i];
+            if (snapshot[i] != 0) last = highestEquivalent(i);
+        }
+        if (n != 0) {
+            long seen = 0;
+            double nextReport = 0;
+            int halvings = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = snapshot[i];
+                if (c == 0) continue;
+                seen += c;
+                double pct = 100.0 * seen / n;
+                if (pct >= nextReport || seen == n) {
+                    double fraction = seen / (double) n;
+                    out.println(String.format(Locale.ROOT, "%12.3f %14.12f %10d %14s",
+                            highestEquivalent(i) / scale, fraction, seen,
+                            seen == n ? "" : String.format(Locale.ROOT, "%.2f", 1 / (1 - fraction))));
+                    // report at 50%, 75%, 87.5%, ... like HdrHistogram's ticks per half distance
+                    while (nextReport <= pct && halvings < 40) {
+                        halvings++;
+                        nextReport = 100.0 * (1 - Math.pow(0.5, halvings));
+                    }
+                }
+            }
+        }
+        out.println(String.format(Locale.ROOT, "#[Mean    = %12.3f, Max      = %12.3f]", mean() / scale, last / scale));
+        out.println(String.format(Locale.ROOT, "#[p50     = %12.3f, p99      = %12.3f, p99.9 = %12.3f]",
+                percentile(snapshot, 50) / scale, percentile(snapshot, 99) / scale, percentile(snapshot, 99.9) / scale));
+        out.println(String.format(Locale.ROOT, "#[Total count    = %12d]", n));
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - 6;
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+    static long lowestEquivalent(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int k = index - SUB_BUCKETS;
+        int shift = k / HALF + 1;
+        long sub = k % HALF + HALF;
+        return sub << shift;
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int k = index - SUB_BUCKETS;
+        int shift = k / HALF + 1;
+        long sub = k % HALF + HALF;
+        long high = ((sub + 1) << shift) - 1;
+        return high < 0 ? Long.MAX_VALUE : high;
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Ratings for everyone who has finished a game, with rank queries.
+// Ratings are Elo (start 1200, K 32) and follow the username. The server only
+// records games between players who picked their names (see GameSession.rate).
+// A Fenwick tree of player counts over one-point rating buckets answers "how many
+// are rated above r" in O(log n), which gives a player's rank, the top of the table
+// and the players either side of someone. A result locks only its own two players
+// and the tree's cells are atomic, so results for different players go in parallel.
+public class Leaderboard {
+	public static final double START = 1200;
+	private static final double K = 32;
+	// ratings are clamped into buckets 0..MAX_RATING-1
+	static final int MAX_RATING = 4096;
+	private static final int MAGIC = 0x43344c42; // "C4LB"
+
+	// A row of the table: players in the same bucket share a rank.
+	public static class Entry {
+		public final int rank;
+		public final String name;
+		public final int rating;
+
+		Entry(int rank, String name, int rating) {
+			this.rank = rank;
+			this.name = name;
+			this.rating = rating;
+		}
+
+		@Override
+		public String toString() {
+			return rank + ":" + name + ":" + rating;
+		}
+	}
+
+	private static class Player {
+		final String name;
+		double rating = START;
+		int bucket = -1;
+		int wins, draws, losses;
+
+		Player(String name) {
+			this.name = name;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Player> players = new ConcurrentHashMap<>();
+	// tree index i counts bucket MAX_RATING - i, so prefix sums count from the top down
+	private final AtomicIntegerArray tree = new AtomicIntegerArray(MAX_RATING + 1);
+	// names in each bucket, kept sorted so a page of the table never sorts a whole bucket
+	private final List<Set<String>> buckets = new ArrayList<>(MAX_RATING);
+
+	public Leaderboard() {
+		for (int b = 0; b < MAX_RATING; b++) {
+			buckets.add(new ConcurrentSkipListSet<>());
+		}
+	}
+
+	public int size() {
+		return players.size();
+	}
+
+	// Rate a finished game between a and b. outcome is 1 if a won, 0 for a draw, -1 if b won.
+	public void record(String a, String b, int outcome) {
+		if (a.equals(b)) {
+			return;
+		}
+		Player pa = player(a), pb = player(b);
+		// lock in name order so two results for the same pair can't deadlock
+		Player first = a.compareTo(b) < 0 ? pa : pb;
+		Player second = first == pa ? pb : pa;
+		synchronized (first) {
+			synchronized (second) {
+				double expected = 1 / (1 + Math.pow(10, (pb.rating - pa.rating) / 400));
+				double change = K * ((outcome + 1) / 2.0 - expected);
+				move(pa, pa.rating + change);
+				move(pb, pb.rating - change);
+				if (outcome > 0) {
+					pa.wins++;
+					pb.losses++;
+				} else if (outcome < 0) {
+					pa.losses++;
+					pb.wins++;
+				} else {
+					pa.draws++;
+					pb.draws++;
+				}
+			}
+		}
+	}
+
+	// 1-based rank, or 0 for a player with no rated games.
+	public int rank(String name) {
+		Player p = players.get(name);
+		if (p == null) {
+			return 0;
+		}
+		int bucket;
+		synchronized (p) {
+			bucket = p.bucket;
+		}
+		return prefix(index(bucket) - 1) + 1;
+	}
+
+	public int rating(String name) {
+		Player p = players.get(name);
+		if (p == null) {
+			return (int) START;
+		}
+		synchronized (p) {
+			return (int) Math.round(p.rating);
+		}
+	}
+
+	// The best n players.
+	public List<Entry> top(int n) {
+		return range(1, n);
+	}
+
+	// Up to n players either side of name, including name.
+	public List<Entry> around(String name, int n) {
+		int rank = rank(name);
+		if (rank == 0) {
+			return new ArrayList<>();
+		}
+		int from = Math.max(1, rank - n);
+		return range(from, rank + n - from + 1);
+	}
+
+	// count rows starting at the player in place from, walking down bucket by bucket;
+	// each bucket is read only as far as the rows it gives, so a crowded one costs no more
+	private List<Entry> range(int from, int count) {
+		List<Entry> rows = new ArrayList<>(count);
+		int k = from;
+		while (rows.size() < count && k <= prefix(MAX_RATING)) {
+			int index = find(k);
+			int bucket = MAX_RATING - index;
+			int rank = prefix(index - 1) + 1;
+			int skip = k - rank;
+			for (String name : buckets.get(bucket)) {
+				if (skip-- > 0) continue;
+				if (rows.size() == count) break;
+				rows.add(new Entry(rank, name, bucket));
+			}
+			// past this bucket, and always forward even if it changed under us
+			k = Math.max(prefix(index), k) + 1;
+		}
+		return rows;
+	}
+
+	private Player player(String name) {
+		return players.computeIfAbsent(name, n -> {
+			Player p = new Player(n);
+			move(p, START);
+			return p;
+		});
+	}
+
+	// call with p locked, or before p is visible
+	private void move(Player p, double rating) {
+		p.rating = rating;
+		int bucket = Math.max(0, Math.min(MAX_RATING - 1, (int) Math.round(rating)));
+		if (bucket == p.bucket) {
+			return;
+		}
+		if (p.bucket >= 0) {
+			buckets.get(p.bucket).remove(p.name);
+			add(index(p.bucket), -1);
+		}
+		buckets.get(bucket).add(p.name);
+		add(index(bucket), 1);
+		p.bucket = bucket;
+	}
+
+	private static int index(int bucket) {
+		return MAX_RATING - bucket;
+	}
+
+	private void add(int i, int delta) {
+		for (; i <= MAX_RATING; i += i & -i) {
+			tree.addAndGet(i, delta);
+		}
+	}
+
+	// players in tree indexes 1..i, i.e. rated at bucket MAX_RATING - i or higher
+	private int prefix(int i) {
+		int sum = 0;
+		for (; i > 0; i -= i & -i) {
+			sum += tree.get(i);
+		}
+		return sum;
+	}
+
+	// smallest tree index whose prefix reaches k
+	private int find(int k) {
+		int pos = 0;
+		for (int step = Integer.highestOneBit(MAX_RATING); step > 0; step >>= 1) {
+			int next = pos + step;
+			if (next <= MAX_RATING && tree.get(next) < k) {
+				pos = next;
+				k -= tree.get(next);
+			}
+		}
+		return Math.min(pos + 1, MAX_RATING);
+	}
+
+	// Write every player to file, replacing it in one step so a crash mid-write leaves the old one.
+	public void save(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null) dir.mkdirs();
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			List<Player> all = new ArrayList<>(players.values());
+			out.writeInt(all.size());
+			for (Player p : all) {
+				synchronized (p) {
+					out.writeUTF(p.name);
+					out.writeDouble(p.rating);
+					out.writeInt(p.wins);
+					out.writeInt(p.draws);
+					out.writeInt(p.losses);
+				}
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Read a snapshot written by save(). The tree is built in one linear pass.
+	public static Leaderboard load(File file) throws IOException {
+		Leaderboard board = new Leaderboard();
+		int[] counts = new int[MAX_RATING + 1];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a leaderboard snapshot: " + file);
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				Player p = new Player(in.readUTF());
+				p.rating = in.readDouble();
+				p.wins = in.readInt();
+				p.draws = in.readInt();
+				p.losses = in.readInt();
+				p.bucket = Math.max(0, Math.min(MAX_RATING - 1, (int) Math.round(p.rating)));
+				board.players.put(p.name, p);
+				board.buckets.get(p.bucket).add(p.name);
+				counts[index(p.bucket)]++;
+			}
+		}
+		for (int i = 1; i <= MAX_RATING; i++) {
+			int parent = i + (i & -i);
+			if (parent <= MAX_RATING) {
+				counts[parent] += counts[i];
+			}
+			board.tree.set(i, counts[i]);
+		}
+		return board;
+	}
+
+	// Wins, draws and losses as "W-D-L".
+	public String results(String name) {
+		Player p = players.get(name);
+		if (p == null) {
+			return "0-0-0";
+		}
+		synchronized (p) {
+			return String.format(Locale.ROOT, "%d-%d-%d", p.wins, p.draws, p.losses);
+		}
+	}
+}
@@ -0,0 +1,391 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load generator and latency benchmark for Server.
+// Starts a Server in this JVM, drives it with simulated clients that speak the
+// framed protocol directly, and reports relay latency, matchmaking wait,
+// message and connection rates, and heap/thread counts over time.
+//
+//   mvn exec:java -Dexec.mainClass=LoadTest -Dexec.args="--scenario=steady --clients=500 --duration=60"
+//
+// Besides the socket keys read by ServerConfig (port defaults to 5599 here, rate-limits to off) it takes:
+//   --scenario=NAME      steady, storm or slow (default steady)
+//   --clients=N          simulated players (default 200)
+//   --duration=S         seconds to run (default 30)
+//   --think=MS           delay before each move (default 0)
+//   --moves=N            moves per game before both players leave (default 20, at most 42)
+//   --storm-threads=N    storm: threads connecting and disconnecting in a loop (default 16)
+//   --slow-fraction=F    slow: fraction of clients that never read their socket (default 0.1)
+//   --lobby-chat=MS      public chat interval per player, 0 = off (default 0, slow: 100)
+//   --out=DIR            where report.json and timeseries.csv go (default target/loadtest)
+public class LoadTest {
+    private final String host;
+    private final int port;
+    private final int moves;
+    private final long thinkMillis;
+    private final long lobbyChatMillis;
+
+    // move relay: sender -> server -> receiver, in microseconds
+    private final LatencyHistogram relayLatency = new LatencyHistogram();
+    // QUEUE sent -> MATCHED received, in microseconds
+    private final LatencyHistogram matchWait = new LatencyHistogram();
+    // socket connect -> CONNECTED received, in microseconds
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+
+    private final AtomicLong messagesOut = new AtomicLong();
+    private final AtomicLong messagesIn = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong gamesStarted = new AtomicLong();
+    private final AtomicLong movesRelayed = new AtomicLong();
+
+    // send time of the move in flight on each game channel; players alternate, so one is enough
+    private final Map<String, Long> moveSentAt = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "loadtest-scheduler");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "loadtest-sampler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final List<String> timeseries = new ArrayList<>();
+
+    LoadTest(String host, int port, int moves, long thinkMillis, long lobbyChatMillis) {
+        this.host = host;
+        this.port = port;
+        this.moves = moves;
+        this.thinkMillis = thinkMillis;
+        this.lobbyChatMillis = lobbyChatMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties none = new Properties();
+        ServerConfig config = ServerConfig.load(args);
+        config.port = Integer.parseInt(ServerConfig.lookup(args, none, "port", "5599"));
+        // simulated players move as fast as they can, so don't rate-limit them unless asked to
+        config.rateLimits = ServerConfig.lookup(args, none, "rate-limits", "off");
+        String scenario = ServerConfig.lookup(args, none, "scenario", "steady");
+        int clients = Integer.parseInt(ServerConfig.lookup(args, none, "clients", "200"));
+        int duration = Integer.parseInt(ServerConfig.lookup(args, none, "duration", "30"));
+        long think = Long.parseLong(ServerConfig.lookup(args, none, "think", "0"));
+        // a game can't last longer than the board has cells
+        int moves = Math.min(42, Integer.parseInt(ServerConfig.lookup(args, none, "moves", "20")));
+        int stormThreads = Integer.parseInt(ServerConfig.lookup(args, none, "storm-threads", "16"));
+        double slowFraction = Double.parseDouble(ServerConfig.lookup(args, none, "slow-fraction", "0.1"));
+        long lobbyChat = Long.parseLong(ServerConfig.lookup(args, none, "lobby-chat",
+                scenario.equals("slow") ? "100" : "0"));
+        File outDir = new File(ServerConfig.lookup(args, none, "out", "target/loadtest"));
+
+        Server server = new Server(config, null);
+        server.start();
+        String host = config.bindAddress.isEmpty() ? "localhost" : config.bindAddress;
+        LoadTest test = new LoadTest(host, config.port, moves, think, lobbyChat);
+        test.awaitServer();
+
+        System.out.println("Scenario " + scenario + ": " + clients + " clients for " + duration + "s against " + config);
+        long start = System.nanoTime();
+        test.startSampler(server, start);
+        switch (scenario) {
+            case "steady":
+                test.startPlayers(clients, 0);
+                break;
+            case "slow":
+                test.startPlayers(clients, slowFraction);
+                break;
+            case "storm":
+                test.startStorm(stormThreads);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+        Thread.sleep(duration * 1000L);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        test.printReport(System.out, seconds);
+        outDir.mkdirs();
+        test.writeJson(new File(outDir, "report.json"), scenario, clients, seconds, config);
+        test.writeCsv(new File(outDir, "timeseries.csv"));
+        System.out.println("Wrote " + new File(outDir, "report.json") + " and " + new File(outDir, "timeseries.csv"));
+        System.exit(0);
+    }
+
+    private void awaitServer() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(host, port), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    // Players that queue, play a fixed number of moves per game, leave and queue again.
+    private void startPlayers(int count, double slowFraction) {
+        int slow = (int) Math.round(count * slowFraction);
+        for (int i = 0; i < count; i++) {
+            boolean reads = i >= slow;
+            scheduler.execute(() -> {
+                SimClient c = SimClient.open(this, reads);
+                if (c != null && reads) {
+                    c.queue();
+                    if (lobbyChatMillis > 0) {
+                        scheduler.scheduleAtFixedRate(() -> c.send(Server.LOBBY, "PUBLIC_CHAT:load test chatter"),
+                                lobbyChatMillis, lobbyChatMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+            });
+        }
+    }
+
+    // Threads that connect, wait for the greeting and disconnect as fast as they can.
+    private void startStorm(int threads) {
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                while (true) {
+                    SimClient c = SimClient.open(this, true);
+                    if (c != null) {
+                        c.awaitConnected();
+                        c.close();
+                    }
+                }
+            }, "loadtest-storm-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void startSampler(Server server, long start) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Runtime rt = Runtime.getRuntime();
+        timeseries.add("seconds,heap_used_mb,threads,clients,sessions,waiting,connections,messages_in,messages_out,moves_relayed,relay_p99_us");
+        sampler.scheduleAtFixedRate(() -> {
+            synchronized (timeseries) {
+                timeseries.add(String.format(Locale.ROOT, "%.1f,%.1f,%d,%d,%d,%d,%d,%d,%d,%d,%d",
+                        (System.nanoTime() - start) / 1e9,
+                        (rt.totalMemory() - rt.freeMemory()) / 1048576.0,
+                        threads.getThreadCount(),
+                        server.getCurrentClients(),
+                        server.getSessionCount(),
+                        server.getWaitingCount(),
+                        connections.get(),
+                        messagesIn.get(),
+                        messagesOut.get(),
+                        movesRelayed.get(),
+                        relayLatency.percentile(99)));
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+    }
+
+    private void printReport(PrintStream out, double seconds) {
+        out.println();
+        out.println("== Move relay latency (ms) ==");
+        relayLatency.outputPercentileDistribution(out, 1000.0);
+        out.println();
+        out.println("== Matchmaking wait (ms) ==");
+        matchWait.outputPercentileDistribution(out, 1000.0);
+        out.println();
+        out.println("== Connect latency (ms) ==");
+        connectLatency.outputPercentileDistribution(out, 1000.0);
+        out.println();
+        out.println(String.format(Locale.ROOT,
+                "messages/sec in=%.0f out=%.0f  connections/sec=%.1f  games=%d  moves=%d  connect failures=%d",
+                messagesIn.get() / seconds, messagesOut.get() / seconds, connections.get() / seconds,
+                gamesStarted.get(), movesRelayed.get(), connectFailures.get()));
+    }
+
+    private void writeJson(File file, String scenario, int clients, double seconds, ServerConfig config) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8")) {
+            out.println("{");
+            out.println("  \"scenario\": \"" + scenario + "\",");
+            out.println("  \"clients\": " + clients + ",");
+            out.println(String.format(Locale.ROOT, "  \"seconds\": %.1f,", seconds));
+            out.println("  \"server\": \"" + config + "\",");
+            out.println("  \"relayLatencyUs\": " + json(relayLatency) + ",");
+            out.println("  \"matchWaitUs\": " + json(matchWait) + ",");
+            out.println("  \"connectLatencyUs\": " + json(connectLatency) + ",");
+            out.println(String.format(Locale.ROOT, "  \"messagesInPerSec\": %.1f,", messagesIn.get() / seconds));
+            out.println(String.format(Locale.ROOT, "  \"messagesOutPerSec\": %.1f,", messagesOut.get() / seconds));
+            out.println(String.format(Locale.ROOT, "  \"connectionsPerSec\": %.1f,", connections.get() / seconds));
+            out.println("  \"connectFailures\": " + connectFailures.get() + ",");
+            out.println("  \"games\": " + gamesStarted.get() + ",");
+            out.println("  \"moves\": " + movesRelayed.get());
+            out.println("}");
+        }
+    }
+
+    private static String json(LatencyHistogram h) {
+        return String.format(Locale.ROOT,
+                "{\"count\": %d, \"mean\": %.1f, \"p50\": %d, \"p99\": %d, \"p999\": %d, \"max\": %d}",
+                h.count(), h.mean(), h.percentile(50), h.percentile(99), h.percentile(99.9), h.max());
+    }
+
+    private void writeCsv(File file) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8")) {
+            synchronized (timeseries) {
+                timeseries.forEach(out::println);
+            }
+        }
+    }
+
+    // One simulated player speaking the framed protocol over its own socket.
+    private static class SimClient {
+        private final LoadTest test;
+        private final Socket sock;
+        private final ObjectOutputStream out;
+        private final long openedAt;
+        private final CountDownLatch connected = new CountDownLatch(1);
+
+        private String channel;
+        private int movesThisGame;
+        private final int[] heights = new int[7];
+        private volatile long queuedAt;
+
+        private SimClient(LoadTest test, Socket sock, long openedAt) throws IOException {
+            this.test = test;
+            this.sock = sock;
+            this.openedAt = openedAt;
+            // its own id, so a router spreads the simulated players as it would real ones
+            Router.writeHello(sock.getOutputStream(), UUID.randomUUID().toString());
+            this.out = new ObjectOutputStream(sock.getOutputStream());
+            out.flush();
+        }
+
+        // Connect; a client that doesn't read stands in for a stalled or very slow peer.
+        static SimClient open(LoadTest test, boolean reads) {
+            long t0 = System.nanoTime();
+            try {
+                Socket s = new Socket();
+                s.setTcpNoDelay(true);
+                s.connect(new InetSocketAddress(test.host, test.port), 5000);
+                SimClient c = new SimClient(test, s, t0);
+                test.connections.incrementAndGet();
+                if (reads) {
+                    Thread reader = new Thread(c::readLoop, "loadtest-client");
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+                return c;
+            } catch (IOException e) {
+                test.connectFailures.incrementAndGet();
+                return null;
+            }
+        }
+
+        void awaitConnected() {
+            try {
+                connected.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void queue() {
+            queuedAt = System.nanoTime();
+            send(Server.MATCH, "QUEUE");
+        }
+
+        synchronized void send(String channel, String msg) {
+            try {
+                out.writeObject(Server.frame(channel, msg));
+                out.flush();
+                out.reset();
+                test.messagesOut.incrementAndGet();
+            } catch (IOException ignored) {}
+        }
+
+        void close() {
+            try {
+                sock.close();
+            } catch (IOException ignored) {}
+        }
+
+        private void readLoop() {
+            try (ObjectInputStream in = new ObjectInputStream(sock.getInputStream())) {
+                while (true) {
+                    String[] msg = Server.unframe(in.readObject().toString());
+                    test.messagesIn.incrementAndGet();
+                    handle(msg[0], msg[1]);
+                }
+            } catch (Exception ignored) {
+                // closed
+            }
+        }
+
+        private synchronized void handle(String ch, String payload) {
+            long now = System.nanoTime();
+            if (payload.startsWith("CONNECTED:")) {
+                test.connectLatency.record((now - openedAt) / 1000);
+                connected.countDown();
+            } else if (payload.startsWith("MATCHED:")) {
+                test.matchWait.record((now - queuedAt) / 1000);
+                test.gamesStarted.incrementAndGet();
+                channel = "G" + payload.substring(8);
+                movesThisGame = 0;
+                Arrays.fill(heights, 0);
+            } else if (ch.equals(channel)) {
+                if (payload.startsWith("MOVE:")) {
+                    Long sentAt = test.moveSentAt.remove(channel);
+                    if (sentAt != null) {
+                        test.relayLatency.record((now - sentAt) / 1000);
+                    }
+                    test.movesRelayed.incrementAndGet();
+                    heights[Integer.parseInt(payload.substring(5))]++;
+                    movesThisGame++;
+                } else if (payload.equals("TURN:true")) {
+                    if (test.thinkMillis > 0) {
+                        String game = channel;
+                        test.scheduler.schedule(() -> move(game), test.thinkMillis, TimeUnit.MILLISECONDS);
+                    } else {
+                        move(channel);
+                    }
+                } else if (payload.equals("DISCONNECT:opponent")) {
+                    channel = null;
+                    queue();
+                }
+            }
+        }
+
+        private synchronized void move(String game) {
+            if (game == null || !game.equals(channel)) {
+                return;
+            }
+            if (movesThisGame >= test.moves || isFull()) {
+                // game over: leave and play another
+                send(channel, "LEAVE");
+                channel = null;
+                queue();
+                return;
+            }
+            int col;
+            do {
+                col = ThreadLocalRandom.current().nextInt(7);
+            } while (heights[col] >= 6);
+            heights[col]++;
+            movesThisGame++;
+            test.moveSentAt.put(channel, System.nanoTime());
+            send(channel, "MOVE:" + col);
+        }
+
+        private boolean isFull() {
+            for (int h : heights) {
+                if (h < 6) return false;
+            }
+            return true;
+        }
+    }
+}
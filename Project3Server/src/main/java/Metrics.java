@@ -0,0 +1,209 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Server counters, gauges and histograms.
+// Updates are striped (LongAdder) or a single atomic increment (LatencyHistogram),
+// so client threads never contend on a lock to record something. Reads add up the
+// stripes and may be a moment behind, which is fine for a monitor.
+// The whole registry can be rendered in the Prometheus text format and served over HTTP.
+public class Metrics {
+	// upper bounds of the exported histogram buckets, in seconds
+	private static final double[] BUCKETS = {
+			0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1,
+			0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300, 900, 3600};
+
+	// sorted so the page comes out grouped by metric name
+	private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+	private interface Metric {
+		String name();
+		String help();
+		String type();
+		void write(StringBuilder out, String name, String labels);
+	}
+
+	// A count that only goes up.
+	public static class Counter implements Metric {
+		private final String name, help;
+		private final LongAdder value = new LongAdder();
+
+		Counter(String name, String help) {
+			this.name = name;
+			this.help = help;
+		}
+
+		public void increment() {
+			value.increment();
+		}
+
+		public void add(long n) {
+			value.add(n);
+		}
+
+		public long get() {
+			return value.sum();
+		}
+
+		public String name() { return name; }
+		public String help() { return help; }
+		public String type() { return "counter"; }
+
+		public void write(StringBuilder out, String name, String labels) {
+			out.append(name).append(labels).append(' ').append(get()).append('\n');
+		}
+	}
+
+	// A level that goes up and down, such as connected clients, read when exported.
+	public static class Gauge implements Metric {
+		private final String name, help;
+		private final LongSupplier supplier;
+
+		Gauge(String name, String help, LongSupplier supplier) {
+			this.name = name;
+			this.help = help;
+			this.supplier = supplier;
+		}
+
+		public long get() {
+			return supplier.getAsLong();
+		}
+
+		public String name() { return name; }
+		public String help() { return help; }
+		public String type() { return "gauge"; }
+
+		public void write(StringBuilder out, String name, String labels) {
+			out.append(name).append(labels).append(' ').append(get()).append('\n');
+		}
+	}
+
+	// A distribution of durations, recorded in units of 1/scale seconds
+	// (1_000_000 for microseconds, 1000 for milliseconds).
+	public static class Histogram implements Metric {
+		private final String name, help;
+		private final double scale;
+		private final LatencyHistogram values = new LatencyHistogram();
+
+		Histogram(String name, String help, double scale) {
+			this.name = name;
+			this.help = help;
+			this.scale = scale;
+		}
+
+		public void record(long value) {
+			values.record(value);
+		}
+
+		public LatencyHistogram values() {
+			return values;
+		}
+
+		// percentile (0-100) in seconds
+		public double percentile(double p) {
+			return values.percentile(p) / scale;
+		}
+
+		public String name() { return name; }
+		public String help() { return help; }
+		public String type() { return "histogram"; }
+
+		public void write(StringBuilder out, String name, String labels) {
+			String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+			for (double le : BUCKETS) {
+				out.append(name).append("_bucket").append(prefix).append("le=\"").append(format(le)).append("\"} ")
+						.append(values.countAtOrBelow(Math.round(le * scale))).append('\n');
+			}
+			long count = values.count();
+			out.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(count).append('\n');
+			out.append(name).append("_sum").append(labels).append(' ').append(format(values.sum() / scale)).append('\n');
+			out.append(name).append("_count").append(labels).append(' ').append(count).append('\n');
+		}
+	}
+
+	public Counter counter(String name, String help) {
+		return register(key(name, null, null), new Counter(name, help));
+	}
+
+	// One series of a labelled counter, e.g. counter("disconnects_total", "...", "cause", "eof").
+	// Further label/value pairs may follow.
+	public Counter counter(String name, String help, String label, String value, String... more) {
+		return register(key(name, label, value, more), new Counter(name, help));
+	}
+
+	public Gauge gauge(String name, String help, LongSupplier supplier) {
+		return register(key(name, null, null), new Gauge(name, help, supplier));
+	}
+
+	public Histogram histogram(String name, String help, double scale) {
+		return register(key(name, null, null), new Histogram(name, help, scale));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends Metric> T register(String key, T metric) {
+		Metric existing = metrics.putIfAbsent(key, metric);
+		return existing != null ? (T) existing : metric;
+	}
+
+	// name, a separator that sorts before any name character, then the label set if any
+	private static String key(String name, String label, String value, String... more) {
+		if (label == null) {
+			return name + '\0';
+		}
+		StringBuilder key = new StringBuilder(name).append('\0').append('{').append(label).append("=\"").append(value).append('"');
+		for (int i = 0; i + 1 < more.length; i += 2) {
+			key.append(',').append(more[i]).append("=\"").append(more[i + 1]).append('"');
+		}
+		return key.append('}').toString();
+	}
+
+	// Everything in the Prometheus text exposition format.
+	public String toPrometheus() {
+		StringBuilder out = new StringBuilder(4096);
+		String last = null;
+		for (Map.Entry<String, Metric> e : metrics.entrySet()) {
+			Metric m = e.getValue();
+			if (!m.name().equals(last)) {
+				out.append("# HELP ").append(m.name()).append(' ').append(m.help()).append('\n');
+				out.append("# TYPE ").append(m.name()).append(' ').append(m.type()).append('\n');
+				last = m.name();
+			}
+			String labels = e.getKey().substring(m.name().length() + 1);
+			m.write(out, m.name(), labels);
+		}
+		return out.toString();
+	}
+
+	// Serve toPrometheus() at http://<port>/metrics on one daemon thread.
+	public HttpServer serve(int port) throws IOException {
+		HttpServer http = HttpServer.create(new InetSocketAddress(port), 0);
+		http.createContext("/metrics", exchange -> {
+			byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "metrics-http");
+			t.setDaemon(true);
+			return t;
+		}));
+		http.start();
+		return http;
+	}
+
+	private static String format(double v) {
+		return BigDecimal.valueOf(v).stripTrailingZeros().toPlainString();
+	}
+}
@@ -0,0 +1,124 @@
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token buckets for one connection, one per kind of message plus one for all of them.
+// Each bucket is a single AtomicLong holding the time its next token is due (the
+// generic cell rate algorithm), so checking is one CAS and never locks. What happens
+// to a message over the limit is up to the kind's rule: drop it, hold the reader
+// back until a token is due, or disconnect.
+public class RateLimiter {
+	public enum Kind { ALL, CHAT, USERNAME, MOVE, QUERY, MATCH, OTHER }
+
+	public enum Action { DROP, THROTTLE, DISCONNECT }
+
+	// check() results besides a throttle delay in nanoseconds
+	public static final long ALLOW = 0, DROP = -1, DISCONNECT = -2;
+	// a throttled message that would wait longer than this is dropped instead
+	private static final long MAX_DELAY_NANOS = 1_000_000_000L;
+
+	public static class Rule {
+		final double perSecond;
+		final int burst;
+		final Action over;
+
+		public Rule(double perSecond, int burst, Action over) {
+			this.perSecond = perSecond;
+			this.burst = burst;
+			this.over = over;
+		}
+
+		@Override
+		public String toString() {
+			return perSecond + "/" + burst + "/" + over.name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	// The rules every connection shares. Kinds without a rule aren't limited.
+	public static class Policy {
+		final Map<Kind, Rule> rules = new EnumMap<>(Kind.class);
+
+		public static Policy defaults() {
+			Policy p = new Policy();
+			p.rules.put(Kind.ALL, new Rule(100, 200, Action.DISCONNECT));
+			p.rules.put(Kind.CHAT, new Rule(5, 10, Action.DROP));
+			p.rules.put(Kind.USERNAME, new Rule(1, 3, Action.DROP));
+			p.rules.put(Kind.MOVE, new Rule(20, 20, Action.THROTTLE));
+			p.rules.put(Kind.QUERY, new Rule(5, 10, Action.DROP));
+			p.rules.put(Kind.MATCH, new Rule(5, 10, Action.DROP));
+			return p;
+		}
+
+		// The defaults with overrides like "chat=2/5/drop,all=off"; "off" alone turns limiting off.
+		public static Policy parse(String spec) {
+			Policy p = defaults();
+			if (spec.trim().equalsIgnoreCase("off")) {
+				p.rules.clear();
+				return p;
+			}
+			for (String part : spec.split(",")) {
+				if (part.trim().isEmpty()) continue;
+				String[] kv = part.trim().split("=", 2);
+				Kind kind = Kind.valueOf(kv[0].trim().toUpperCase(Locale.ROOT));
+				if (kv[1].trim().equalsIgnoreCase("off")) {
+					p.rules.remove(kind);
+					continue;
+				}
+				String[] r = kv[1].trim().split("/");
+				p.rules.put(kind, new Rule(Double.parseDouble(r[0]), Integer.parseInt(r[1]),
+						Action.valueOf(r[2].toUpperCase(Locale.ROOT))));
+			}
+			return p;
+		}
+
+		@Override
+		public String toString() {
+			return rules.toString();
+		}
+	}
+
+	private final Rule[] rules = new Rule[Kind.values().length];
+	private final AtomicLong[] due = new AtomicLong[Kind.values().length];
+
+	public RateLimiter(Policy policy) {
+		for (Map.Entry<Kind, Rule> e : policy.rules.entrySet()) {
+			rules[e.getKey().ordinal()] = e.getValue();
+			due[e.getKey().ordinal()] = new AtomicLong(Long.MIN_VALUE);
+		}
+	}
+
+	// Take a token for a message of this kind (and one from ALL). Returns ALLOW, DROP,
+	// DISCONNECT, or how many nanoseconds to wait before handling it.
+	public long check(Kind kind, long now) {
+		long all = take(Kind.ALL, now);
+		if (all < 0) {
+			return all;
+		}
+		long own = take(kind, now);
+		return own < 0 ? own : Math.max(all, own);
+	}
+
+	// A dropped message has still spent its ALL token, so a flood of any one kind ends up
+	// tripping the ALL rule too.
+	private long take(Kind kind, long now) {
+		Rule rule = rules[kind.ordinal()];
+		if (rule == null) {
+			return ALLOW;
+		}
+		AtomicLong tat = due[kind.ordinal()];
+		long interval = (long) (1e9 / rule.perSecond);
+		long tolerance = interval * (rule.burst - 1);
+		while (true) {
+			long current = tat.get();
+			long start = Math.max(current, now);
+			long wait = start - now - tolerance;
+			if (wait > 0 && (rule.over != Action.THROTTLE || wait > MAX_DELAY_NANOS)) {
+				return rule.over == Action.DISCONNECT ? DISCONNECT : DROP;
+			}
+			if (tat.compareAndSet(current, start + interval)) {
+				return Math.max(ALLOW, wait);
+			}
+		}
+	}
+}
@@ -0,0 +1,416 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Gateway in front of several Server nodes.
+// Players connect to the router's port as if it were a server. Each connection is
+// placed on a node by consistent hashing of the id in the client's hello (its IP address
+// for a client that sends none), so a player who reconnects lands on the same node while
+// players sharing a host or a NAT spread out, and then piped through byte for byte.
+// Nodes skip the hello themselves, so clients talk to a node or the router alike. Nodes join over the cluster port with a
+// ClusterLink; the router forwards the games each one rates to all the others. Each
+// node applies them in its own order, and ratings depend on order, so the nodes'
+// leaderboards are close but not identical. A draining node leaves the ring at once,
+// so it gets no new players, and the router says when the last one it sent there has gone.
+//
+//   java Router --port=5555 --cluster-port=5550
+//   java Server --port=5601 --cluster-router=localhost:5550   (and more nodes)
+//
+// Type "nodes" for the table or "drain <node>" on the router's console.
+public class Router {
+	// points each node gets on the ring; more evens out the share each one gets
+	static final int VIRTUAL_NODES = 128;
+	// A client may open with these bytes and then its id (writeUTF), ahead of the object
+	// stream; the stream itself opens with 0xACED, so one without a hello is told apart.
+	// Must match Client.HELLO.
+	static final byte[] HELLO = {'C', '4', 'I', 'D'};
+	// how long a new connection gets to send its first bytes
+	private static final int HELLO_TIMEOUT_MILLIS = 10_000;
+
+	// Consistent hash ring: a key goes to the first point at or after its hash.
+	// Adding or removing a node only moves the keys next to that node's points.
+	public static class Ring<T> {
+		private final TreeMap<Long, T> points = new TreeMap<>();
+		private final Map<String, T> members = new HashMap<>();
+
+		public synchronized void add(String id, T node) {
+			remove(id);
+			members.put(id, node);
+			for (int i = 0; i < VIRTUAL_NODES; i++) {
+				points.put(hash(id + "#" + i), node);
+			}
+		}
+
+		public synchronized void remove(String id) {
+			T node = members.remove(id);
+			if (node == null) {
+				return;
+			}
+			for (int i = 0; i < VIRTUAL_NODES; i++) {
+				points.remove(hash(id + "#" + i), node);
+			}
+		}
+
+		// The nodes in the order a key tries them: its owner, then the next ones round the ring.
+		public synchronized List<T> lookup(String key) {
+			List<T> order = new ArrayList<>(members.size());
+			if (points.isEmpty()) {
+				return order;
+			}
+			long h = hash(key);
+			for (T node : points.tailMap(h).values()) {
+				if (order.size() == members.size()) break;
+				if (!order.contains(node)) order.add(node);
+			}
+			for (T node : points.headMap(h).values()) {
+				if (order.size() == members.size()) break;
+				if (!order.contains(node)) order.add(node);
+			}
+			return order;
+		}
+
+		public synchronized int size() {
+			return members.size();
+		}
+
+		// 64-bit FNV-1a, then a finalizer so nearby keys spread out
+		static long hash(String key) {
+			long h = 0xcbf29ce484222325L;
+			for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+				h = (h ^ (b & 0xff)) * 0x100000001b3L;
+			}
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			return h;
+		}
+	}
+
+	// A node as the router sees it.
+	private class Node {
+		final String id;
+		final InetSocketAddress address;
+		final DataOutputStream link;
+		// players piped to this node right now
+		final AtomicInteger players = new AtomicInteger();
+		volatile boolean draining = false;
+
+		Node(String id, InetSocketAddress address, DataOutputStream link) {
+			this.id = id;
+			this.address = address;
+			this.link = link;
+		}
+
+		synchronized void send(ClusterLink.Result r) {
+			try {
+				ClusterLink.writeResult(link, r);
+				link.flush();
+			} catch (IOException ignored) {
+				// the node's reader sees the broken link and removes it
+			}
+		}
+
+		@Override
+		public String toString() {
+			return id + " " + address.getHostString() + ":" + address.getPort() + " players=" + players.get() +
+					(draining ? " draining" : "");
+		}
+	}
+
+	private final int port;
+	private final int clusterPort;
+	private final Consumer<Serializable> callback;
+	private final Ring<Node> ring = new Ring<>();
+	private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+	private final Metrics metrics = new Metrics();
+	final Metrics.Counter routed = metrics.counter("connect4_router_connections_total", "Player connections piped to a node");
+	final Metrics.Counter unrouted = metrics.counter("connect4_router_rejected_total",
+			"Player connections closed because no node would take them");
+	final Metrics.Counter forwarded = metrics.counter("connect4_router_results_forwarded_total",
+			"Rated games passed from one node to the others");
+
+	public Router(int port, int clusterPort, Consumer<Serializable> callback) {
+		this.port = port;
+		this.clusterPort = clusterPort;
+		this.callback = callback;
+		metrics.gauge("connect4_router_nodes", "Nodes taking new players", ring::size);
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	// Open both ports; each accept loop runs on its own thread.
+	public void start() throws IOException {
+		ServerSocket players = listen(port);
+		ServerSocket cluster = listen(clusterPort);
+		thread("router-accept", () -> acceptPlayers(players)).start();
+		thread("router-cluster", () -> acceptNodes(cluster)).start();
+		log("Routing players from port " + port + ", nodes join on port " + clusterPort);
+	}
+
+	// Stop sending new players to a node. Returns false for an unknown node.
+	public boolean drain(String id) {
+		Node node = nodes.get(id);
+		if (node == null) {
+			return false;
+		}
+		node.draining = true;
+		ring.remove(id);
+		log("Draining " + id + ", " + node.players.get() + " players left");
+		drained(node);
+		return true;
+	}
+
+	public List<String> describeNodes() {
+		List<String> rows = new ArrayList<>();
+		for (Node node : nodes.values()) {
+			rows.add(node.toString());
+		}
+		Collections.sort(rows);
+		return rows;
+	}
+
+	private static ServerSocket listen(int port) throws IOException {
+		ServerSocket s = new ServerSocket();
+		s.setReuseAddress(true);
+		s.bind(new InetSocketAddress(port), 200);
+		return s;
+	}
+
+	private static Thread thread(String name, Runnable body) {
+		Thread t = new Thread(body, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+	private void acceptPlayers(ServerSocket server) {
+		while (true) {
+			Socket player;
+			try {
+				player = server.accept();
+			} catch (IOException e) {
+				log("Player socket error: " + e.getMessage());
+				return;
+			}
+			thread("router-connect", () -> route(player)).start();
+		}
+	}
+
+	// Pipe a player to its node, or the next one round the ring if that one won't answer.
+	private void route(Socket player) {
+		PushbackInputStream in;
+		String key;
+		try {
+			player.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+			in = new PushbackInputStream(player.getInputStream(), HELLO.length);
+			key = readHello(in);
+			player.setSoTimeout(0);
+		} catch (IOException e) {
+			unrouted.increment();
+			closeQuietly(player);
+			return;
+		}
+		if (key == null) {
+			// not the port: that changes with every connection
+			key = player.getInetAddress().getHostAddress();
+		}
+		for (Node node : ring.lookup(key)) {
+			Socket upstream = new Socket();
+			try {
+				upstream.connect(node.address, 3000);
+			} catch (IOException e) {
+				closeQuietly(upstream);
+				continue;
+			}
+			routed.increment();
+			node.players.incrementAndGet();
+			try {
+				player.setTcpNoDelay(true);
+				upstream.setTcpNoDelay(true);
+			} catch (IOException ignored) {}
+			// each direction gets a thread; the second one to finish closes both and counts the player gone
+			AtomicInteger open = new AtomicInteger(2);
+			Runnable done = () -> {
+				if (open.decrementAndGet() == 0) {
+					closeQuietly(player);
+					closeQuietly(upstream);
+					node.players.decrementAndGet();
+					drained(node);
+				}
+			};
+			// the hello stays here: the node only ever sees what follows it
+			thread("router-up", () -> pipe(player, in, upstream, done)).start();
+			thread("router-down", () -> pipe(upstream, null, player, done)).start();
+			return;
+		}
+		unrouted.increment();
+		closeQuietly(player);
+	}
+
+	// Read from in, or from's own stream if null, until it ends.
+	private static void pipe(Socket from, InputStream in, Socket to, Runnable done) {
+		byte[] buffer = new byte[8192];
+		try {
+			if (in == null) {
+				in = from.getInputStream();
+			}
+			OutputStream out = to.getOutputStream();
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		} catch (IOException ignored) {
+			// either side went away
+		} finally {
+			// let the other direction finish what it's sending, then wind down
+			try {
+				to.shutdownOutput();
+			} catch (IOException ignored) {}
+			try {
+				from.shutdownInput();
+			} catch (IOException ignored) {}
+			done.run();
+		}
+	}
+
+	// Take a client's hello off the front of in and return its id, or put back what was
+	// read and return null if the connection opens some other way.
+	static String readHello(PushbackInputStream in) throws IOException {
+		byte[] head = new byte[HELLO.length];
+		int n = 0;
+		while (n < head.length) {
+			int r = in.read(head, n, head.length - n);
+			if (r < 0) break;
+			n += r;
+		}
+		if (n == head.length && Arrays.equals(head, HELLO)) {
+			return new DataInputStream(in).readUTF();
+		}
+		in.unread(head, 0, n);
+		return null;
+	}
+
+	static void writeHello(OutputStream out, String id) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.write(HELLO);
+		data.writeUTF(id);
+		data.flush();
+	}
+
+	private void drained(Node node) {
+		if (node.draining && node.players.get() == 0) {
+			log("Node " + node.id + " has drained and can be restarted");
+		}
+	}
+
+	private void acceptNodes(ServerSocket server) {
+		while (true) {
+			Socket s;
+			try {
+				s = server.accept();
+			} catch (IOException e) {
+				log("Cluster socket error: " + e.getMessage());
+				return;
+			}
+			thread("router-node", () -> serveNode(s)).start();
+		}
+	}
+
+	private void serveNode(Socket s) {
+		Node node = null;
+		try {
+			s.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			if (in.readByte() != ClusterLink.HELLO) {
+				throw new IOException("no hello");
+			}
+			String id = in.readUTF();
+			String host = in.readUTF();
+			int nodePort = in.readInt();
+			node = new Node(id, new InetSocketAddress(host, nodePort), out);
+			Node old = nodes.put(id, node);
+			if (old != null) {
+				// a restarted node: it keeps its place on the ring
+				closeQuietly(old.link);
+			}
+			ring.add(id, node);
+			log("Node " + id + " joined at " + host + ":" + nodePort + " (" + ring.size() + " taking players)");
+
+			while (true) {
+				byte type = in.readByte();
+				if (type == ClusterLink.RESULT) {
+					ClusterLink.Result r = ClusterLink.readResult(in);
+					for (Node other : nodes.values()) {
+						if (other != node) {
+							other.send(r);
+						}
+					}
+					forwarded.increment();
+				} else if (type == ClusterLink.DRAIN) {
+					drain(id);
+				} else {
+					throw new IOException("Unexpected cluster frame " + type);
+				}
+			}
+		} catch (IOException e) {
+			if (node != null && nodes.remove(node.id, node)) {
+				ring.remove(node.id);
+				log("Node " + node.id + " left (" + ring.size() + " taking players)");
+			}
+		} finally {
+			closeQuietly(s);
+		}
+	}
+
+	private void log(String msg) {
+		if (callback != null)
+			callback.accept("CONN:" + msg);
+	}
+
+	private static void closeQuietly(Closeable c) {
+		try {
+			c.close();
+		} catch (IOException ignored) {}
+	}
+
+	public static void main(String[] args) throws IOException {
+		Properties none = new Properties();
+		int port = Integer.parseInt(ServerConfig.lookup(args, none, "port", "5555"));
+		int clusterPort = Integer.parseInt(ServerConfig.lookup(args, none, "cluster-port", "5550"));
+		int metricsPort = Integer.parseInt(ServerConfig.lookup(args, none, "metrics-port", "0"));
+		Router router = new Router(port, clusterPort, System.out::println);
+		router.start();
+		if (metricsPort > 0) {
+			router.getMetrics().serve(metricsPort);
+		}
+		BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+		while (true) {
+			String line = console.readLine();
+			if (line == null) {
+				// no console (e.g. started in the background): keep routing
+				try {
+					Thread.currentThread().join();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			line = line.trim();
+			if (line.equals("nodes")) {
+				router.describeNodes().forEach(System.out::println);
+			} else if (line.startsWith("drain ")) {
+				if (!router.drain(line.substring(6).trim())) System.out.println("No such node");
+			} else if (!line.isEmpty()) {
+				System.out.println("Commands: nodes, drain <node>");
+			}
+		}
+	}
+}
@@ -1,10 +1,31 @@
+import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class Server {
+	// Every message travels as "<channel>|<payload>" over one connection per client.
+	// LOBBY carries public chat and usernames, MATCH carries queueing, and each game
+	// gets its own "G<session id>" channel. TOURNAMENT carries sign-ups and results.
+	public static final String LOBBY = "LOBBY";
+	public static final String MATCH = "MATCH";
+	public static final String TOURNAMENT = "TOURNAMENT";
+	// several framed messages sent as one: BATCH|<frame><BATCH_SEPARATOR><frame>...
+	public static final String BATCH = "BATCH";
+	public static final char BATCH_SEPARATOR = '\u001e';
+
 	private int count = 1;
 	// unique ID generator for game sessions
 	private int sessionIdCounter = 1;
@@ -12,241 +33,953 @@ public class Server {
 
 	private final Queue<ClientThread> waiting = new ArrayDeque<>();
 	private final List<GameSession> sessions = new ArrayList<>();
+	// sizes of the two above, written under the waiting lock so readers don't need it
+	private volatile int waitingCount = 0;
+	private volatile int sessionCount = 0;
+	// every connected client, in or out of a game
+	private final List<ClientThread> clients = new CopyOnWriteArrayList<>();
 	private final Consumer<Serializable> callback;
+	private final ServerConfig config;
+
+	// unique usernames of connected users, plus a few reserved ones
+	private final UsernameRegistry usedUsernames = new UsernameRegistry("Server", "Admin", "System");
+
+	private final Metrics metrics = new Metrics();
+	final Metrics.Counter accepts = metrics.counter("connect4_accepts_total", "Connections accepted");
+	final Metrics.Counter messagesIn = metrics.counter("connect4_messages_in_total", "Messages read from clients");
+	final Metrics.Counter messagesOut = metrics.counter("connect4_messages_out_total", "Messages written to clients");
+	final Metrics.Counter bytesIn = metrics.counter("connect4_bytes_in_total", "Bytes read from client sockets");
+	final Metrics.Counter bytesOut = metrics.counter("connect4_bytes_out_total", "Bytes written to client sockets");
+	final Metrics.Counter sessionsStarted = metrics.counter("connect4_sessions_started_total", "Games started");
+	final Metrics.Histogram relayLatency = metrics.histogram("connect4_relay_seconds",
+			"Time from reading a game message to forwarding it to the opponent", 1_000_000);
+	final Metrics.Histogram queueWait = metrics.histogram("connect4_queue_wait_seconds",
+			"Time from QUEUE to being matched", 1_000_000);
+	final Metrics.Histogram sessionDuration = metrics.histogram("connect4_session_duration_seconds",
+			"Length of finished games", 1_000);
+	final Metrics.Counter aiSessions = metrics.counter("connect4_ai_sessions_started_total",
+			"Games started against a server AI");
+
+	// server-hosted opponents for clients nobody else has matched; null when turned off
+	private final AIPool aiPool;
+	// search results every AI game shares; null when there's no AI
+	private final EvalCache evalCache;
+	private final AIPool.Difficulty aiDifficulty;
+	// boards clients may queue for; empty allows any Variant can hold
+	private final Set<Variant> variants = new HashSet<>();
+	// queue timeouts and AI replies
+	private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "matchmaker");
+		t.setDaemon(true);
+		return t;
+	});
+	// leaderboard and AI cache snapshots, which can take a while, kept off the matchmaker
+	private final ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "snapshots");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// ratings from every finished game between two clients
+	private final Leaderboard leaderboard;
+	final Metrics.Counter gamesRated = metrics.counter("connect4_games_rated_total",
+			"Finished games fed to the leaderboard");
+
+	// link to the cluster router, which shares rated games with the other nodes; null when alone
+	private final ClusterLink cluster;
+	final Metrics.Counter clusterResults = metrics.counter("connect4_cluster_results_total",
+			"Games rated on other nodes and added to this leaderboard");
+
+	// message rate limits every connection gets its own buckets for
+	private final RateLimiter.Policy limits;
+	// [kind][action] for messages over a limit
+	private final Metrics.Counter[][] overLimit = new Metrics.Counter[RateLimiter.Kind.values().length][];
 
-	// List of unique usernames of the user
-	private final List<String> usedUsernames = Collections.synchronizedList(new ArrayList<>());
+	// chat waiting to go out to each client is flushed from here, as one frame per window
+	private final ScheduledExecutorService chatFlusher = Executors.newScheduledThreadPool(2, r -> {
+		Thread t = new Thread(r, "chat");
+		t.setDaemon(true);
+		return t;
+	});
+	final Metrics.Counter chatFrames = metrics.counter("connect4_chat_frames_total",
+			"Frames of coalesced chat written to clients");
+	final Metrics.Counter chatLines = metrics.counter("connect4_chat_lines_total",
+			"Chat messages written to clients, however they were framed");
+	final Metrics.Counter chatDeflated = metrics.counter("connect4_chat_deflated_bytes_total",
+			"Chat bytes before compression, for clients that asked for it");
+	final Metrics.Counter chatCompressed = metrics.counter("connect4_chat_compressed_bytes_total",
+			"Chat bytes after compression, for clients that asked for it");
+
+	// clients signed up for the next tournament, and the one running (both guarded by waiting)
+	private final List<ClientThread> entrants = new ArrayList<>();
+	private TournamentRun tournament;
+
+	// NEW until start(), then RUNNING; DRAINING from drain() until every connection is closed
+	public enum State { NEW, RUNNING, DRAINING, STOPPED }
+	private volatile State state = State.NEW;
+	private volatile ServerSocket listener;
+	private HttpServer metricsHttp;
+	final Metrics.Counter sessionsCutOff = metrics.counter("connect4_sessions_cut_off_total",
+			"Games still going when a drain ran out of time");
 
 //	public Server() { this(null); }
 	public Server(Consumer<Serializable> callback) {
+		this(ServerConfig.defaults(), callback);
+	}
+
+	public Server(ServerConfig config, Consumer<Serializable> callback) {
+		this.config = config;
 		this.callback = callback;
 
-		// Add some reserved usernames
-		usedUsernames.add("Server");
-		usedUsernames.add("Admin");
-		usedUsernames.add("System");
+		metrics.gauge("connect4_clients", "Connected clients", clients::size);
+		metrics.gauge("connect4_sessions", "Games in progress", () -> sessionCount);
+		metrics.gauge("connect4_waiting", "Clients waiting for an opponent", () -> waitingCount);
+		aiDifficulty = AIPool.Difficulty.parse(config.aiDifficulty, AIPool.Difficulty.MEDIUM);
+		for (String spec : config.variants.split(",")) {
+			if (!spec.trim().isEmpty()) variants.add(Variant.parse(spec));
+		}
+		limits = RateLimiter.Policy.parse(config.rateLimits);
+		for (RateLimiter.Kind kind : RateLimiter.Kind.values()) {
+			overLimit[kind.ordinal()] = new Metrics.Counter[RateLimiter.Action.values().length];
+			for (RateLimiter.Action action : RateLimiter.Action.values()) {
+				overLimit[kind.ordinal()][action.ordinal()] = metrics.counter("connect4_rate_limited_total",
+						"Messages over a rate limit, by kind and action",
+						"kind", kind.name().toLowerCase(Locale.ROOT), "action", action.name().toLowerCase(Locale.ROOT));
+			}
+		}
+		evalCache = config.aiWaitMillis > 0 && config.evalCacheEntries > 0 ? loadEvalCache() : null;
+		aiPool = config.aiWaitMillis > 0 ? new AIPool(config.aiThreads, config.aiCpuShare, metrics, evalCache) : null;
+		leaderboard = loadLeaderboard();
+		metrics.gauge("connect4_rated_players", "Players on the leaderboard", leaderboard::size);
+		if (!config.clusterRouter.isEmpty()) {
+			String id = config.nodeId.isEmpty() ? "node-" + config.port : config.nodeId;
+			cluster = new ClusterLink(config.clusterRouter, id, config.advertiseHost, config.port, r -> {
+				leaderboard.record(r.a, r.b, r.outcome);
+				clusterResults.increment();
+			}, callback);
+		} else {
+			cluster = null;
+		}
+	}
+
+	// Open the port and start taking players. Only the first call does anything.
+	public synchronized void start() {
+		if (state != State.NEW) {
+			return;
+		}
+		state = State.RUNNING;
+		if (!config.leaderboardFile.isEmpty() && config.leaderboardSnapshotSeconds > 0) {
+			snapshots.scheduleAtFixedRate(this::saveLeaderboard, config.leaderboardSnapshotSeconds,
+					config.leaderboardSnapshotSeconds, TimeUnit.SECONDS);
+		}
+		if (evalCache != null && !config.evalCacheFile.isEmpty() && config.leaderboardSnapshotSeconds > 0) {
+			snapshots.scheduleAtFixedRate(this::saveEvalCache, config.leaderboardSnapshotSeconds,
+					config.leaderboardSnapshotSeconds, TimeUnit.SECONDS);
+		}
+		if (cluster != null) {
+			cluster.start();
+		}
+		if (config.metricsPort > 0) {
+			try {
+				metricsHttp = metrics.serve(config.metricsPort);
+			} catch (IOException e) {
+				if (callback != null)
+					callback.accept("CONN:Metrics endpoint failed: " + e.getMessage());
+			}
+		}
 
 		new TheServer().start();
 	}
 
+	// Shut down without cutting games off. Stop taking connections and matches (and leave
+	// the cluster router's rotation), give the games in progress until timeoutMillis to
+	// finish, save the leaderboard, then flush what's queued for each client and close
+	// every connection at once. Returns the number of games still going at the deadline.
+	// Later calls return 0 straight away.
+	public int drain(long timeoutMillis) {
+		synchronized (this) {
+			if (state == State.DRAINING || state == State.STOPPED) {
+				return 0;
+			}
+			state = State.DRAINING;
+		}
+		if (callback != null)
+			callback.accept("CONN:Draining: " + sessionCount + " games in progress, " + clients.size() +
+					" clients, up to " + timeoutMillis / 1000 + "s");
+		if (cluster != null) {
+			cluster.drain();
+		}
+		ServerSocket l = listener;
+		if (l != null) {
+			try {
+				l.close();
+			} catch (IOException ignored) {}
+		}
+		List<ClientThread> queued;
+		synchronized (waiting) {
+			queued = new ArrayList<>(waiting);
+			waiting.clear();
+			waitingCount = 0;
+			entrants.clear();
+		}
+		for (ClientThread c : clients) {
+			c.send(LOBBY, "SERVER_CLOSING:" + (timeoutMillis + 999) / 1000);
+		}
+		for (ClientThread c : queued) {
+			c.send(MATCH, "STATUS:CLOSING");
+		}
+
+		// a casual game is done once it's won or drawn; restarts are refused from now on
+		long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+		List<GameSession> left;
+		while (true) {
+			synchronized (waiting) {
+				left = new ArrayList<>(sessions);
+			}
+			left.removeIf(GameSession::endIfDecided);
+			if (left.isEmpty() || System.nanoTime() >= deadline) {
+				break;
+			}
+			try {
+				Thread.sleep(Math.min(50, Math.max(1, (deadline - System.nanoTime()) / 1_000_000)));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		int cutOff = 0;
+		for (GameSession s : left) {
+			if (s.end()) {
+				cutOff++;
+			}
+		}
+		sessionsCutOff.add(cutOff);
+
+		// let a snapshot in progress finish first: both write the same files
+		snapshots.shutdown();
+		try {
+			snapshots.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		saveLeaderboard();
+		saveEvalCache();
+		timers.shutdownNow();
+		if (aiPool != null) {
+			aiPool.shutdown();
+		}
+		TournamentRun t;
+		synchronized (waiting) {
+			t = tournament;
+		}
+		if (t != null) {
+			t.starter.shutdownNow();
+		}
+		closeAll();
+		chatFlusher.shutdownNow();
+		if (cluster != null) {
+			cluster.close();
+		}
+		if (metricsHttp != null) {
+			metricsHttp.stop(0);
+		}
+		state = State.STOPPED;
+		if (callback != null)
+			callback.accept("CONN:Stopped; " + cutOff + " games cut off");
+		return cutOff;
+	}
+
+	// Shut down now: drain with no time for games to finish.
+	public void stop() {
+		drain(0);
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	// Flush every client's queued chat and close its socket, all in parallel, so a client
+	// that has stopped reading holds up nobody else. Anyone still stuck writing after a
+	// couple of seconds has the socket closed under them.
+	private void closeAll() {
+		List<ClientThread> all = new ArrayList<>(clients);
+		if (all.isEmpty()) {
+			return;
+		}
+		ExecutorService closer = Executors.newFixedThreadPool(Math.min(all.size(), 16), r -> {
+			Thread t = new Thread(r, "closer");
+			t.setDaemon(true);
+			return t;
+		});
+		for (ClientThread c : all) {
+			closer.execute(c::close);
+		}
+		closer.shutdown();
+		try {
+			closer.awaitTermination(2, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (ClientThread c : all) {
+			c.closeSocket();
+		}
+		closer.shutdownNow();
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	public Leaderboard getLeaderboard() {
+		return leaderboard;
+	}
+
+	private Leaderboard loadLeaderboard() {
+		File file = new File(config.leaderboardFile);
+		if (config.leaderboardFile.isEmpty() || !file.exists()) {
+			return new Leaderboard();
+		}
+		try {
+			long start = System.nanoTime();
+			Leaderboard loaded = Leaderboard.load(file);
+			if (callback != null)
+				callback.accept("CONN:Loaded " + loaded.size() + " ratings in " +
+						(System.nanoTime() - start) / 1_000_000 + " ms");
+			return loaded;
+		} catch (IOException e) {
+			if (callback != null)
+				callback.accept("CONN:Leaderboard not loaded, starting empty: " + e.getMessage());
+			return new Leaderboard();
+		}
+	}
+
+	private EvalCache loadEvalCache() {
+		EvalCache cache = new EvalCache(config.evalCacheEntries, metrics);
+		File file = new File(config.evalCacheFile);
+		if (config.evalCacheFile.isEmpty() || !file.exists()) {
+			return cache;
+		}
+		try {
+			long start = System.nanoTime();
+			int n = cache.load(file);
+			if (callback != null)
+				callback.accept("CONN:Loaded " + n + " cached AI positions in " +
+						(System.nanoTime() - start) / 1_000_000 + " ms");
+		} catch (IOException e) {
+			if (callback != null)
+				callback.accept("CONN:AI cache not loaded, starting cold: " + e.getMessage());
+		}
+		return cache;
+	}
+
+	// Write the AI's cached positions to disk, for the next start.
+	public void saveEvalCache() {
+		if (evalCache == null || config.evalCacheFile.isEmpty()) {
+			return;
+		}
+		try {
+			evalCache.save(new File(config.evalCacheFile));
+		} catch (IOException e) {
+			if (callback != null)
+				callback.accept("CONN:AI cache snapshot failed: " + e.getMessage());
+		}
+	}
+
+	// Write the ratings to disk; runs on its own thread, so a slow disk never delays a game.
+	public void saveLeaderboard() {
+		if (config.leaderboardFile.isEmpty()) {
+			return;
+		}
+		try {
+			leaderboard.save(new File(config.leaderboardFile));
+		} catch (IOException e) {
+			if (callback != null)
+				callback.accept("CONN:Leaderboard snapshot failed: " + e.getMessage());
+		}
+	}
+
 	// returns the number of active games being played
 	public int getSessionCount() {
-		return sessions.size();
+		return sessionCount;
 	}
 
     // provides us with the total number of clients connected
 	public int getCurrentClients() {
-		return sessions.size() * 2 + waiting.size();
+		return clients.size();
 	}
 
 	// Shows how many users are waiting on the multiplayer session for another player to join
 	public int getWaitingCount() {
-		return waiting.size();
+		return waitingCount;
+	}
+
+	public int getEntrantCount() {
+		synchronized (waiting) {
+			return entrants.size();
+		}
+	}
+
+	// Start a tournament for everyone who sent TOURNAMENT|JOIN and isn't in a game.
+	// rounds only applies to Swiss; 0 plays enough to separate a winner.
+	// Returns false if one is already running or fewer than two can play.
+	public boolean startTournament(Bracket.Format format, int rounds) {
+		TournamentRun run;
+		List<ClientThread> busy = new ArrayList<>();
+		synchronized (waiting) {
+			if (tournament != null || state != State.RUNNING) {
+				return false;
+			}
+			List<ClientThread> players = new ArrayList<>();
+			for (ClientThread ct : entrants) {
+				if (ct.session != null) {
+					busy.add(ct);
+				} else if (ct.isAlive()) {
+					players.add(ct);
+				}
+			}
+			if (players.size() < 2) {
+				return false;
+			}
+			entrants.clear();
+			waiting.removeAll(players);
+			waitingCount = waiting.size();
+			run = new TournamentRun(format, players, rounds);
+			tournament = run;
+		}
+		for (ClientThread ct : busy) {
+			ct.send(TOURNAMENT, "LEFT");
+		}
+		run.starter.execute(run::nextRound);
+		return true;
 	}
 
 	//the main server thread
 	private class TheServer extends Thread {
 		@Override
 		public void run() {
-			try (ServerSocket serverSocket = new ServerSocket(5555)) {
+			try (ServerSocket serverSocket = new ServerSocket()) {
+				serverSocket.setReuseAddress(true);
+				if (config.receiveBufferSize > 0) {
+					// must be set before bind to apply to accepted sockets
+					serverSocket.setReceiveBufferSize(config.receiveBufferSize);
+				}
+				InetSocketAddress address = config.bindAddress.isEmpty()
+						? new InetSocketAddress(config.port)
+						: new InetSocketAddress(config.bindAddress, config.port);
+				serverSocket.bind(address, config.backlog);
+				listener = serverSocket;
+				if (state != Server.State.RUNNING) {
+					return; // drained before we got here
+				}
+
 				// log server setup
 				if (callback != null)
-					callback.accept("CONN:Server listening on port " + serverSocket.getLocalPort());
+					callback.accept("CONN:Server listening on " + config);
 				// connects the new client in and matchmakes them with another client on the server
 				// for a multiplayer game
 				while (true) {
 					Socket sock = serverSocket.accept();
+					if (state != Server.State.RUNNING) {
+						sock.close();
+						continue;
+					}
+					accepts.increment();
 					ClientThread ct = new ClientThread(sock, count++);
+					// together with drain()'s state change, so a client the drain will tell and
+					// close itself isn't also cut off here before it hears why
+					boolean late;
+					synchronized (Server.this) {
+						late = state != Server.State.RUNNING;
+						if (!late) {
+							clients.add(ct);
+						}
+					}
 					ct.start();
+					if (late) {
+						ct.closeSocket(); // a drain started while this one was connecting
+					}
 
 					// Log connection
 					if (callback != null)
 						callback.accept("CONN:Client #" + ct.count + " connected with username " + ct.username);
-
-					ClientThread opponent = null;
-					synchronized (waiting) {
-						// removes any dead threads from the queue
-						Iterator<ClientThread> it = waiting.iterator();
-						while (it.hasNext()) {
-							ClientThread t = it.next();
-							if (!t.isAlive()) {
-								it.remove();
-							}
-						}
-						// checks if there is a client in the waiting queue
-						// if no one is present then add the client in the queue
-						// else connect the client with another one in the queue
-						if (waiting.isEmpty()) {
-							waiting.add(ct);
-						} else {
-							opponent = waiting.remove();
-						}
-					}
-
-					if (opponent == null) {
-						// No opponent yet
-						ct.send("STATUS:WAITING");
-						// Send current username
-						ct.send("USERNAME_ACCEPTED:" + ct.username);
-						// Send list of active usernames
-						ct.send("USERNAME_LIST:" + getUsernameList());
-
-						if (callback != null)
-							callback.accept("GAME:Client #" + ct.count +
-									" waiting (" + waiting.size() + " in queue)");
-					} else {
-						// Start a new session
-						int sid = sessionIdCounter++;
-						if (callback != null)
-							callback.accept("GAME:Starting session " + sid +
-									" between Client #" + opponent.count +
-									" (" + opponent.username + ") and Client #" + ct.count +
-									" (" + ct.username + ")");
-						GameSession session = new GameSession(sid, opponent, ct);
-						sessions.add(session);
-						session.start();
-					}
 				}
 
 			} catch (IOException e) {
-				if (callback != null)
+				// closing the socket is how drain() stops us
+				if (callback != null && state == Server.State.RUNNING)
 					callback.accept("CONN:Server socket error: " + e.getMessage());
 			}
 		}
 	}
 
-	// helper function to seperate the usernames
-	private String getUsernameList() {
-		return String.join(",", usedUsernames);
+	// Prefix a payload with its channel.
+	public static String frame(String channel, String payload) {
+		return channel + "|" + payload;
+	}
+
+	// Split a framed message into {channel, payload}. Unframed messages count as lobby traffic.
+	public static String[] unframe(String msg) {
+		int bar = msg.indexOf('|');
+		if (bar < 0) {
+			return new String[]{LOBBY, msg};
+		}
+		return new String[]{msg.substring(0, bar), msg.substring(bar + 1)};
+	}
+
+	// Send a lobby message to every connected client except the sender.
+	private void broadcast(ClientThread from, String msg) {
+		for (ClientThread c : clients) {
+			if (c != from) {
+				c.send(LOBBY, msg);
+			}
+		}
+	}
+
+	// Whether clients may queue for v under the variants setting.
+	private boolean offered(Variant v) {
+		return variants.isEmpty() || variants.contains(v);
+	}
+
+	// Put a client in the matchmaking queue, or pair it with someone already waiting.
+	private void enqueue(ClientThread ct, Variant variant) {
+		ClientThread opponent = null;
+		GameSession session = null;
+		int ticket;
+		synchronized (waiting) {
+			if (ct.session != null || ct.event != null || waiting.contains(ct)) {
+				return;
+			}
+			if (state != State.RUNNING) {
+				ct.send(MATCH, "STATUS:CLOSING");
+				return;
+			}
+			ct.variant = variant;
+			// removes any dead threads from the queue
+			Iterator<ClientThread> it = waiting.iterator();
+			while (it.hasNext()) {
+				ClientThread t = it.next();
+				if (!t.isAlive()) {
+					it.remove();
+				}
+			}
+			// checks if someone in the waiting queue wants the same board
+			// if no one does then add the client in the queue
+			// else connect the client with the one who has waited longest
+			for (ClientThread t : waiting) {
+				if (t.variant.equals(variant)) {
+					opponent = t;
+					break;
+				}
+			}
+			if (opponent == null) {
+				waiting.add(ct);
+				ct.queuedAt = System.nanoTime();
+			} else {
+				waiting.remove(opponent);
+				session = new GameSession(sessionIdCounter++, opponent, ct, variant);
+				sessions.add(session);
+				queueWait.record((System.nanoTime() - opponent.queuedAt) / 1000);
+				queueWait.record(0); // matched straight away
+			}
+			waitingCount = waiting.size();
+			sessionCount = sessions.size();
+			ticket = ++ct.queueTicket;
+		}
+
+		if (session == null) {
+			// No opponent yet
+			ct.send(MATCH, "STATUS:WAITING");
+			if (callback != null)
+				callback.accept("GAME:" + ct.describe() +
+						" waiting (" + waitingCount + " in queue)");
+			if (aiPool != null) {
+				timers.schedule(() -> seatAI(ct, ticket), config.aiWaitMillis, TimeUnit.MILLISECONDS);
+			}
+		} else {
+			startSession(session);
+		}
+	}
+
+	// Nobody came along in time: play the waiting client against a server AI.
+	private void seatAI(ClientThread ct, int ticket) {
+		GameSession session;
+		synchronized (waiting) {
+			if (ct.queueTicket != ticket || ct.session != null || state != State.RUNNING || !waiting.remove(ct)) {
+				return; // matched, cancelled or queued again since
+			}
+			session = new GameSession(sessionIdCounter++, ct, new AISeat(ct.difficulty, ct.variant), ct.variant);
+			sessions.add(session);
+			queueWait.record((System.nanoTime() - ct.queuedAt) / 1000);
+			waitingCount = waiting.size();
+			sessionCount = sessions.size();
+		}
+		aiSessions.increment();
+		startSession(session);
+	}
+
+	// Tournament sign-ups; the event itself is started from the server monitor.
+	private void handleTournament(ClientThread ct, String payload) {
+		String reply;
+		synchronized (waiting) {
+			if (payload.equals("JOIN")) {
+				if (ct.event != null) {
+					reply = "BUSY";
+				} else {
+					if (!entrants.contains(ct)) {
+						entrants.add(ct);
+					}
+					reply = "JOINED:" + entrants.size();
+				}
+			} else if (payload.equals("LEAVE")) {
+				entrants.remove(ct);
+				reply = "LEFT";
+			} else {
+				return;
+			}
+		}
+		TournamentRun running = ct.event;
+		if (payload.equals("LEAVE") && running != null) {
+			running.withdraw(ct);
+		}
+		ct.send(TOURNAMENT, reply);
+		if (callback != null)
+			callback.accept("GAME:" + ct.describe() + " tournament " + reply.toLowerCase(Locale.ROOT));
+	}
+
+	private void startSession(GameSession session) {
+		sessionsStarted.increment();
+		if (callback != null)
+			callback.accept("GAME:Starting session " + session.id +
+					" between " + session.p1.describe() + " and " + session.p2.describe() +
+					(session.variant.isStandard() ? "" : " on " + session.variant));
+		session.start();
+	}
+
+	// One side of a game: a connected client, or an AI the server runs itself.
+	interface Seat {
+		void send(String channel, String msg);
+		// chat may be held back briefly and sent along with other chat
+		default void sendChat(String channel, String msg) { send(channel, msg); }
+		void setSession(GameSession s);
+		String username();
+		// how the seat appears in the monitor's log
+		String describe();
 	}
 
 	// private class to show an active game session
 	private class GameSession {
 		private final int id;
-		private final ClientThread p1, p2;
+		private final String channel;
+		private final Seat p1, p2;
 		private final Random rand = new Random();
+		private final long startedAt = System.nanoTime();
+		private final Variant variant;
+		// set for tournament games, which the server referees: a moves first, and
+		// the game ends on four in a row, a full board or a forfeit
+		private final TournamentRun event;
+		// the position as the server has seen it, so finished games can be rated
+		// (and tournament games refereed); the fields below are guarded by board
+		private final Board board;
+		private Seat first;
+		// a move arrived out of turn or into a full column, so this game won't be rated
+		private boolean unrated = false;
+		private boolean decided = false;
+		// what play() returns besides a result (1 first seat won, 0 draw, -1 second seat won)
+		private static final int IGNORED = -2, ONGOING = 2;
+
+		public GameSession(int id, Seat a, Seat b, Variant variant) {
+			this(id, a, b, variant, null);
+		}
 
-		public GameSession(int id, ClientThread a, ClientThread b) {
+		// tournament games are always the standard board
+		public GameSession(int id, Seat a, Seat b, TournamentRun event) {
+			this(id, a, b, Variant.STANDARD, event);
+		}
+
+		private GameSession(int id, Seat a, Seat b, Variant variant, TournamentRun event) {
 			this.id = id;
+			this.channel = "G" + id;
 			this.p1 = a;
 			this.p2 = b;
+			this.variant = variant;
+			this.board = variant.newBoard();
+			this.event = event;
 			a.setSession(this);
 			b.setSession(this);
-
-			// Send opponent usernames
-			a.send("OPPONENT_NAME:" + b.username);
-			b.send("OPPONENT_NAME:" + a.username);
 		}
 
 		//starts a session and chooses a random player to go first
 		public void start() {
-			// randomly choose who starts
-			if (rand.nextBoolean()) {
-				p1.send("TURN:true");
-				p2.send("TURN:false");
+			// Point both clients at the game channel, then send opponent usernames
+			p1.send(MATCH, "MATCHED:" + id);
+			p2.send(MATCH, "MATCHED:" + id);
+			p1.send(channel, "OPPONENT_NAME:" + p2.username());
+			p2.send(channel, "OPPONENT_NAME:" + p1.username());
+
+			// randomly choose who starts, except in tournaments where the pairing decides
+			boolean p1First = event != null || rand.nextBoolean();
+			synchronized (board) {
+				first = p1First ? p1 : p2;
+				startClock();
+			}
+			if (p1First) {
+				p1.send(channel, "TURN:true");
+				p2.send(channel, "TURN:false");
 			} else {
-				p2.send("TURN:true");
-				p1.send("TURN:false");
+				p2.send(channel, "TURN:true");
+				p1.send(channel, "TURN:false");
 			}
 		}
 
+		Seat opponentOf(Seat c) {
+			return c == p1 ? p2 : p1;
+		}
+
 		// Handles the moves of the two player
-		public void relayMove(ClientThread from, String msg) {
-			// Check if this is a username change request
-			if (msg.startsWith("SET_USERNAME:")) {
-				processUsernameRequest(from, msg.substring(13));
+		public void relayMove(Seat from, String msg) {
+			if (msg.equals("RESET") && state != State.RUNNING) {
+				return; // no new games while the server drains
+			}
+			if (event != null && (msg.startsWith("MOVE:") || msg.equals("RESET"))) {
+				referee(from, msg);
 				return;
 			}
-
-			// forward the move/reset
-			ClientThread to = (from == p1 ? p2 : p1);
-			to.send(msg);
-			from.send("TURN:false");
-			to.send("TURN:true");
+			// forward the move/reset/chat; only moves and resets pass the turn
+			Seat to = opponentOf(from);
+			if (msg.startsWith("PRIVATE_CHAT:")) {
+				to.sendChat(channel, msg);
+			} else {
+				to.send(channel, msg);
+			}
+			if (msg.startsWith("MOVE:") || msg.equals("RESET")) {
+				from.send(channel, "TURN:false");
+				to.send(channel, "TURN:true");
+			}
+			// follow along for the leaderboard
+			if (msg.startsWith("MOVE:")) {
+				int outcome;
+				synchronized (board) {
+					outcome = unrated ? IGNORED : play(from, column(msg));
+					if (outcome == IGNORED && !decided) {
+						unrated = true;
+					}
+				}
+				if (outcome != IGNORED && outcome != ONGOING) {
+					rate(outcome);
+				}
+			} else if (msg.equals("RESET")) {
+				synchronized (board) {
+					board.reset();
+					// whoever resets hands the first move to the other side
+					first = to;
+					unrated = false;
+					decided = false;
+				}
+			}
 
 			// notes the moves
 			if (callback != null) {
 				String detail = msg.startsWith("MOVE:")
 						? "column " + msg.substring(5)
 						: msg;
-				callback.accept("GAME:Session " + id +
-						": Client #" + from.count +
-						" (" + from.username + ")" +
-						" played " + detail);
+				callback.accept("GAME:Session " + id + ": " + from.describe() + " played " + detail);
 			}
 		}
 
-		// Handle username change requests
-		private void processUsernameRequest(ClientThread client, String requestedUsername) {
-			String oldUsername = client.username;
+		// Tournament moves: only the player to move, only legal columns, and no restarts.
+		private void referee(Seat from, String msg) {
+			int outcome;
+			synchronized (board) {
+				outcome = play(from, column(msg));
+				if (outcome == IGNORED) {
+					return; // RESET, out of turn, or a full column
+				}
+				Seat to = opponentOf(from);
+				to.send(channel, msg);
+				from.send(channel, "TURN:false");
+				if (outcome == ONGOING) {
+					to.send(channel, "TURN:true");
+					startClock();
+				}
+			}
+			if (callback != null)
+				callback.accept("GAME:Session " + id + ": " + from.describe() + " played column " + msg.substring(5));
+			if (outcome != ONGOING && end()) {
+				rate(outcome);
+				event.gameOver(this, outcome);
+			}
+		}
 
-			// Check if requested username is already in use
-			if (usedUsernames.contains(requestedUsername)) {
-				// Username is taken
-				client.send("USERNAME_TAKEN:" + requestedUsername);
-			} else {
-				// Username is available
-				usedUsernames.remove(oldUsername);
-				client.username = requestedUsername;
-				usedUsernames.add(requestedUsername);
+		// Play col for from if it's their turn and the column has room. Call with board locked.
+		private int play(Seat from, int col) {
+			Seat toMove = board.moves() % 2 == 0 ? first : opponentOf(first);
+			if (decided || from != toMove || col < 0 || col >= board.width() || !board.canPlay(col)) {
+				return IGNORED;
+			}
+			board.play(col);
+			if (board.lastMoveWon()) {
+				decided = true;
+				return from == p1 ? 1 : -1;
+			}
+			if (board.isFull()) {
+				decided = true;
+				return 0;
+			}
+			return ONGOING;
+		}
 
-				// Confirm to the client
-				client.send("USERNAME_ACCEPTED:" + requestedUsername);
+		private int column(String msg) {
+			try {
+				return msg.startsWith("MOVE:") ? Integer.parseInt(msg.substring(5)) : -1;
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
 
-				// Notify opponent about username change
-				ClientThread opponent = (client == p1 ? p2 : p1);
-				opponent.send("OPPONENT_RENAMED:" + requestedUsername);
+		// Feed a finished game between two clients who have picked names to the leaderboard.
+		// Default names start again from User1 on every restart, so they belong to nobody for long.
+		private void rate(int outcome) {
+			if (p1 instanceof ClientThread && p2 instanceof ClientThread
+					&& ((ClientThread) p1).pickedName() && ((ClientThread) p2).pickedName()) {
+				leaderboard.record(p1.username(), p2.username(), outcome);
+				gamesRated.increment();
+				if (cluster != null) {
+					cluster.publish(p1.username(), p2.username(), outcome);
+				}
+			}
+		}
 
-				// Log the change
-				if (callback != null) {
-					callback.accept("GAME:Client #" + client.count +
-							" changed username from " + oldUsername +
-							" to " + requestedUsername);
+		// While draining: take a won or drawn game off the server. False if it's still going.
+		boolean endIfDecided() {
+			synchronized (board) {
+				if (!decided) {
+					return false;
 				}
 			}
+			end();
+			return true;
 		}
 
-		// Checks if a player disconnects in the session
-		public void playerLeft(ClientThread gone) {
-			ClientThread other = (gone == p1 ? p2 : p1);
-			other.send("DISCONNECT:opponent");
-			if (callback != null)
-				callback.accept("GAME:Session " + id +
-						": Client #" + gone.count +
-						" (" + gone.username + ")" +
-						" disconnected");
+		// Take the session off the server; false if it had already ended.
+		private boolean end() {
+			synchronized (waiting) {
+				if (!sessions.remove(this)) {
+					return false;
+				}
+				sessionCount = sessions.size();
+				p1.setSession(null);
+				p2.setSession(null);
+			}
+			sessionDuration.record((System.nanoTime() - startedAt) / 1_000_000);
+			return true;
+		}
 
-			// Remove the username when a player leaves
-			usedUsernames.remove(gone.username);
+		// Tournament move clock: whoever is to move now loses if they haven't moved in time,
+		// so one stalled game can't hold up the next round. Call with board locked.
+		private void startClock() {
+			if (event == null || config.tournamentMoveSeconds <= 0) {
+				return;
+			}
+			int moves = board.moves();
+			try {
+				timers.schedule(() -> outOfTime(moves), config.tournamentMoveSeconds, TimeUnit.SECONDS);
+			} catch (RejectedExecutionException e) {
+				// stopping; drain cuts the game off anyway
+			}
+		}
+
+		private void outOfTime(int moves) {
+			Seat late;
+			synchronized (board) {
+				if (decided || board.moves() != moves) {
+					return; // they moved, or the game is over
+				}
+				decided = true;
+				late = moves % 2 == 0 ? first : opponentOf(first);
+			}
+			late.send(channel, "TURN:false");
+			forfeit(late, "ran out of time");
+		}
+
+		// Checks if a player leaves the game or disconnects in the session
+		public void playerLeft(Seat gone) {
+			forfeit(gone, "left");
+		}
 
-			sessions.remove(this);
+		private void forfeit(Seat gone, String why) {
+			if (!end()) {
+				return; // already ended
+			}
+			Seat other = opponentOf(gone);
+			other.send(channel, "DISCONNECT:opponent");
+			if (callback != null)
+				callback.accept("GAME:Session " + id + ": " + gone.describe() + " " + why);
+			if (event != null) {
+				// leaving a tournament game, or running out of time in one, forfeits it
+				event.gameOver(this, gone == p1 ? -1 : 1);
+			}
 		}
 	}
 
 	// Class for the connected client thread
-	class ClientThread extends Thread {
+	class ClientThread extends Thread implements Seat {
 		private final Socket sock;
 		private final int count;
 		private ObjectInputStream in;
 		private ObjectOutputStream out;
-		private GameSession session;
-		private String username;
+		private volatile GameSession session;
+		private volatile String username;
+		// still on the default name the server handed out; cleared when the client picks one
+		private volatile boolean defaultName = true;
+		// when this client joined the queue, for the queue wait histogram
+		private long queuedAt;
+		// bumped on every QUEUE, so a stale AI timeout can tell it's stale (guarded by waiting)
+		private int queueTicket;
+		// strength of the AI this client gets if nobody else turns up
+		private volatile AIPool.Difficulty difficulty = aiDifficulty;
+		// the board this client last queued for (guarded by waiting)
+		private Variant variant = Variant.STANDARD;
+		// the tournament this client is playing in, and its player number there
+		private volatile TournamentRun event;
+		private int eventIndex;
+		private final RateLimiter limiter = new RateLimiter(limits);
+		private long lastLimitLog = System.nanoTime() - 1_000_000_000L;
+		// framed chat waiting for the next flush, and the client's DEFLATE stream if it asked for one
+		private final List<String> chatOutbox = new ArrayList<>();
+		private volatile ChatCodec codec;
 
 		public void setSession(GameSession s) { this.session = s; }
 
+		public String username() { return username; }
+
+		boolean pickedName() { return !defaultName; }
+
+		public String describe() { return "Client #" + count + " (" + username + ")"; }
+
 		public ClientThread(Socket sock, int count) {
 			this.sock = sock;
 			this.count = count;
-			this.username = "User" + count; // Default username
-			usedUsernames.add(this.username); // Register the username
+			// Default username, unless someone already renamed themselves to it
+			String name = "User" + count;
+			for (int i = 2; !usedUsernames.claim(name); i++) {
+				name = "User" + count + "_" + i;
+			}
+			this.username = name;
 
 			try {
-				out = new ObjectOutputStream(sock.getOutputStream());
-				in  = new ObjectInputStream(sock.getInputStream());
-				sock.setTcpNoDelay(true);
+				sock.setTcpNoDelay(config.tcpNoDelay);
+				if (config.sendBufferSize > 0) {
+					sock.setSendBufferSize(config.sendBufferSize);
+				}
+				out = new ObjectOutputStream(new CountingOutputStream(sock.getOutputStream(), bytesOut));
+				// a client's routing hello only matters to a cluster router
+				PushbackInputStream raw = new PushbackInputStream(new CountingInputStream(sock.getInputStream(), bytesIn),
+						Router.HELLO.length);
+				Router.readHello(raw);
+				in  = new ObjectInputStream(raw);
 
 				// Send connected message with client ID
-				send("CONNECTED:" + count);
+				send(LOBBY, "CONNECTED:" + count);
 
 			} catch (IOException e) {
 				if (callback != null)
@@ -254,45 +987,163 @@ public class Server {
 			}
 		}
 
-		void send(String msg) {
+		public synchronized void send(String channel, String msg) {
 			try {
-				out.writeObject(msg);
+				out.writeObject(frame(channel, msg));
 				out.flush();
+				messagesOut.increment();
 			} catch (IOException ignored) {}
 		}
 
+		// Queue chat for this client. The first line in an empty outbox schedules a flush
+		// config.chatBatchMillis later, and whatever has piled up by then goes out together.
+		@Override
+		public void sendChat(String channel, String msg) {
+			if (config.chatBatchMillis <= 0 && codec == null) {
+				send(channel, msg);
+				chatLines.increment();
+				return;
+			}
+			boolean first;
+			synchronized (chatOutbox) {
+				first = chatOutbox.isEmpty();
+				chatOutbox.add(frame(channel, msg));
+			}
+			if (first) {
+				try {
+					chatFlusher.schedule(this::flushChat, Math.max(0, config.chatBatchMillis), TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException e) {
+					flushChat();
+				}
+			}
+		}
+
+		// Send any chat still waiting and close the connection; this thread then winds down
+		// as for any disconnect.
+		void close() {
+			flushChat();
+			closeSocket();
+		}
+
+		void closeSocket() {
+			try {
+				sock.close();
+			} catch (IOException ignored) {}
+		}
+
+		private void flushChat() {
+			List<String> lines;
+			synchronized (chatOutbox) {
+				lines = new ArrayList<>(chatOutbox);
+				chatOutbox.clear();
+			}
+			if (lines.isEmpty()) {
+				return;
+			}
+			// a lone line goes out as it is, so batching costs nothing when chat is quiet
+			String text = lines.size() == 1 ? lines.get(0)
+					: BATCH + "|" + String.join(String.valueOf(BATCH_SEPARATOR), lines);
+			synchronized (this) {
+				try {
+					ChatCodec c = codec;
+					if (c != null) {
+						byte[] packed = c.compress(text);
+						chatDeflated.add(text.length());
+						chatCompressed.add(packed.length);
+						// unshared, so the stream doesn't keep every batch for back-references
+						out.writeUnshared(packed);
+					} else {
+						out.writeUnshared(text);
+					}
+					out.flush();
+					messagesOut.increment();
+					chatFrames.increment();
+					chatLines.add(lines.size());
+				} catch (IOException | IllegalStateException ignored) {}
+			}
+		}
+
 		@Override
 		public void run() {
 			try {
+				// Send current username and the list of active usernames, then tell the lobby
+				send(LOBBY, "USERNAME_ACCEPTED:" + username);
+				send(LOBBY, "USERNAME_LIST:" + usedUsernames.list());
+				broadcast(this, "USER_JOINED:" + username);
+
 				while (true) {
 					String data = in.readObject().toString();
+					long readAt = System.nanoTime();
+					messagesIn.increment();
+					String[] msg = unframe(data);
+					String channel = msg[0];
+					String payload = msg[1];
+
+					// over-limit messages never reach the handlers or the log
+					RateLimiter.Kind kind = kindOf(channel, payload);
+					long verdict = limiter.check(kind, readAt);
+					if (verdict == RateLimiter.DISCONNECT) {
+						limited(kind, RateLimiter.Action.DISCONNECT);
+						throw new FloodException(kind);
+					} else if (verdict == RateLimiter.DROP) {
+						limited(kind, RateLimiter.Action.DROP);
+						continue;
+					} else if (verdict > 0) {
+						// stop reading this socket for a while; only this client backs up
+						limited(kind, RateLimiter.Action.THROTTLE);
+						TimeUnit.NANOSECONDS.sleep(verdict);
+					}
+
 					// log raw incoming
 					if (callback != null)
 						callback.accept("CONN:Client #" + count + " (" + username + ") sent: " + data);
 
-					// Handle username change requests when not in a session
-					if (session == null && data.startsWith("SET_USERNAME:")) {
-						String requestedUsername = data.substring(13);
-						processUsernameRequest(requestedUsername);
-					}
-					// if session is established, route through it
-					else if (session != null) {
-						session.relayMove(this, data);
+					if (channel.equals(LOBBY)) {
+						handleLobby(payload);
+					} else if (channel.equals(MATCH)) {
+						handleMatch(payload);
+					} else if (channel.equals(TOURNAMENT)) {
+						handleTournament(this, payload);
+					} else {
+						// game traffic only counts for the game this client is in
+						GameSession s = session;
+						if (s != null && channel.equals(s.channel)) {
+							if (payload.equals("LEAVE")) {
+								s.playerLeft(this);
+							} else {
+								s.relayMove(this, payload);
+								relayLatency.record((System.nanoTime() - readAt) / 1000);
+							}
+						}
 					}
 				}
 			} catch (Exception e) {
+				metrics.counter("connect4_disconnects_total", "Client disconnects by cause",
+						"cause", disconnectCause(e)).increment();
 				if (callback != null)
 					callback.accept("CONN:Client #" + count + " (" + username + ") disconnected");
-				if (session != null) {
-					session.playerLeft(this);
-				} else {
-					// Remove username for players waiting in queue
-					usedUsernames.remove(username);
-					synchronized (waiting) {
-						waiting.remove(this);
-					}
+				GameSession s = session;
+				if (s != null) {
+					s.playerLeft(this);
+				}
+				TournamentRun t = event;
+				if (t != null) {
+					t.withdraw(this);
 				}
+				synchronized (waiting) {
+					waiting.remove(this);
+					waitingCount = waiting.size();
+					entrants.remove(this);
+				}
+				clients.remove(this);
+				// Remove the username when a player leaves
+				usedUsernames.release(username);
+				broadcast(this, "USER_LEFT:" + username);
 			} finally {
+				ChatCodec c = codec;
+				if (c != null) {
+					c.close();
+				}
 				try {
 					if (in  != null) in.close();
 					if (out != null) out.close();
@@ -301,25 +1152,122 @@ public class Server {
 			}
 		}
 
-		// Process username change for clients not in a session
+		private void limited(RateLimiter.Kind kind, RateLimiter.Action action) {
+			overLimit[kind.ordinal()][action.ordinal()].increment();
+			// at most one log line a second per client, so a flood can't flood the monitor either
+			long now = System.nanoTime();
+			if (callback != null && now - lastLimitLog > 1_000_000_000L) {
+				lastLimitLog = now;
+				callback.accept("CONN:" + describe() + " over the " + kind.name().toLowerCase(Locale.ROOT) +
+						" limit: " + action.name().toLowerCase(Locale.ROOT));
+			}
+		}
+
+		// Public chat and username changes
+		private void handleLobby(String payload) {
+			if (payload.equals("COMPRESS:deflate")) {
+				// from here on this client's chat arrives as deflated byte arrays
+				if (config.chatDeflate && codec == null) {
+					codec = new ChatCodec();
+				}
+			} else if (payload.startsWith("SET_USERNAME:")) {
+				processUsernameRequest(payload.substring(13));
+			} else if (payload.startsWith("TOP:")) {
+				send(LOBBY, "TOP:" + join(leaderboard.top(limit(payload.substring(4), 100))));
+			} else if (payload.startsWith("AROUND:")) {
+				send(LOBBY, "AROUND:" + join(leaderboard.around(username, limit(payload.substring(7), 25))));
+			} else if (payload.equals("RANK")) {
+				int rank = leaderboard.rank(username);
+				send(LOBBY, "RANK:" + (rank == 0 ? "unrated" : rank + ":" + leaderboard.rating(username) +
+						":" + leaderboard.size() + ":" + leaderboard.results(username)));
+			} else if (payload.startsWith("PUBLIC_CHAT:")) {
+				String text = payload.substring(12);
+				for (ClientThread c : clients) {
+					c.sendChat(LOBBY, "PUBLIC_CHAT:" + username + ":" + text);
+				}
+			}
+		}
+
+		private int limit(String requested, int max) {
+			try {
+				return Math.max(1, Math.min(max, Integer.parseInt(requested)));
+			} catch (NumberFormatException e) {
+				return max;
+			}
+		}
+
+		private String join(List<Leaderboard.Entry> rows) {
+			StringBuilder sb = new StringBuilder();
+			for (Leaderboard.Entry e : rows) {
+				if (sb.length() > 0) sb.append(';');
+				sb.append(e);
+			}
+			return sb.toString();
+		}
+
+		// Joining or leaving the matchmaking queue
+		private void handleMatch(String payload) {
+			if (payload.equals("QUEUE")) {
+				if (!offered(Variant.STANDARD)) {
+					send(MATCH, "STATUS:UNSUPPORTED");
+					return;
+				}
+				enqueue(this, Variant.STANDARD);
+			} else if (payload.startsWith("QUEUE:")) {
+				// QUEUE:<option>[:<option>] where an option is the AI's strength in case one
+				// is seated (easy|medium|hard) or the board to play on, e.g. 8x7 or 9x7/5
+				Variant v = Variant.STANDARD;
+				AIPool.Difficulty d = difficulty;
+				for (String option : payload.substring(6).split(":")) {
+					if (option.indexOf('x') < 0) {
+						d = AIPool.Difficulty.parse(option, aiDifficulty);
+						continue;
+					}
+					try {
+						v = Variant.parse(option);
+					} catch (IllegalArgumentException e) {
+						v = null;
+						break;
+					}
+				}
+				if (v == null || !offered(v)) {
+					send(MATCH, "STATUS:UNSUPPORTED");
+					return;
+				}
+				difficulty = d;
+				enqueue(this, v);
+			} else if (payload.equals("CANCEL")) {
+				synchronized (waiting) {
+					waiting.remove(this);
+					waitingCount = waiting.size();
+				}
+			}
+		}
+
+		// Process username change requests
 		private void processUsernameRequest(String requestedUsername) {
 			String oldUsername = username;
 
-			// Check if requested username is already in use
-			if (usedUsernames.contains(requestedUsername)) {
+			// Swap names in one step so two clients can't both take the same one
+			if (!usedUsernames.rename(oldUsername, requestedUsername)) {
 				// Username is taken
-				send("USERNAME_TAKEN:" + requestedUsername);
+				send(LOBBY, "USERNAME_TAKEN:" + requestedUsername);
 			} else {
 				// Username is available
-				usedUsernames.remove(oldUsername);
 				username = requestedUsername;
-				usedUsernames.add(username);
+				defaultName = false;
 
 				// Confirm to the client
-				send("USERNAME_ACCEPTED:" + username);
+				send(LOBBY, "USERNAME_ACCEPTED:" + username);
 
 				// Send updated username list
-				send("USERNAME_LIST:" + getUsernameList());
+				send(LOBBY, "USERNAME_LIST:" + usedUsernames.list());
+
+				// Notify opponent about username change
+				GameSession s = session;
+				if (s != null) {
+					s.opponentOf(this).send(s.channel, "OPPONENT_RENAMED:" + username);
+				}
 
 				// Log the change
 				if (callback != null) {
@@ -330,4 +1278,336 @@ public class Server {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	// One tournament in progress. Each round is paired in one go by the Bracket, the
+	// sessions are registered with two short holds of the waiting lock, and a small
+	// pool sends the openings, so a round of thousands of games doesn't hold up
+	// casual play. The next round starts when the last game of this one ends.
+	private class TournamentRun {
+		private final Bracket bracket;
+		private final ClientThread[] players;
+		private final AtomicInteger pending = new AtomicInteger();
+		private final ExecutorService starter;
+
+		TournamentRun(Bracket.Format format, List<ClientThread> entrants, int rounds) {
+			players = entrants.toArray(new ClientThread[0]);
+			String[] names = new String[players.length];
+			for (int i = 0; i < players.length; i++) {
+				names[i] = players[i].username;
+				players[i].event = this;
+				players[i].eventIndex = i;
+			}
+			bracket = new Bracket(format, names, rounds);
+			starter = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+				Thread t = new Thread(r, "tournament");
+				t.setDaemon(true);
+				return t;
+			});
+			for (ClientThread ct : players) {
+				ct.send(TOURNAMENT, "STARTED:" + format.name().toLowerCase(Locale.ROOT) + ":" +
+						players.length + ":" + bracket.rounds());
+			}
+		}
+
+		void nextRound() {
+			if (state != State.RUNNING) {
+				// no new rounds while the server drains; the standings so far stand
+				finish();
+				return;
+			}
+			long pairStart = System.nanoTime();
+			List<int[]> pairs = bracket.nextRound();
+			if (pairs == null) {
+				finish();
+				return;
+			}
+			long pairMicros = (System.nanoTime() - pairStart) / 1000;
+
+			List<int[]> games = new ArrayList<>(pairs.size());
+			for (int[] pair : pairs) {
+				if (pair[1] == Bracket.BYE) {
+					players[pair[0]].send(TOURNAMENT, "BYE:" + bracket.round());
+				} else {
+					games.add(pair);
+				}
+			}
+			int firstId;
+			synchronized (waiting) {
+				firstId = sessionIdCounter;
+				sessionIdCounter += games.size();
+			}
+			List<GameSession> created = new ArrayList<>(games.size());
+			for (int i = 0; i < games.size(); i++) {
+				int[] pair = games.get(i);
+				created.add(new GameSession(firstId + i, players[pair[0]], players[pair[1]], this));
+			}
+			pending.set(created.size());
+			synchronized (waiting) {
+				sessions.addAll(created);
+				sessionCount = sessions.size();
+			}
+
+			if (callback != null)
+				callback.accept("GAME:Tournament round " + bracket.round() + "/" + bracket.rounds() + ": " +
+						created.size() + " games, " + (pairs.size() - created.size()) + " byes, paired in " +
+						pairMicros + " us");
+			if (created.isEmpty()) {
+				starter.execute(this::nextRound);
+				return;
+			}
+			for (GameSession g : created) {
+				starter.execute(() -> {
+					g.p1.send(TOURNAMENT, "ROUND:" + bracket.round());
+					g.p2.send(TOURNAMENT, "ROUND:" + bracket.round());
+					startSession(g);
+				});
+			}
+		}
+
+		// outcome is 1 if the first mover won, 0 for a draw, -1 if the second did
+		void gameOver(GameSession g, int outcome) {
+			ClientThread x = (ClientThread) g.p1, o = (ClientThread) g.p2;
+			bracket.result(x.eventIndex, o.eventIndex, outcome);
+			report(x, outcome);
+			report(o, -outcome);
+			if (pending.decrementAndGet() == 0) {
+				starter.execute(this::nextRound);
+			}
+		}
+
+		private void report(ClientThread ct, int outcome) {
+			int i = ct.eventIndex;
+			String result = outcome > 0 ? "win" : outcome < 0 ? "loss" : "draw";
+			ct.send(TOURNAMENT, "RESULT:" + result + ":" + Bracket.formatPoints(bracket.points(i)) +
+					":" + bracket.rank(i));
+			if (bracket.isOut(i) && ct.event == this) {
+				// free to queue for casual games again
+				ct.event = null;
+				ct.send(TOURNAMENT, "ELIMINATED");
+			}
+		}
+
+		void withdraw(ClientThread ct) {
+			bracket.withdraw(ct.eventIndex);
+			ct.event = null;
+		}
+
+		private void finish() {
+			List<String> top = bracket.standings(3);
+			for (ClientThread ct : players) {
+				if (ct.event == this) ct.event = null;
+				ct.send(TOURNAMENT, "FINISHED:" + bracket.name(bracket.leader()) + ":" + bracket.rank(ct.eventIndex));
+			}
+			synchronized (waiting) {
+				tournament = null;
+			}
+			starter.shutdown();
+			if (callback != null)
+				callback.accept("GAME:Tournament finished: " + String.join(", ", top));
+		}
+	}
+
+	// A server-hosted opponent. It follows the game from the same messages a client
+	// gets and answers TURN:true with a move from the AI pool.
+	private class AISeat implements Seat {
+		// give the client's coin time to land before the reply arrives
+		private static final long MIN_REPLY_MILLIS = 400;
+
+		private final AIPool.Difficulty difficulty;
+		private final String name;
+		private final Board board;
+		private volatile GameSession session;
+		private boolean over = false;
+		private Future<?> thinking;
+		// bumped whenever a search is started or abandoned, so late replies are dropped
+		private int generation = 0;
+
+		AISeat(AIPool.Difficulty difficulty, Variant variant) {
+			this.difficulty = difficulty;
+			this.board = variant.newBoard();
+			this.name = "CPU-" + difficulty.name().toLowerCase(Locale.ROOT);
+		}
+
+		public void setSession(GameSession s) { this.session = s; }
+
+		public String username() { return name; }
+
+		public String describe() { return "AI (" + name + ")"; }
+
+		public synchronized void send(String channel, String msg) {
+			if (msg.startsWith("MOVE:")) {
+				try {
+					play(Integer.parseInt(msg.substring(5)));
+				} catch (NumberFormatException ignored) {}
+			} else if (msg.equals("TURN:true")) {
+				think();
+			} else if (msg.equals("RESET")) {
+				stopThinking();
+				board.reset();
+				over = false;
+			} else if (msg.equals("DISCONNECT:opponent")) {
+				stopThinking();
+				over = true;
+			}
+		}
+
+		private void play(int col) {
+			if (col < 0 || col >= board.width() || !board.canPlay(col)) {
+				return;
+			}
+			board.play(col);
+			over = board.lastMoveWon() || board.isFull();
+		}
+
+		private void think() {
+			GameSession s = session;
+			if (over || s == null || thinking != null) {
+				return;
+			}
+			int gen = ++generation;
+			long started = System.nanoTime();
+			try {
+				thinking = aiPool.submit(board, difficulty, col -> {
+					long wait = MIN_REPLY_MILLIS - (System.nanoTime() - started) / 1_000_000;
+					try {
+						timers.schedule(() -> reply(s, gen, col), Math.max(0, wait), TimeUnit.MILLISECONDS);
+					} catch (RejectedExecutionException e) {
+						// the server stopped while we were thinking
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the server is stopping and the pool is gone; the game ends with it
+				over = true;
+			}
+		}
+
+		private void reply(GameSession s, int gen, int col) {
+			synchronized (this) {
+				if (gen != generation || session != s || over) {
+					return; // the game moved on while we were thinking
+				}
+				thinking = null;
+				play(col);
+			}
+			s.relayMove(this, "MOVE:" + col);
+		}
+
+		private void stopThinking() {
+			generation++;
+			if (thinking != null) {
+				thinking.cancel(true);
+				thinking = null;
+			}
+		}
+	}
+
+	// Which rate limit a message counts against.
+	static RateLimiter.Kind kindOf(String channel, String payload) {
+		if (channel.equals(LOBBY)) {
+			if (payload.startsWith("PUBLIC_CHAT:")) return RateLimiter.Kind.CHAT;
+			if (payload.startsWith("SET_USERNAME:")) return RateLimiter.Kind.USERNAME;
+			if (payload.startsWith("TOP:") || payload.startsWith("AROUND:") || payload.equals("RANK")) {
+				return RateLimiter.Kind.QUERY;
+			}
+			return RateLimiter.Kind.OTHER;
+		}
+		if (channel.equals(MATCH) || channel.equals(TOURNAMENT)) {
+			return RateLimiter.Kind.MATCH;
+		}
+		if (payload.startsWith("MOVE:") || payload.equals("RESET")) {
+			return RateLimiter.Kind.MOVE;
+		}
+		if (payload.startsWith("PRIVATE_CHAT:")) {
+			return RateLimiter.Kind.CHAT;
+		}
+		return RateLimiter.Kind.OTHER;
+	}
+
+	// Thrown from a client's read loop when it goes over a limit whose rule is to disconnect.
+	private static class FloodException extends Exception {
+		FloodException(RateLimiter.Kind kind) {
+			super("over the " + kind + " rate limit");
+		}
+	}
+
+	// How a client's connection ended, for the disconnects counter.
+	private static String disconnectCause(Exception e) {
+		if (e instanceof FloodException) {
+			return "rate_limited";
+		} else if (e instanceof EOFException) {
+			return "closed";
+		} else if (e instanceof SocketException) {
+			return "reset";
+		} else if (e instanceof IOException) {
+			return "io_error";
+		}
+		return "protocol_error";
+	}
+
+	// Adds the bytes that pass through to a counter.
+	private static class CountingOutputStream extends FilterOutputStream {
+		private final Metrics.Counter bytes;
+
+		CountingOutputStream(OutputStream out, Metrics.Counter bytes) {
+			super(out);
+			this.bytes = bytes;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			bytes.increment();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			bytes.add(len);
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private final Metrics.Counter bytes;
+
+		CountingInputStream(InputStream in, Metrics.Counter bytes) {
+			super(in);
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) bytes.increment();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) bytes.add(n);
+			return n;
+		}
+	}
+
+	// A server with no monitor window, e.g. one node of a cluster on a headless host.
+	// Takes the ServerConfig keys. Typing "drain", or stopping the process (SIGTERM),
+	// drains it for up to drain-timeout seconds before it exits.
+	public static void main(String[] args) throws IOException {
+		ServerConfig config = ServerConfig.load(args);
+		Server server = new Server(config, System.out::println);
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> server.drain(config.drainTimeoutSeconds * 1000L)));
+		BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+		while ((line = console.readLine()) != null) {
+			if (line.trim().equals("drain")) {
+				server.drain(config.drainTimeoutSeconds * 1000L);
+				System.exit(0);
+			}
+		}
+		// no console: keep serving until killed
+		try {
+			Thread.currentThread().join();
+		} catch (InterruptedException ignored) {}
+	}
+}
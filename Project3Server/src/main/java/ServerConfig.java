@@ -0,0 +1,131 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+// Socket and monitoring settings for Server. Each key can come from (highest wins):
+//   --key=value program arguments, CONNECT4_KEY environment variables,
+//   -Dconnect4.key system properties, the properties file named by
+//   -Dconnect4.config (default ./server.properties), then the defaults below.
+public class ServerConfig {
+    // address to bind to; empty means every interface
+    public String bindAddress = "";
+    public int port = 5555;
+    public int backlog = 50;
+    // 0 leaves the OS default in place
+    public int receiveBufferSize = 0;
+    public int sendBufferSize = 0;
+    public boolean tcpNoDelay = true;
+    // port for the Prometheus /metrics page; 0 turns it off
+    public int metricsPort = 0;
+    // server monitor: events kept on screen per log, and where the full logs go ("" for nowhere)
+    public int logCapacity = 1000;
+    public String logDir = "logs";
+    // seat a server AI opposite anyone still waiting after this long; 0 turns it off
+    public long aiWaitMillis = 0;
+    public int aiThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    // share of all cores the AI workers may use together, e.g. 0.5 for half
+    public double aiCpuShare = 0.5;
+    // used when a client queues without asking for one
+    public String aiDifficulty = "medium";
+    // boards clients may queue for, e.g. "7x6,8x7,9x7/5"; "" allows any size Variant supports
+    public String variants = "";
+    // positions the AI games' shared search cache holds (0 for none), and where it's kept
+    // between runs ("" for nowhere); saved on the leaderboard's schedule
+    public int evalCacheEntries = 1 << 20;
+    public String evalCacheFile = "data/evalcache.dat";
+    // where ratings are kept between runs ("" keeps them in memory only), and how often they're saved
+    public String leaderboardFile = "data/leaderboard.dat";
+    public int leaderboardSnapshotSeconds = 60;
+    // overrides for the per-connection message limits, e.g. "chat=2/5/drop,move=off"; "off" disables them
+    public String rateLimits = "";
+    // how long chat to one client may wait to go out with more chat (0 sends each line at once),
+    // and whether clients that ask get it deflated
+    public long chatBatchMillis = 20;
+    public boolean chatDeflate = true;
+    // router to join as a cluster node ("host:port", "" runs alone), this node's name there,
+    // and the host the router should send players to
+    public String clusterRouter = "";
+    public String nodeId = "";
+    public String advertiseHost = "localhost";
+    // how long a shutdown waits for games in progress to finish
+    public int drainTimeoutSeconds = 30;
+    // a tournament player who takes longer than this over a move forfeits; 0 waits forever
+    public int tournamentMoveSeconds = 60;
+
+    public static ServerConfig defaults() {
+        return new ServerConfig();
+    }
+
+    public static ServerConfig load(String[] args) {
+        Properties props = new Properties();
+        String file = System.getProperty("connect4.config", "server.properties");
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IOException ignored) {
+            // no file, keep the defaults
+        }
+
+        ServerConfig c = new ServerConfig();
+        c.bindAddress = lookup(args, props, "bind", c.bindAddress);
+        c.port = Integer.parseInt(lookup(args, props, "port", String.valueOf(c.port)));
+        c.backlog = Integer.parseInt(lookup(args, props, "backlog", String.valueOf(c.backlog)));
+        c.receiveBufferSize = Integer.parseInt(lookup(args, props, "rcvbuf", String.valueOf(c.receiveBufferSize)));
+        c.sendBufferSize = Integer.parseInt(lookup(args, props, "sndbuf", String.valueOf(c.sendBufferSize)));
+        c.tcpNoDelay = Boolean.parseBoolean(lookup(args, props, "nodelay", String.valueOf(c.tcpNoDelay)));
+        c.metricsPort = Integer.parseInt(lookup(args, props, "metrics-port", String.valueOf(c.metricsPort)));
+        c.logCapacity = Integer.parseInt(lookup(args, props, "log-capacity", String.valueOf(c.logCapacity)));
+        c.logDir = lookup(args, props, "log-dir", c.logDir);
+        c.aiWaitMillis = Long.parseLong(lookup(args, props, "ai-wait", String.valueOf(c.aiWaitMillis)));
+        c.aiThreads = Integer.parseInt(lookup(args, props, "ai-threads", String.valueOf(c.aiThreads)));
+        c.aiCpuShare = Double.parseDouble(lookup(args, props, "ai-cpu", String.valueOf(c.aiCpuShare)));
+        c.aiDifficulty = lookup(args, props, "ai-difficulty", c.aiDifficulty);
+        c.variants = lookup(args, props, "variants", c.variants);
+        c.evalCacheEntries = Integer.parseInt(lookup(args, props, "eval-cache-entries", String.valueOf(c.evalCacheEntries)));
+        c.evalCacheFile = lookup(args, props, "eval-cache-file", c.evalCacheFile);
+        c.leaderboardFile = lookup(args, props, "leaderboard-file", c.leaderboardFile);
+        c.leaderboardSnapshotSeconds = Integer.parseInt(lookup(args, props, "leaderboard-snapshot",
+                String.valueOf(c.leaderboardSnapshotSeconds)));
+        c.rateLimits = lookup(args, props, "rate-limits", c.rateLimits);
+        c.chatBatchMillis = Long.parseLong(lookup(args, props, "chat-batch", String.valueOf(c.chatBatchMillis)));
+        c.chatDeflate = Boolean.parseBoolean(lookup(args, props, "chat-deflate", String.valueOf(c.chatDeflate)));
+        c.clusterRouter = lookup(args, props, "cluster-router", c.clusterRouter);
+        c.nodeId = lookup(args, props, "node-id", "node-" + c.port);
+        c.advertiseHost = lookup(args, props, "advertise-host", c.advertiseHost);
+        c.drainTimeoutSeconds = Integer.parseInt(lookup(args, props, "drain-timeout", String.valueOf(c.drainTimeoutSeconds)));
+        c.tournamentMoveSeconds = Integer.parseInt(lookup(args, props, "tournament-move-time",
+                String.valueOf(c.tournamentMoveSeconds)));
+        return c;
+    }
+
+    // Find a setting by key, checking args, environment, system properties and file in that order.
+    static String lookup(String[] args, Properties file, String key, String fallback) {
+        String prefix = "--" + key + "=";
+        for (String a : args) {
+            if (a.startsWith(prefix)) {
+                return a.substring(prefix.length());
+            }
+        }
+        String env = System.getenv("CONNECT4_" + key.toUpperCase().replace('-', '_'));
+        if (env != null) {
+            return env;
+        }
+        String prop = System.getProperty("connect4." + key);
+        if (prop != null) {
+            return prop;
+        }
+        return file.getProperty(key, fallback);
+    }
+
+    @Override
+    public String toString() {
+        return (bindAddress.isEmpty() ? "*" : bindAddress) + ":" + port +
+                " backlog=" + backlog +
+                " rcvbuf=" + receiveBufferSize +
+                " sndbuf=" + sendBufferSize +
+                " nodelay=" + tcpNoDelay +
+                (metricsPort > 0 ? " metrics=" + metricsPort : "") +
+                (aiWaitMillis > 0 ? " ai-wait=" + aiWaitMillis + " ai-threads=" + aiThreads : "") +
+                (clusterRouter.isEmpty() ? "" : " node=" + nodeId + " router=" + clusterRouter);
+    }
+}
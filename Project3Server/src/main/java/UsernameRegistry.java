@@ -0,0 +1,59 @@
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Usernames currently in use, in the order they were taken.
+// Each operation is atomic, so two clients asking for the same name at once
+// can't both get it. The comma-separated list sent to clients is cached
+// until the next change.
+public class UsernameRegistry {
+	private final Set<String> names = new LinkedHashSet<>();
+	private String list;
+
+	public UsernameRegistry(String... reserved) {
+		for (String name : reserved) {
+			names.add(name);
+		}
+	}
+
+	// Take a name if nobody has it. Returns false if it's already in use.
+	public synchronized boolean claim(String name) {
+		if (!names.add(name)) {
+			return false;
+		}
+		list = null;
+		return true;
+	}
+
+	// Swap one name for another, keeping the old one if the new one is taken.
+	public synchronized boolean rename(String oldName, String newName) {
+		if (names.contains(newName)) {
+			return false;
+		}
+		names.remove(oldName);
+		names.add(newName);
+		list = null;
+		return true;
+	}
+
+	public synchronized void release(String name) {
+		if (names.remove(name)) {
+			list = null;
+		}
+	}
+
+	public synchronized boolean contains(String name) {
+		return names.contains(name);
+	}
+
+	public synchronized int size() {
+		return names.size();
+	}
+
+	// Every name in use, joined with commas (the USERNAME_LIST payload).
+	public synchronized String list() {
+		if (list == null) {
+			list = String.join(",", names);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,265 @@
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// The board a game is played on: its columns, rows and how many in a row win.
+// Written "7x6" (columns x rows, four to win) or "9x7/5" for five to win.
+// Each variant gets the fastest board that holds it: the standard game keeps its own
+// BitBoard, other boards that fit in one long with a spare bit on top of each column
+// get the same layout with the sizes as fields, and bigger ones use a long per column.
+public final class Variant {
+	public static final Variant STANDARD = new Variant(7, 6, 4);
+
+	static final int MIN_SIZE = 4, MAX_COLS = 10, MAX_ROWS = 9;
+	static final int MIN_CONNECT = 3, MAX_CONNECT = 6;
+	private static final Pattern SPEC = Pattern.compile("(\\d{1,2})x(\\d{1,2})(?:/(\\d))?");
+
+	public final int cols, rows, connect;
+
+	private Variant(int cols, int rows, int connect) {
+		this.cols = cols;
+		this.rows = rows;
+		this.connect = connect;
+	}
+
+	// Parse a variant such as "8x7" or "9x7/5"; anything else, or too big, is an IllegalArgumentException.
+	public static Variant parse(String spec) {
+		Matcher m = SPEC.matcher(spec.trim());
+		if (!m.matches()) {
+			throw new IllegalArgumentException("Not a board size: " + spec);
+		}
+		int cols = Integer.parseInt(m.group(1));
+		int rows = Integer.parseInt(m.group(2));
+		int connect = m.group(3) == null ? 4 : Integer.parseInt(m.group(3));
+		if (cols < MIN_SIZE || cols > MAX_COLS || rows < MIN_SIZE || rows > MAX_ROWS
+				|| connect < MIN_CONNECT || connect > MAX_CONNECT || connect > Math.max(cols, rows)) {
+			throw new IllegalArgumentException("Unsupported board: " + spec);
+		}
+		Variant v = new Variant(cols, rows, connect);
+		return v.equals(STANDARD) ? STANDARD : v;
+	}
+
+	public boolean isStandard() {
+		return equals(STANDARD);
+	}
+
+	public int cells() {
+		return cols * rows;
+	}
+
+	// An empty board for this variant.
+	public Board newBoard() {
+		if (isStandard()) {
+			return new BitBoard();
+		}
+		if (cols * (rows + 1) <= Long.SIZE) {
+			return new Packed(this);
+		}
+		return new Columns(this);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Variant)) return false;
+		Variant v = (Variant) o;
+		return cols == v.cols && rows == v.rows && connect == v.connect;
+	}
+
+	@Override
+	public int hashCode() {
+		return (cols * 31 + rows) * 31 + connect;
+	}
+
+	@Override
+	public String toString() {
+		return cols + "x" + rows + (connect == 4 ? "" : "/" + connect);
+	}
+
+	// BitBoard's layout for any size that fits in a long: bit = col * (rows + 1) + row.
+	// A line of n is n - 1 shifts and ANDs in each direction.
+	static final class Packed implements Board {
+		private final Variant v;
+		private final int h1;
+		private final long full;
+		private long current, mask;
+		private int moves;
+
+		Packed(Variant v) {
+			this.v = v;
+			this.h1 = v.rows + 1;
+			long f = 0;
+			for (int col = 0; col < v.cols; col++) {
+				f |= column(col);
+			}
+			this.full = f;
+		}
+
+		public int width() {
+			return v.cols;
+		}
+
+		public int moves() {
+			return moves;
+		}
+
+		public boolean canPlay(int col) {
+			return (mask & top(col)) == 0;
+		}
+
+		public void play(int col) {
+			current ^= mask;
+			mask |= mask + bottom(col);
+			moves++;
+		}
+
+		public boolean isWinningMove(int col) {
+			return hasLine(current | stone(col));
+		}
+
+		public boolean isThreat(int col) {
+			return hasLine((current ^ mask) | stone(col));
+		}
+
+		public boolean lastMoveWon() {
+			return hasLine(current ^ mask);
+		}
+
+		public boolean isFull() {
+			return mask == full;
+		}
+
+		public void reset() {
+			current = 0;
+			mask = 0;
+			moves = 0;
+		}
+
+		public Packed copy() {
+			Packed p = new Packed(v);
+			p.current = current;
+			p.mask = mask;
+			p.moves = moves;
+			return p;
+		}
+
+		private boolean hasLine(long pos) {
+			return line(pos, 1) || line(pos, h1) || line(pos, h1 + 1) || line(pos, h1 - 1);
+		}
+
+		private boolean line(long pos, int shift) {
+			long m = pos;
+			for (int i = 1; i < v.connect && m != 0; i++) {
+				m &= pos >>> (i * shift);
+			}
+			return m != 0;
+		}
+
+		// the cell a stone dropped in col lands on
+		private long stone(int col) {
+			return (mask + bottom(col)) & column(col);
+		}
+
+		private long bottom(int col) {
+			return 1L << (col * h1);
+		}
+
+		private long top(int col) {
+			return 1L << (v.rows - 1 + col * h1);
+		}
+
+		private long column(int col) {
+			return ((1L << v.rows) - 1) << (col * h1);
+		}
+	}
+
+	// A long per column per player (bit r is row r, 0 at the bottom), for boards
+	// too big for one long. Only the lines through the stone in question are checked.
+	static final class Columns implements Board {
+		private static final int[][] DIRECTIONS = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+		private final Variant v;
+		// [player][col]; player 0 moved first
+		private final long[][] stones;
+		private final int[] heights;
+		private int moves;
+		private int lastCol = -1;
+
+		Columns(Variant v) {
+			this.v = v;
+			this.stones = new long[2][v.cols];
+			this.heights = new int[v.cols];
+		}
+
+		public int width() {
+			return v.cols;
+		}
+
+		public int moves() {
+			return moves;
+		}
+
+		public boolean canPlay(int col) {
+			return heights[col] < v.rows;
+		}
+
+		public void play(int col) {
+			stones[moves & 1][col] |= 1L << heights[col]++;
+			lastCol = col;
+			moves++;
+		}
+
+		public boolean isWinningMove(int col) {
+			return lineThrough(stones[moves & 1], col, heights[col]);
+		}
+
+		public boolean isThreat(int col) {
+			return lineThrough(stones[(moves + 1) & 1], col, heights[col]);
+		}
+
+		public boolean lastMoveWon() {
+			return moves > 0 && lineThrough(stones[(moves - 1) & 1], lastCol, heights[lastCol] - 1);
+		}
+
+		public boolean isFull() {
+			return moves == v.cells();
+		}
+
+		public void reset() {
+			for (long[] s : stones) {
+				Arrays.fill(s, 0);
+			}
+			Arrays.fill(heights, 0);
+			moves = 0;
+			lastCol = -1;
+		}
+
+		public Columns copy() {
+			Columns c = new Columns(v);
+			for (int p = 0; p < 2; p++) {
+				System.arraycopy(stones[p], 0, c.stones[p], 0, v.cols);
+			}
+			System.arraycopy(heights, 0, c.heights, 0, v.cols);
+			c.moves = moves;
+			c.lastCol = lastCol;
+			return c;
+		}
+
+		// whether a stone of s's owner at (col, row) is part of a line
+		private boolean lineThrough(long[] s, int col, int row) {
+			for (int[] d : DIRECTIONS) {
+				int n = 1 + run(s, col, row, d[0], d[1]) + run(s, col, row, -d[0], -d[1]);
+				if (n >= v.connect) return true;
+			}
+			return false;
+		}
+
+		private int run(long[] s, int col, int row, int dc, int dr) {
+			int n = 0;
+			for (int c = col + dc, r = row + dr; c >= 0 && c < v.cols && r >= 0 && r < v.rows
+					&& (s[c] >>> r & 1) != 0; c += dc, r += dr) {
+				n++;
+			}
+			return n;
+		}
+	}
+}
@@ -1,5 +1,13 @@
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
 import org.junit.jupiter.api.Test;
 
 import org.junit.jupiter.api.DisplayName;
@@ -14,4 +22,583 @@ class MyTest {
 		fail("Not yet implemented");
 	}
 
+	@Test
+	void usernameRegistryKeepsNamesUnique() {
+		UsernameRegistry names = new UsernameRegistry("Server");
+		assertFalse(names.claim("Server"));
+		assertTrue(names.claim("User1"));
+		assertTrue(names.claim("User2"));
+		assertFalse(names.rename("User1", "User2"));
+		assertTrue(names.rename("User1", "Alice"));
+		assertEquals("Server,User2,Alice", names.list());
+		names.release("User2");
+		assertEquals("Server,Alice", names.list());
+		assertTrue(names.claim("User1"));
+	}
+
+	@Test
+	void metricsRenderPrometheusText() {
+		Metrics metrics = new Metrics();
+		metrics.counter("test_disconnects_total", "Disconnects", "cause", "reset").add(2);
+		metrics.counter("test_disconnects_total", "Disconnects", "cause", "closed").increment();
+		metrics.gauge("test_clients", "Clients", () -> 7);
+		Metrics.Histogram wait = metrics.histogram("test_wait_seconds", "Wait", 1_000_000);
+		wait.record(50);       // 50 us
+		wait.record(2_000_000); // 2 s
+
+		String page = metrics.toPrometheus();
+		assertTrue(page.contains("# TYPE test_disconnects_total counter\n"));
+		assertTrue(page.contains("test_disconnects_total{cause=\"closed\"} 1\n"));
+		assertTrue(page.contains("test_disconnects_total{cause=\"reset\"} 2\n"));
+		assertEquals(1, page.split("# HELP test_disconnects_total").length - 1);
+		assertTrue(page.contains("test_clients 7\n"));
+		assertTrue(page.contains("test_wait_seconds_bucket{le=\"0.0001\"} 1\n"));
+		assertTrue(page.contains("test_wait_seconds_bucket{le=\"2.5\"} 2\n"));
+		assertTrue(page.contains("test_wait_seconds_count 2\n"));
+
+		// 1005 shares a bucket with 1000..1007, so it only counts from 1007 up
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(1005);
+		assertEquals(0, h.countAtOrBelow(1003));
+		assertEquals(1, h.countAtOrBelow(1007));
+	}
+
+	@Test
+	void eventLogKeepsOnlyTheNewestEvents() {
+		EventLog log = new EventLog(4, null);
+		List<String> out = new ArrayList<>();
+		for (int i = 0; i < 3; i++) log.append("e" + i);
+		long seen = log.since(-1, out);
+		assertEquals(Arrays.asList("e0", "e1", "e2"), out);
+		assertEquals(2, seen);
+
+		for (int i = 3; i < 10; i++) log.append("e" + i);
+		out.clear();
+		seen = log.since(seen, out);
+		// only the ring's worth survives
+		assertEquals(Arrays.asList("e6", "e7", "e8", "e9"), out);
+		assertEquals(9, seen);
+		assertEquals(10, log.count());
+
+		out.clear();
+		assertEquals(9, log.since(seen, out));
+		assertTrue(out.isEmpty());
+	}
+
+	@Test
+	void aiTakesWinsAndBlocksLosses() {
+		BitBoard b = new BitBoard();
+		// X on 0,1,2 and O stacked on 6: X to move wins at 3
+		for (int col : new int[]{0, 6, 1, 6, 2, 6}) b.play(col);
+		assertTrue(b.isWinningMove(3));
+		assertEquals(3, AIPool.search(b.copy(), 6, Long.MAX_VALUE));
+		b.play(3);
+		assertTrue(b.lastMoveWon());
+
+		// O to move must block X at 3
+		b = new BitBoard();
+		for (int col : new int[]{0, 6, 1, 6, 2}) b.play(col);
+		assertEquals(3, AIPool.search(b.copy(), 6, Long.MAX_VALUE));
+
+		b.play(3);
+		assertFalse(b.lastMoveWon());
+		assertFalse(b.isFull());
+	}
+
+	@Test
+	void evalCacheSharesMirroredPositionsAndSurvivesARestart() throws Exception {
+		EvalCache cache = new EvalCache(64, new Metrics());
+		assertEquals(64, cache.capacity());
+		BitBoard b = new BitBoard();
+		for (int col : new int[]{0, 6, 1}) b.play(col);
+		cache.store(b.current, b.mask, 5, EvalCache.EXACT, 12, 2);
+		long hit = cache.probe(b.current, b.mask);
+		assertEquals(12, EvalCache.score(hit));
+		assertEquals(5, EvalCache.depth(hit));
+		assertEquals(EvalCache.EXACT, EvalCache.bound(hit));
+		assertEquals(2, EvalCache.move(hit));
+
+		// the same game played on the other side of the board finds it, move turned round
+		BitBoard mirrored = new BitBoard();
+		for (int col : new int[]{6, 0, 5}) mirrored.play(col);
+		hit = cache.probe(mirrored.current, mirrored.mask);
+		assertEquals(12, EvalCache.score(hit));
+		assertEquals(4, EvalCache.move(hit));
+
+		// more positions than room: the size stays capped and the table keeps working
+		Random random = new Random(7);
+		for (int i = 0; i < 1000; i++) {
+			BitBoard p = new BitBoard();
+			for (int m = 0; m < 10; m++) {
+				int col = random.nextInt(BitBoard.WIDTH);
+				if (p.canPlay(col)) p.play(col);
+			}
+			cache.store(p.current, p.mask, 3, EvalCache.LOWER, -i, -1);
+		}
+		assertTrue(cache.size() <= cache.capacity());
+
+		File file = File.createTempFile("evalcache", ".dat");
+		try {
+			cache.store(b.current, b.mask, 9, EvalCache.UPPER, -4, 3);
+			cache.save(file);
+			EvalCache restarted = new EvalCache(64, new Metrics());
+			assertEquals(cache.size(), restarted.load(file));
+			hit = restarted.probe(mirrored.current, mirrored.mask);
+			assertEquals(-4, EvalCache.score(hit));
+			assertEquals(9, EvalCache.depth(hit));
+			assertEquals(EvalCache.UPPER, EvalCache.bound(hit));
+			assertEquals(3, EvalCache.move(hit));
+		} finally {
+			file.delete();
+		}
+
+		// a warm cache doesn't change the AI's answers
+		EvalCache shared = new EvalCache(1 << 12, new Metrics());
+		for (int round = 0; round < 2; round++) {
+			b = new BitBoard();
+			for (int col : new int[]{0, 6, 1, 6, 2, 6}) b.play(col);
+			assertEquals(3, AIPool.search(b.copy(), 6, Long.MAX_VALUE, shared));
+			b = new BitBoard();
+			for (int col : new int[]{0, 6, 1, 6, 2}) b.play(col);
+			assertEquals(3, AIPool.search(b.copy(), 6, Long.MAX_VALUE, shared));
+		}
+		assertTrue(shared.size() > 0);
+	}
+
+	@Test
+	void swissPairsEveryoneWithoutRematches() {
+		String[] names = new String[4096];
+		for (int i = 0; i < names.length; i++) names[i] = "P" + i;
+		Bracket swiss = new Bracket(Bracket.Format.SWISS, names, 0);
+		assertEquals(12, swiss.rounds());
+		Set<Long> met = new HashSet<>();
+		Random random = new Random(7);
+		List<int[]> round;
+		while ((round = swiss.nextRound()) != null) {
+			assertEquals(2048, round.size());
+			boolean[] seen = new boolean[names.length];
+			for (int[] pair : round) {
+				assertFalse(seen[pair[0]] || seen[pair[1]]);
+				seen[pair[0]] = seen[pair[1]] = true;
+				assertTrue(met.add(Math.min(pair[0], pair[1]) * 4096L + Math.max(pair[0], pair[1])));
+				swiss.result(pair[0], pair[1], random.nextInt(3) - 1);
+			}
+		}
+		// every game hands out two half points
+		int total = 0;
+		for (int i = 0; i < names.length; i++) total += swiss.points(i);
+		assertEquals(12 * 2048 * 2, total);
+		assertEquals(1, swiss.rank(swiss.leader()));
+		// ranks agree with the order of the standings table
+		List<String> table = swiss.standings(names.length);
+		for (int i = 0; i < table.size(); i++) {
+			int player = Integer.parseInt(table.get(i).split(" ")[1].substring(1));
+			assertEquals(i + 1, swiss.rank(player));
+		}
+	}
+
+	@Test
+	void knockoutSeedsByesAndCrownsOneWinner() {
+		Bracket ko = new Bracket(Bracket.Format.KNOCKOUT, new String[]{"A", "B", "C", "D", "E"}, 0);
+		assertEquals(3, ko.rounds());
+		// 8 slots: the top three seeds get byes, D plays E
+		List<int[]> first = ko.nextRound();
+		assertEquals(4, first.size());
+		int games = 0;
+		for (int[] pair : first) {
+			if (pair[1] != Bracket.BYE) {
+				assertArrayEquals(new int[]{3, 4}, pair);
+				ko.result(3, 4, 0); // a draw goes to the second mover
+				games++;
+			}
+		}
+		assertEquals(1, games);
+		assertTrue(ko.isOut(3));
+		List<int[]> round;
+		while ((round = ko.nextRound()) != null) {
+			for (int[] pair : round) {
+				if (pair[1] != Bracket.BYE) ko.result(pair[0], pair[1], 1);
+			}
+		}
+		// the higher seed moved first and won every game
+		assertEquals("A", ko.name(ko.leader()));
+	}
+
+	@Test
+	void leaderboardRanksAndSurvivesASnapshot() throws Exception {
+		Leaderboard board = new Leaderboard();
+		for (int i = 0; i < 5; i++) board.record("Alice", "Bob", 1);
+		board.record("Carol", "Dave", 0);
+		assertEquals(1, board.rank("Alice"));
+		assertEquals(4, board.rank("Bob"));
+		// Carol and Dave drew from the same rating, so they share second place
+		assertEquals(2, board.rank("Carol"));
+		assertEquals(2, board.rank("Dave"));
+		assertEquals(0, board.rank("Nobody"));
+		assertEquals("5-0-0", board.results("Alice"));
+
+		List<Leaderboard.Entry> top = board.top(3);
+		assertEquals(Arrays.asList("Alice", "Carol", "Dave"), Arrays.asList(top.get(0).name, top.get(1).name, top.get(2).name));
+		// Bob is last, so only the player above shows
+		List<Leaderboard.Entry> around = board.around("Bob", 1);
+		assertEquals(Arrays.asList("Dave", "Bob"), Arrays.asList(around.get(0).name, around.get(1).name));
+
+		File file = File.createTempFile("leaderboard", ".dat");
+		file.deleteOnExit();
+		board.save(file);
+		Leaderboard loaded = Leaderboard.load(file);
+		assertEquals(4, loaded.size());
+		for (String name : new String[]{"Alice", "Bob", "Carol", "Dave"}) {
+			assertEquals(board.rank(name), loaded.rank(name));
+			assertEquals(board.rating(name), loaded.rating(name));
+		}
+	}
+
+	@Test
+	void rateLimiterDropsThrottlesAndDisconnects() {
+		RateLimiter limiter = new RateLimiter(RateLimiter.Policy.parse("chat=1/3/drop,move=10/1/throttle,all=1000/5/disconnect"));
+		long now = 0;
+		// a burst of three chats, then one a second
+		for (int i = 0; i < 3; i++) assertEquals(RateLimiter.ALLOW, limiter.check(RateLimiter.Kind.CHAT, now));
+		assertEquals(RateLimiter.DROP, limiter.check(RateLimiter.Kind.CHAT, now));
+		assertEquals(RateLimiter.ALLOW, limiter.check(RateLimiter.Kind.CHAT, now + 1_000_000_000L));
+
+		// moves queue up 100 ms apart instead of being dropped
+		now = 10_000_000_000L;
+		assertEquals(RateLimiter.ALLOW, limiter.check(RateLimiter.Kind.MOVE, now));
+		assertEquals(100_000_000L, limiter.check(RateLimiter.Kind.MOVE, now), 1000);
+
+		// anything past the overall burst disconnects
+		assertEquals(RateLimiter.ALLOW, limiter.check(RateLimiter.Kind.OTHER, now));
+		assertEquals(RateLimiter.ALLOW, limiter.check(RateLimiter.Kind.OTHER, now));
+		assertEquals(RateLimiter.ALLOW, limiter.check(RateLimiter.Kind.OTHER, now));
+		assertEquals(RateLimiter.DISCONNECT, limiter.check(RateLimiter.Kind.OTHER, now));
+
+		assertEquals(RateLimiter.Kind.CHAT, Server.kindOf("G4", "PRIVATE_CHAT:hi"));
+		assertEquals(RateLimiter.Kind.USERNAME, Server.kindOf(Server.LOBBY, "SET_USERNAME:x"));
+		assertEquals(RateLimiter.ALLOW, new RateLimiter(RateLimiter.Policy.parse("off")).check(RateLimiter.Kind.CHAT, 0));
+	}
+
+	@Test
+	void chatBatchesDeflateAgainstTheSharedDictionary() throws Exception {
+		ChatCodec codec = new ChatCodec();
+		java.util.zip.Inflater inflater = new java.util.zip.Inflater();
+		byte[] buffer = new byte[4096];
+		String batch = Server.BATCH + "|" + String.join(String.valueOf(Server.BATCH_SEPARATOR),
+				Server.frame(Server.LOBBY, "PUBLIC_CHAT:User7:gg well played"),
+				Server.frame(Server.LOBBY, "PUBLIC_CHAT:User9:thanks, rematch?"));
+		// each batch inflates on its own, in the same stream, as soon as it arrives
+		for (int i = 0; i < 3; i++) {
+			byte[] packed = codec.compress(batch);
+			assertTrue(packed.length < batch.length());
+			inflater.setInput(packed);
+			StringBuilder text = new StringBuilder();
+			int n;
+			while ((n = inflater.inflate(buffer)) > 0 || inflater.needsDictionary()) {
+				if (n == 0) inflater.setDictionary(ChatCodec.DICTIONARY);
+				text.append(new String(buffer, 0, n, java.nio.charset.StandardCharsets.UTF_8));
+			}
+			assertEquals(batch, text.toString());
+		}
+		codec.close();
+		assertThrows(IllegalStateException.class, () -> codec.compress("late"));
+	}
+
+	@Test
+	void routerRingSpreadsPlayersAndMovesFewWhenANodeLeaves() throws Exception {
+		Router.Ring<String> ring = new Router.Ring<>();
+		for (String node : new String[]{"a", "b", "c", "d"}) ring.add(node, node);
+		int keys = 20_000;
+		java.util.Map<String, Integer> share = new java.util.HashMap<>();
+		String[] before = new String[keys];
+		for (int k = 0; k < keys; k++) {
+			before[k] = ring.lookup("127.0.0.1:" + k).get(0);
+			share.merge(before[k], 1, Integer::sum);
+		}
+		for (int n : share.values()) assertTrue(n > keys / 4 * 0.75 && n < keys / 4 * 1.25, share.toString());
+
+		// only the keys that were on the node that left go anywhere else
+		ring.remove("c");
+		for (int k = 0; k < keys; k++) {
+			List<String> order = ring.lookup("127.0.0.1:" + k);
+			assertEquals(3, order.size());
+			if (!before[k].equals("c")) assertEquals(before[k], order.get(0));
+		}
+
+		java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+		ClusterLink.writeResult(new java.io.DataOutputStream(bytes), new ClusterLink.Result("Ann", "Bo", -1));
+		java.io.DataInputStream in = new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(ClusterLink.RESULT, in.readByte());
+		ClusterLink.Result r = ClusterLink.readResult(in);
+		assertEquals("Ann", r.a);
+		assertEquals("Bo", r.b);
+		assertEquals(-1, r.outcome);
+	}
+
+	@Test
+	void everyBoardKindAgreesWithACellByCellCheck() {
+		Random random = new Random(5);
+		for (String spec : new String[]{"7x6", "8x7", "5x4/3", "9x7/5", "10x9"}) {
+			Variant v = Variant.parse(spec);
+			assertEquals(spec, v.toString());
+			for (int game = 0; game < 200; game++) {
+				Board board = v.newBoard();
+				int[][] cells = new int[v.cols][v.rows];
+				int[] heights = new int[v.cols];
+				while (!board.isFull()) {
+					int col = random.nextInt(v.cols);
+					if (!board.canPlay(col)) continue;
+					int player = board.moves() % 2 + 1;
+					cells[col][heights[col]] = player;
+					boolean wins = lineAt(cells, col, heights[col], v.connect);
+					cells[col][heights[col]] = 3 - player;
+					assertEquals(lineAt(cells, col, heights[col], v.connect), board.isThreat(col));
+					cells[col][heights[col]++] = player;
+					assertEquals(wins, board.isWinningMove(col));
+					board.play(col);
+					assertEquals(wins, board.lastMoveWon());
+					if (wins) break;
+				}
+			}
+		}
+		assertTrue(Variant.parse("7x6").newBoard() instanceof BitBoard);
+		assertTrue(Variant.parse("8x7").newBoard() instanceof Variant.Packed);
+		assertTrue(Variant.parse("9x7").newBoard() instanceof Variant.Columns);
+		assertThrows(IllegalArgumentException.class, () -> Variant.parse("11x6"));
+		assertThrows(IllegalArgumentException.class, () -> Variant.parse("seven"));
+	}
+
+	// whether the stone at (col, row) is in a line of n of its player's stones
+	private static boolean lineAt(int[][] cells, int col, int row, int n) {
+		int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+		for (int[] d : directions) {
+			int count = 1;
+			for (int sign = -1; sign <= 1; sign += 2) {
+				int c = col + sign * d[0], r = row + sign * d[1];
+				while (c >= 0 && c < cells.length && r >= 0 && r < cells[0].length && cells[c][r] == cells[col][row]) {
+					count++;
+					c += sign * d[0];
+					r += sign * d[1];
+				}
+			}
+			if (count >= n) return true;
+		}
+		return false;
+	}
+
+	@Test
+	void drainTellsClientsAndClosesEveryConnection() throws Exception {
+		ServerConfig config = ServerConfig.defaults();
+		config.port = 5931;
+		config.leaderboardFile = "";
+		Server server = new Server(config, null);
+		assertEquals(Server.State.NEW, server.getState());
+		server.start();
+		java.net.Socket sock = null;
+		for (int i = 0; i < 50 && sock == null; i++) {
+			try {
+				sock = new java.net.Socket("localhost", config.port);
+			} catch (java.io.IOException e) {
+				Thread.sleep(20);
+			}
+		}
+		assertNotNull(sock);
+		// the server waits for our stream header before it says hello
+		new java.io.ObjectOutputStream(sock.getOutputStream()).flush();
+		java.io.ObjectInputStream in = new java.io.ObjectInputStream(sock.getInputStream());
+		assertEquals("LOBBY|CONNECTED:1", in.readObject());
+		for (int i = 0; i < 50 && server.getCurrentClients() == 0; i++) Thread.sleep(20);
+
+		// nothing to wait for, so this returns at once
+		assertEquals(0, server.drain(10_000));
+		assertEquals(Server.State.STOPPED, server.getState());
+		List<Object> rest = new ArrayList<>();
+		try {
+			while (true) rest.add(in.readObject());
+		} catch (java.io.EOFException | java.net.SocketException closed) {
+			// the server closed the connection
+		}
+		assertTrue(rest.contains("LOBBY|SERVER_CLOSING:10"), rest.toString());
+		assertEquals(0, server.drain(10_000));
+		sock.close();
+	}
+
+	@Test
+	void queueingChecksTheOfferedBoardsEvenForTheStandardOne() throws Exception {
+		ServerConfig config = ServerConfig.defaults();
+		config.port = 5932;
+		config.leaderboardFile = "";
+		config.variants = "8x7";
+		Server server = new Server(config, null);
+		server.start();
+		java.net.Socket sock = null;
+		for (int i = 0; i < 50 && sock == null; i++) {
+			try {
+				sock = new java.net.Socket("localhost", config.port);
+			} catch (java.io.IOException e) {
+				Thread.sleep(20);
+			}
+		}
+		assertNotNull(sock);
+		java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(sock.getOutputStream());
+		out.flush();
+		java.io.ObjectInputStream in = new java.io.ObjectInputStream(sock.getInputStream());
+		for (String queue : new String[]{"QUEUE", "QUEUE:hard", "QUEUE:9x7", "QUEUE:8x7"}) {
+			out.writeObject(Server.frame(Server.MATCH, queue));
+			out.flush();
+			Object reply;
+			do {
+				reply = in.readObject();
+			} while (!reply.toString().startsWith("MATCH|"));
+			assertEquals(queue.equals("QUEUE:8x7") ? "MATCH|STATUS:WAITING" : "MATCH|STATUS:UNSUPPORTED", reply);
+		}
+		server.stop();
+		sock.close();
+	}
+
+	@Test
+	void routerSpreadsClientsOnOneHostByTheirIdsAndForwardsResults() throws Exception {
+		Router router = new Router(5933, 5934, null);
+		router.start();
+		Server[] nodes = new Server[2];
+		for (int i = 0; i < nodes.length; i++) {
+			ServerConfig config = ServerConfig.defaults();
+			config.port = 5935 + i;
+			config.leaderboardFile = "";
+			config.clusterRouter = "localhost:5934";
+			config.nodeId = "node-" + i;
+			nodes[i] = new Server(config, null);
+			nodes[i].start();
+		}
+		for (int i = 0; i < 250 && router.describeNodes().size() < 2; i++) Thread.sleep(20);
+		assertEquals(2, router.describeNodes().size());
+
+		// placement depends only on the node and client ids, so a ring of our own shows where each id goes
+		Router.Ring<String> ring = new Router.Ring<>();
+		ring.add("node-0", "node-0");
+		ring.add("node-1", "node-1");
+		List<String> first = new ArrayList<>();
+		String second = null;
+		for (int k = 0; first.size() < 2 || second == null; k++) {
+			String id = "player-" + k;
+			if (ring.lookup(id).get(0).equals("node-0")) {
+				if (first.size() < 2) first.add(id);
+			} else if (second == null) {
+				second = id;
+			}
+		}
+		// all three come from 127.0.0.1
+		SocketPlayer alice = new SocketPlayer(5933, first.get(0), "Alice");
+		SocketPlayer bob = new SocketPlayer(5933, first.get(1), "Bob");
+		SocketPlayer carol = new SocketPlayer(5933, second, "Carol");
+		for (int i = 0; i < 250 && (nodes[0].getCurrentClients() < 2 || nodes[1].getCurrentClients() < 1); i++) Thread.sleep(20);
+		assertEquals(2, nodes[0].getCurrentClients());
+		assertEquals(1, nodes[1].getCurrentClients());
+
+		String winner = playToAWin(alice, bob).name;
+		assertEquals(1, nodes[0].getLeaderboard().rank(winner));
+
+		// carol's node only knows the game because the router forwarded it
+		String top = "";
+		for (int i = 0; i < 250 && !top.contains(winner); i++) {
+			carol.send(Server.LOBBY, "TOP:10");
+			top = carol.await("LOBBY|TOP:");
+			if (!top.contains(winner)) Thread.sleep(20);
+		}
+		assertTrue(top.contains(winner), top);
+		assertEquals(1, nodes[1].getLeaderboard().rank(winner));
+
+		for (SocketPlayer p : new SocketPlayer[]{alice, bob, carol}) p.sock.close();
+		for (Server node : nodes) node.stop();
+	}
+
+	@Test
+	void onlyGamesBetweenPlayersWhoPickedTheirNamesAreRated() throws Exception {
+		ServerConfig config = ServerConfig.defaults();
+		config.port = 5937;
+		config.leaderboardFile = "";
+		Server server = new Server(config, null);
+		server.start();
+		// a name that looks like a default one counts once the player has picked it
+		SocketPlayer chosen = new SocketPlayer(config.port, "a", "User42");
+		SocketPlayer alice = new SocketPlayer(config.port, "b", "Alice");
+		playToAWin(chosen, alice);
+		assertNotEquals(0, server.getLeaderboard().rank("User42"));
+		assertNotEquals(0, server.getLeaderboard().rank("Alice"));
+
+		// default names start again from User1 after a restart, so these games aren't
+		SocketPlayer unnamed = new SocketPlayer(config.port, "c", null);
+		SocketPlayer bob = new SocketPlayer(config.port, "d", "Bob");
+		playToAWin(unnamed, bob);
+		assertEquals(0, server.getLeaderboard().rank("Bob"));
+		assertEquals(2, server.getLeaderboard().size());
+
+		for (SocketPlayer p : new SocketPlayer[]{chosen, alice, unnamed, bob}) p.sock.close();
+		server.stop();
+	}
+
+	// Queue a and b, with nobody else waiting, and play until one of them wins, which it returns.
+	private static SocketPlayer playToAWin(SocketPlayer a, SocketPlayer b) throws Exception {
+		a.send(Server.MATCH, "QUEUE");
+		b.send(Server.MATCH, "QUEUE");
+		String game = "G" + a.await("MATCH|MATCHED:").substring(14);
+		assertEquals("MATCH|MATCHED:" + game.substring(1), b.await("MATCH|MATCHED:"));
+		SocketPlayer mover = a.await(game + "|TURN:").endsWith("true") ? a : b;
+		SocketPlayer other = mover == a ? b : a;
+		// the mover stacks column 0 and wins on its fourth move
+		for (int col : new int[]{0, 1, 0, 1, 0, 1, 0}) {
+			mover.send(game, "MOVE:" + col);
+			// the RANK reply comes after the move has been played, so the next one can't overtake it
+			mover.send(Server.LOBBY, "RANK");
+			mover.await("LOBBY|RANK:");
+			SocketPlayer next = other;
+			other = mover;
+			mover = next;
+		}
+		return other;
+	}
+
+	// A player connecting the way the client does: hello with its id, then the object stream.
+	// With a null name it keeps the default one the server gives it.
+	private static class SocketPlayer {
+		final String name;
+		final java.net.Socket sock;
+		final java.io.ObjectOutputStream out;
+		final java.io.ObjectInputStream in;
+
+		SocketPlayer(int port, String id, String name) throws Exception {
+			this.name = name;
+			java.net.Socket s = null;
+			for (int i = 0; i < 50 && s == null; i++) {
+				try {
+					s = new java.net.Socket("localhost", port);
+				} catch (java.io.IOException e) {
+					Thread.sleep(20);
+				}
+			}
+			assertNotNull(s);
+			sock = s;
+			Router.writeHello(sock.getOutputStream(), id);
+			out = new java.io.ObjectOutputStream(sock.getOutputStream());
+			out.flush();
+			in = new java.io.ObjectInputStream(sock.getInputStream());
+			if (name != null) {
+				send(Server.LOBBY, "SET_USERNAME:" + name);
+			}
+		}
+
+		void send(String channel, String msg) throws java.io.IOException {
+			out.writeObject(Server.frame(channel, msg));
+			out.flush();
+		}
+
+		// skip ahead to the next message starting with prefix
+		String await(String prefix) throws Exception {
+			while (true) {
+				String msg = in.readObject().toString();
+				if (msg.startsWith(prefix)) return msg;
+			}
+		}
+	}
+
 }